@@ -24,9 +24,7 @@ import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.os.BatteryStats;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IPowerManager;
-import android.os.Message;
 import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.text.format.DateUtils;
@@ -47,18 +45,17 @@ public class BatteryInfo extends Activity {
     private IBatteryStats mBatteryStats;
     private IPowerManager mScreenStats;
     
-    private static final int EVENT_TICK = 1;
-    
-    private Handler mHandler = new Handler() {
+    private final LiveTicker.Subscription<String> mUptimeSubscription =
+            new LiveTicker.Subscription<String>(DateUtils.SECOND_IN_MILLIS) {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case EVENT_TICK:
-                    updateBatteryStats();
-                    sendEmptyMessageDelayed(EVENT_TICK, 1000);
-                    
-                    break;
-            }
+        protected String sample() {
+            long uptime = SystemClock.elapsedRealtime();
+            return DateUtils.formatElapsedTime(uptime / 1000);
+        }
+
+        @Override
+        protected void apply(String uptime) {
+            mUptime.setText(uptime);
         }
     };
 
@@ -167,7 +164,7 @@ public class BatteryInfo extends Activity {
         mBatteryStats = IBatteryStats.Stub.asInterface(ServiceManager.getService(
                 BatteryStats.SERVICE_NAME));
         mScreenStats = IPowerManager.Stub.asInterface(ServiceManager.getService(POWER_SERVICE));
-        mHandler.sendEmptyMessageDelayed(EVENT_TICK, 1000);
+        LiveTicker.getInstance(this).subscribe(mUptimeSubscription);
         
         registerReceiver(mIntentReceiver, mIntentFilter);
     }
@@ -175,15 +172,9 @@ public class BatteryInfo extends Activity {
     @Override
     public void onPause() {
         super.onPause();
-        mHandler.removeMessages(EVENT_TICK);
+        LiveTicker.getInstance(this).unsubscribe(mUptimeSubscription);
         
         // we are no longer on the screen stop the observers
         unregisterReceiver(mIntentReceiver);
     }
-
-    private void updateBatteryStats() {
-        long uptime = SystemClock.elapsedRealtime();
-        mUptime.setText(DateUtils.formatElapsedTime(uptime / 1000));
-    }
-    
 }
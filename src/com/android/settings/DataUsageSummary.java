@@ -98,6 +98,7 @@ import android.text.format.Time;
 import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseLongArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -421,8 +422,7 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         mEmpty = (TextView) mHeader.findViewById(android.R.id.empty);
         mStupidPadding = mHeader.findViewById(R.id.stupid_padding);
 
-        final UserManager um = (UserManager) context.getSystemService(Context.USER_SERVICE);
-        mAdapter = new DataUsageAdapter(um, mUidDetailProvider, mInsetSide);
+        mAdapter = new DataUsageAdapter(mUidDetailProvider, mInsetSide);
         mListView.setOnItemClickListener(mListListener);
         mListView.setAdapter(mAdapter);
 
@@ -609,6 +609,12 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         return false;
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPolicyEditor.flush();
+    }
+
     @Override
     public void onDestroy() {
         mDataEnabledView = null;
@@ -1349,24 +1355,22 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         }
     };
 
-    private final LoaderCallbacks<NetworkStats> mSummaryCallbacks = new LoaderCallbacks<
-            NetworkStats>() {
+    private final LoaderCallbacks<CollapsedItems> mSummaryCallbacks = new LoaderCallbacks<
+            CollapsedItems>() {
         @Override
-        public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
-            return new SummaryForAllUidLoader(getActivity(), mStatsSession, args);
+        public Loader<CollapsedItems> onCreateLoader(int id, Bundle args) {
+            return new AppItemsLoader(getActivity(), mStatsSession, mPolicyManager, args);
         }
 
         @Override
-        public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
-            final int[] restrictedUids = mPolicyManager.getUidsWithPolicy(
-                    POLICY_REJECT_METERED_BACKGROUND);
-            mAdapter.bindStats(data, restrictedUids);
+        public void onLoadFinished(Loader<CollapsedItems> loader, CollapsedItems data) {
+            mAdapter.bindItems(data);
             updateEmptyVisible();
         }
 
         @Override
-        public void onLoaderReset(Loader<NetworkStats> loader) {
-            mAdapter.bindStats(null, new int[0]);
+        public void onLoaderReset(Loader<CollapsedItems> loader) {
+            mAdapter.bindItems(null);
             updateEmptyVisible();
         }
 
@@ -1585,52 +1589,114 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         };
     }
 
+    /**
+     * {@link AppItem}s collapsed from the usage summary of all uids, sorted and
+     * ready to be bound to a {@link DataUsageAdapter}.
+     */
+    public static class CollapsedItems {
+        final ArrayList<AppItem> items;
+        final long largest;
+
+        CollapsedItems(ArrayList<AppItem> items, long largest) {
+            this.items = items;
+            this.largest = largest;
+        }
+    }
+
+    /**
+     * Loads the usage summary of all uids and collapses it into {@link CollapsedItems},
+     * so that switching cycles or tabs doesn't walk the stats on the UI thread.
+     */
+    private static class AppItemsLoader extends SummaryForAllUidLoader<CollapsedItems> {
+        private final NetworkPolicyManager mPolicyManager;
+        private final UserManager mUserManager;
+
+        public AppItemsLoader(Context context, INetworkStatsSession session,
+                NetworkPolicyManager policyManager, Bundle args) {
+            super(context, session, args);
+            mPolicyManager = policyManager;
+            mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        }
+
+        @Override
+        protected CollapsedItems onSummaryLoaded(NetworkStats stats) {
+            final int[] restrictedUids = mPolicyManager.getUidsWithPolicy(
+                    POLICY_REJECT_METERED_BACKGROUND);
+            final SparseBooleanArray profileIds = new SparseBooleanArray();
+            for (UserHandle profile : mUserManager.getUserProfiles()) {
+                profileIds.put(profile.getIdentifier(), true);
+            }
+            return DataUsageAdapter.collapseStats(stats, restrictedUids,
+                    ActivityManager.getCurrentUser(), profileIds);
+        }
+    }
+
     /**
      * Adapter of applications, sorted by total usage descending.
      */
     public static class DataUsageAdapter extends BaseAdapter {
         private final UidDetailProvider mProvider;
         private final int mInsetSide;
-        private final UserManager mUm;
 
         private ArrayList<AppItem> mItems = Lists.newArrayList();
         private long mLargest;
 
-        public DataUsageAdapter(final UserManager userManager, UidDetailProvider provider, int insetSide) {
+        public DataUsageAdapter(UidDetailProvider provider, int insetSide) {
             mProvider = checkNotNull(provider);
             mInsetSide = insetSide;
-            mUm = userManager;
         }
 
         /**
-         * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+         * Bind the given {@link CollapsedItems}, or {@code null} to clear list.
          */
-        public void bindStats(NetworkStats stats, int[] restrictedUids) {
+        public void bindItems(CollapsedItems items) {
             mItems.clear();
             mLargest = 0;
+            if (items != null) {
+                mItems.addAll(items.items);
+                mLargest = items.largest;
+            }
+            notifyDataSetChanged();
+        }
 
-            final int currentUserId = ActivityManager.getCurrentUser();
-            final List<UserHandle> profiles = mUm.getUserProfiles();
-            final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
-
+        /**
+         * Collapses the given {@link NetworkStats}, which may be {@code null}, into sorted
+         * items. Safe to call on any thread.
+         *
+         * @param profileIds ids of the current user and its managed profiles.
+         */
+        public static CollapsedItems collapseStats(NetworkStats stats, int[] restrictedUids,
+                int currentUserId, SparseBooleanArray profileIds) {
+            // Sum the rows of each uid first, so that items are only collapsed once per uid
+            // rather than once per set and tag row.
+            final SparseLongArray uidBytes = new SparseLongArray();
             NetworkStats.Entry entry = null;
             final int size = stats != null ? stats.size() : 0;
             for (int i = 0; i < size; i++) {
                 entry = stats.getValues(i, entry);
+                uidBytes.put(entry.uid, uidBytes.get(entry.uid) + entry.rxBytes + entry.txBytes);
+            }
 
+            final ArrayList<AppItem> items = new ArrayList<AppItem>();
+            final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
+            long largest = 0;
+
+            final int uidCount = uidBytes.size();
+            for (int i = 0; i < uidCount; i++) {
                 // Decide how to collapse items together
-                final int uid = entry.uid;
+                final int uid = uidBytes.keyAt(i);
+                final long bytes = uidBytes.valueAt(i);
 
                 final int collapseKey;
                 final int category;
                 final int userId = UserHandle.getUserId(uid);
                 if (UserHandle.isApp(uid)) {
-                    if (profiles.contains(new UserHandle(userId))) {
+                    if (profileIds.get(userId)) {
                         if (userId != currentUserId) {
                             // Add to a managed user item.
                             final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                            accumulate(managedKey, knownItems, entry,
-                                    AppItem.CATEGORY_USER);
+                            largest = Math.max(largest, accumulate(managedKey, items,
+                                    knownItems, uid, bytes, AppItem.CATEGORY_USER));
                         }
                         // Add to app item.
                         collapseKey = uid;
@@ -1647,14 +1713,15 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
                     collapseKey = android.os.Process.SYSTEM_UID;
                     category = AppItem.CATEGORY_APP;
                 }
-                accumulate(collapseKey, knownItems, entry, category);
+                largest = Math.max(largest, accumulate(collapseKey, items, knownItems, uid,
+                        bytes, category));
             }
 
-            final int restrictedUidsMax = restrictedUids.length;
+            final int restrictedUidsMax = restrictedUids != null ? restrictedUids.length : 0;
             for (int i = 0; i < restrictedUidsMax; ++i) {
                 final int uid = restrictedUids[i];
                 // Only splice in restricted state for current user or managed users
-                if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
+                if (!profileIds.get(UserHandle.getUserId(uid))) {
                     continue;
                 }
 
@@ -1662,47 +1729,47 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
                 if (item == null) {
                     item = new AppItem(uid);
                     item.total = -1;
-                    mItems.add(item);
+                    items.add(item);
                     knownItems.put(item.key, item);
                 }
                 item.restricted = true;
             }
 
-            if (!mItems.isEmpty()) {
+            if (!items.isEmpty()) {
                 final AppItem title = new AppItem();
                 title.category = AppItem.CATEGORY_APP_TITLE;
-                mItems.add(title);
+                items.add(title);
             }
 
-            Collections.sort(mItems);
-            notifyDataSetChanged();
+            Collections.sort(items);
+            return new CollapsedItems(items, largest);
         }
 
         /**
-         * Accumulate data usage of a network stats entry for the item mapped by the collapse key.
+         * Accumulate data usage of a uid for the item mapped by the collapse key.
          * Creates the item if needed.
          *
          * @param collapseKey the collapse key used to map the item.
+         * @param items list the item is added to when created.
          * @param knownItems collection of known (already existing) items.
-         * @param entry the network stats entry to extract data usage from.
+         * @param uid the uid the data usage belongs to.
+         * @param bytes the data usage of the uid.
          * @param itemCategory the item is categorized on the list view by this category. Must be
          *            either AppItem.APP_ITEM_CATEGORY or AppItem.MANAGED_USER_ITEM_CATEGORY
+         * @return the total of the item.
          */
-        private void accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-                NetworkStats.Entry entry, int itemCategory) {
-            final int uid = entry.uid;
+        private static long accumulate(int collapseKey, ArrayList<AppItem> items,
+                final SparseArray<AppItem> knownItems, int uid, long bytes, int itemCategory) {
             AppItem item = knownItems.get(collapseKey);
             if (item == null) {
                 item = new AppItem(collapseKey);
                 item.category = itemCategory;
-                mItems.add(item);
+                items.add(item);
                 knownItems.put(item.key, item);
             }
             item.addUid(uid);
-            item.total += entry.rxBytes + entry.txBytes;
-            if (mLargest < item.total) {
-                mLargest = item.total;
-            }
+            item.total += bytes;
+            return item.total;
         }
 
         @Override
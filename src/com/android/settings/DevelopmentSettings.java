@@ -28,20 +28,18 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
-import android.net.NetworkUtils;
-import android.net.wifi.IWifiManager;
-import android.net.wifi.WifiInfo;
+import android.database.ContentObserver;
 import android.hardware.usb.IUsbManager;
+import android.net.Uri;
 import android.net.wifi.WifiManager;
 import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
@@ -60,6 +58,7 @@ import android.preference.SwitchPreference;
 import android.provider.SearchIndexableResource;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.HardwareRenderer;
 import android.view.IWindowManager;
@@ -298,6 +297,13 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     private Dialog mRootDialog;
     private Dialog mUpdateRecoveryDialog;
 
+    // Options read through binder calls, loaded in the background.
+    private DevelopmentState mState;
+    private StateLoader mStateLoader;
+    private boolean mStateReloadPending;
+    private boolean mCheckStateOnLoad;
+    private SettingsObserver mSettingsObserver;
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -570,14 +576,10 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
             return;
         }
 
-        if (mDpm.getMaximumTimeToLock(null) > 0) {
-            // A DeviceAdmin has specified a maximum time until the device
-            // will lock...  in this case we can't allow the user to turn
-            // on "stay awake when plugged in" because that would defeat the
-            // restriction.
+        if (mState == null) {
+            // Not known yet whether a DeviceAdmin restricts "stay awake when
+            // plugged in", see updateKeepScreenOnRestriction()
             mDisabledPrefs.add(mKeepScreenOn);
-        } else {
-            mDisabledPrefs.remove(mKeepScreenOn);
         }
 
         final ContentResolver cr = getActivity().getContentResolver();
@@ -585,23 +587,28 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
                 Settings.Global.DEVELOPMENT_SETTINGS_ENABLED, 0) != 0;
         mSwitchBar.setChecked(mLastEnabledState);
         setPrefsEnabledState(mLastEnabledState);
+        checkDebugSettingsState();
+        mCheckStateOnLoad = true;
+        reloadState();
 
-        if (mHaveDebugSettings && !mLastEnabledState) {
-            // Overall debugging is disabled, but there are some debug
-            // settings that are enabled.  This is an invalid state.  Switch
-            // to debug settings being enabled, so the user knows there is
-            // stuff enabled and can turn it all off if they want.
-            Settings.Global.putInt(getActivity().getContentResolver(),
-                    Settings.Global.DEVELOPMENT_SETTINGS_ENABLED, 1);
-            mLastEnabledState = true;
-            mSwitchBar.setChecked(mLastEnabledState);
-            setPrefsEnabledState(mLastEnabledState);
+        if (mSettingsObserver == null) {
+            mSettingsObserver = new SettingsObserver();
         }
+        mSettingsObserver.register();
         mSwitchBar.show();
         updateKillAppLongpressBackOptions();
         updateKillAppLongpressTimeoutOptions();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        if (mSettingsObserver != null) {
+            mSettingsObserver.unregister();
+        }
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
@@ -627,20 +634,14 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
         mAdbNotify.setChecked(Settings.Secure.getInt(cr,
                 Settings.Secure.ADB_NOTIFY, 1) != 0);
         updateAdbOverNetwork();
-        if (mEnableTerminal != null) {
-            updateSwitchPreference(mEnableTerminal,
-                    context.getPackageManager().getApplicationEnabledSetting(TERMINAL_APP_PACKAGE)
-                            == PackageManager.COMPONENT_ENABLED_STATE_ENABLED);
-        }
+        updateTerminalOptions();
         updateSwitchPreference(mBugreportInPower, Settings.Secure.getInt(cr,
                 Settings.Secure.BUGREPORT_IN_POWER_MENU, 0) != 0);
         updateSwitchPreference(mKeepScreenOn, Settings.Global.getInt(cr,
                 Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0) != 0);
         updateSwitchPreference(mBtHciSnoopLog, Settings.Secure.getInt(cr,
                 Settings.Secure.BLUETOOTH_HCI_LOG, 0) != 0);
-        if (mEnableOemUnlock != null) {
-            updateSwitchPreference(mEnableOemUnlock, Utils.isOemUnlockEnabled(getActivity()));
-        }
+        updateOemUnlockOptions();
         updateSwitchPreference(mAllowMockLocation, Settings.Secure.getInt(cr,
                 Settings.Secure.ALLOW_MOCK_LOCATION, 0) != 0);
         updateSwitchPreference(mDebugViewAttributes, Settings.Global.getInt(cr,
@@ -686,6 +687,262 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
         updateUpdateRecoveryOptions();
     }
 
+    /**
+     * Starts loading the binder backed options in the background; they are
+     * bound by {@link #bindState} once available.
+     */
+    private void reloadState() {
+        if (mStateLoader != null) {
+            // Reload again once the running one completes
+            mStateReloadPending = true;
+            return;
+        }
+        mStateLoader = new StateLoader();
+        mStateLoader.execute();
+    }
+
+    private class StateLoader extends AsyncTask<Void, Void, DevelopmentState> {
+        private final Context mContext = getActivity().getApplicationContext();
+        private final boolean mHasTerminal = mEnableTerminal != null;
+        private final boolean mHasOemUnlock = mEnableOemUnlock != null;
+
+        @Override
+        protected DevelopmentState doInBackground(Void... params) {
+            return DevelopmentState.load(mContext, mWindowManager, mBackupManager,
+                    mDpm, mWifiManager, mHasTerminal ? TERMINAL_APP_PACKAGE : null, mHasOemUnlock,
+                    PACKAGE_MIME_TYPE);
+        }
+
+        @Override
+        protected void onPostExecute(DevelopmentState state) {
+            mStateLoader = null;
+            if (getActivity() == null) {
+                return;
+            }
+            mState = state;
+            bindState();
+            if (mStateReloadPending) {
+                mStateReloadPending = false;
+                reloadState();
+            }
+        }
+    }
+
+    /**
+     * Binds the options that come from {@link #mState}.
+     */
+    private void bindState() {
+        updateKeepScreenOnRestriction();
+        updateAdbOverNetwork();
+        updateTerminalOptions();
+        updateOemUnlockOptions();
+        updatePasswordSummary();
+        updateDebuggerOptions();
+        updateVerifyAppsOverUsbOptions();
+        updateFlingerOptions();
+        updateAnimationScaleOptions();
+        updateAppProcessLimitOptions();
+        updateWifiVerboseLoggingOptions();
+        updateWifiAggressiveHandoverOptions();
+        updateWifiAllowScansWithTrafficOptions();
+        if (mCheckStateOnLoad) {
+            // First load since resuming, finish the check started there
+            mCheckStateOnLoad = false;
+            checkDebugSettingsState();
+        }
+    }
+
+    private void updateKeepScreenOnRestriction() {
+        if (mState.maximumTimeToLockSet) {
+            // A DeviceAdmin has specified a maximum time until the device
+            // will lock...  in this case we can't allow the user to turn
+            // on "stay awake when plugged in" because that would defeat the
+            // restriction.
+            mDisabledPrefs.add(mKeepScreenOn);
+        } else {
+            mDisabledPrefs.remove(mKeepScreenOn);
+        }
+        mKeepScreenOn.setEnabled(mLastEnabledState && !mDisabledPrefs.contains(mKeepScreenOn));
+    }
+
+    /**
+     * Updates the preferences backed by a single setting when it changes,
+     * instead of rebinding all options.
+     */
+    private class SettingsObserver extends ContentObserver {
+        private static final int TABLE_GLOBAL = 0;
+        private static final int TABLE_SECURE = 1;
+        private static final int TABLE_SYSTEM = 2;
+
+        private final ArrayMap<Uri, Runnable> mUpdaters = new ArrayMap<Uri, Runnable>();
+
+        SettingsObserver() {
+            super(new Handler());
+            final Runnable updateAdb = new Runnable() {
+                @Override
+                public void run() {
+                    updateSwitchPreference(mEnableAdb, Settings.Global.getInt(
+                            getContentResolver(), Settings.Global.ADB_ENABLED, 0) != 0);
+                    updateVerifyAppsOverUsbOptions();
+                    updateBugreportOptions();
+                }
+            };
+            final Runnable updateDebugger = new Runnable() {
+                @Override
+                public void run() {
+                    updateDebuggerOptions();
+                }
+            };
+            final Runnable updateColorSpace = new Runnable() {
+                @Override
+                public void run() {
+                    updateSimulateColorSpace();
+                }
+            };
+            final Runnable reload = new Runnable() {
+                @Override
+                public void run() {
+                    reloadState();
+                }
+            };
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.ADB_ENABLED), updateAdb);
+            mUpdaters.put(Settings.Secure.getUriFor(Settings.Secure.ADB_PORT), new Runnable() {
+                @Override
+                public void run() {
+                    updateAdbOverNetwork();
+                }
+            });
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.DEBUG_APP), updateDebugger);
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.WAIT_FOR_DEBUGGER),
+                    updateDebugger);
+            mUpdaters.put(Settings.Secure.getUriFor(
+                    Settings.Secure.ACCESSIBILITY_DISPLAY_DALTONIZER_ENABLED), updateColorSpace);
+            mUpdaters.put(Settings.Secure.getUriFor(
+                    Settings.Secure.ACCESSIBILITY_DISPLAY_DALTONIZER), updateColorSpace);
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.WINDOW_ANIMATION_SCALE),
+                    reload);
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.TRANSITION_ANIMATION_SCALE),
+                    reload);
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.ANIMATOR_DURATION_SCALE),
+                    reload);
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.PACKAGE_VERIFIER_ENABLE),
+                    reload);
+            mUpdaters.put(Settings.Global.getUriFor(Settings.Global.OVERLAY_DISPLAY_DEVICES),
+                    new Runnable() {
+                @Override
+                public void run() {
+                    updateOverlayDisplayDevicesOptions();
+                }
+            });
+            putSwitch(TABLE_SECURE, Settings.Secure.ADB_NOTIFY, 1, mAdbNotify);
+            putSwitch(TABLE_SECURE, Settings.Secure.BUGREPORT_IN_POWER_MENU, 0,
+                    mBugreportInPower);
+            putSwitch(TABLE_GLOBAL, Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0, mKeepScreenOn);
+            putSwitch(TABLE_SECURE, Settings.Secure.BLUETOOTH_HCI_LOG, 0, mBtHciSnoopLog);
+            putSwitch(TABLE_SECURE, Settings.Secure.ALLOW_MOCK_LOCATION, 0, mAllowMockLocation);
+            putSwitch(TABLE_GLOBAL, Settings.Global.DEBUG_VIEW_ATTRIBUTES, 0,
+                    mDebugViewAttributes);
+            putSwitch(TABLE_SYSTEM, ENABLE_QUICKBOOT, 0, mQuickBoot);
+            putSwitch(TABLE_SYSTEM, Settings.System.POINTER_LOCATION, 0, mPointerLocation);
+            putSwitch(TABLE_SYSTEM, Settings.System.SHOW_TOUCHES, 0, mShowTouches);
+            putSwitch(TABLE_GLOBAL, Settings.Global.SHOW_PROCESSES, 0, mShowCpuUsage);
+            putSwitch(TABLE_GLOBAL, Settings.Global.SHOW_CPU, 0, mShowCpuInfo);
+            putSwitch(TABLE_GLOBAL, Settings.Global.ALWAYS_FINISH_ACTIVITIES, 0,
+                    mImmediatelyDestroyActivities);
+            putSwitch(TABLE_SECURE, Settings.Secure.ANR_SHOW_BACKGROUND, 0, mShowAllANRs);
+            putSwitch(TABLE_GLOBAL, Settings.Global.PACKAGE_VERIFIER_INCLUDE_ADB, 1,
+                    mVerifyAppsOverUsb);
+            putSwitch(TABLE_GLOBAL, Settings.Global.DEVELOPMENT_FORCE_RTL, 0, mForceRtlLayout);
+            putSwitch(TABLE_GLOBAL, Settings.Global.WIFI_DISPLAY_CERTIFICATION_ON, 0,
+                    mWifiDisplayCertification);
+            putSwitch(TABLE_SECURE, Settings.Secure.USB_AUDIO_AUTOMATIC_ROUTING_DISABLED, 0,
+                    mUSBAudio);
+        }
+
+        private void putSwitch(final int table, final String name, final int def,
+                final SwitchPreference pref) {
+            if (pref == null) {
+                return;
+            }
+            final Uri uri;
+            switch (table) {
+                case TABLE_GLOBAL:
+                    uri = Settings.Global.getUriFor(name);
+                    break;
+                case TABLE_SECURE:
+                    uri = Settings.Secure.getUriFor(name);
+                    break;
+                default:
+                    uri = Settings.System.getUriFor(name);
+                    break;
+            }
+            mUpdaters.put(uri, new Runnable() {
+                @Override
+                public void run() {
+                    final ContentResolver cr = getContentResolver();
+                    final int value;
+                    switch (table) {
+                        case TABLE_GLOBAL:
+                            value = Settings.Global.getInt(cr, name, def);
+                            break;
+                        case TABLE_SECURE:
+                            value = Settings.Secure.getInt(cr, name, def);
+                            break;
+                        default:
+                            value = Settings.System.getInt(cr, name, def);
+                            break;
+                    }
+                    pref.setChecked(value != 0);
+                }
+            });
+        }
+
+        void register() {
+            final ContentResolver cr = getContentResolver();
+            for (int i = 0; i < mUpdaters.size(); i++) {
+                cr.registerContentObserver(mUpdaters.keyAt(i), false, this);
+            }
+        }
+
+        void unregister() {
+            getContentResolver().unregisterContentObserver(this);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final Runnable updater = mUpdaters.get(uri);
+            if (updater != null && getActivity() != null) {
+                updater.run();
+            }
+        }
+    }
+
+    private void updateTerminalOptions() {
+        if (mEnableTerminal != null && mState != null) {
+            updateSwitchPreference(mEnableTerminal, mState.terminalEnabled);
+        }
+    }
+
+    private void updateOemUnlockOptions() {
+        if (mEnableOemUnlock != null && mState != null) {
+            updateSwitchPreference(mEnableOemUnlock, mState.oemUnlockEnabled);
+        }
+    }
+
+    private void checkDebugSettingsState() {
+        if (mHaveDebugSettings && !mLastEnabledState) {
+            // Overall debugging is disabled, but there are some debug
+            // settings that are enabled.  This is an invalid state.  Switch
+            // to debug settings being enabled, so the user knows there is
+            // stuff enabled and can turn it all off if they want.
+            Settings.Global.putInt(getActivity().getContentResolver(),
+                    Settings.Global.DEVELOPMENT_SETTINGS_ENABLED, 1);
+            mLastEnabledState = true;
+            mSwitchBar.setChecked(mLastEnabledState);
+            setPrefsEnabledState(mLastEnabledState);
+        }
+    }
+
     private void writeAdvancedRebootOptions() {
         Settings.Secure.putInt(getActivity().getContentResolver(),
                 Settings.Secure.ADVANCED_REBOOT,
@@ -720,22 +977,8 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
 
         updateSwitchPreference(mAdbOverNetwork, enabled);
 
-        WifiInfo wifiInfo = null;
-
-        if (enabled) {
-            IWifiManager wifiManager = IWifiManager.Stub.asInterface(
-                    ServiceManager.getService(Context.WIFI_SERVICE));
-            try {
-                wifiInfo = wifiManager.getConnectionInfo();
-            } catch (RemoteException e) {
-                Log.e(TAG, "wifiManager, getConnectionInfo()", e);
-            }
-        }
-
-        if (wifiInfo != null) {
-            String hostAddress = NetworkUtils.intToInetAddress(
-                    wifiInfo.getIpAddress()).getHostAddress();
-            mAdbOverNetwork.setSummary(hostAddress + ":" + String.valueOf(port));
+        if (enabled && mState != null && mState.wifiHostAddress != null) {
+            mAdbOverNetwork.setSummary(mState.wifiHostAddress + ":" + String.valueOf(port));
         } else {
             mAdbOverNetwork.setSummary(R.string.adb_over_network_summary);
         }
@@ -768,6 +1011,7 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
         writeAppProcessLimitOptions(null);
         mHaveDebugSettings = false;
         updateAllOptions();
+        reloadState();
         mDontPokeProperties = false;
         pokeSystemProperties();
     }
@@ -876,14 +1120,13 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     }
 
     private void updatePasswordSummary() {
-        try {
-            if (mBackupManager.hasBackupPassword()) {
-                mPassword.setSummary(R.string.local_backup_password_summary_change);
-            } else {
-                mPassword.setSummary(R.string.local_backup_password_summary_none);
-            }
-        } catch (RemoteException e) {
-            // Not much we can do here
+        if (mState == null || !mState.backupPasswordValid) {
+            return;
+        }
+        if (mState.hasBackupPassword) {
+            mPassword.setSummary(R.string.local_backup_password_summary_change);
+        } else {
+            mPassword.setSummary(R.string.local_backup_password_summary_none);
         }
     }
 
@@ -918,13 +1161,12 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
                 getActivity().getContentResolver(), Settings.Global.WAIT_FOR_DEBUGGER, 0) != 0);
         if (mDebugApp != null && mDebugApp.length() > 0) {
             String label;
-            try {
-                ApplicationInfo ai = getActivity().getPackageManager().getApplicationInfo(mDebugApp,
-                        PackageManager.GET_DISABLED_COMPONENTS);
-                CharSequence lab = getActivity().getPackageManager().getApplicationLabel(ai);
-                label = lab != null ? lab.toString() : mDebugApp;
-            } catch (PackageManager.NameNotFoundException e) {
-                label = mDebugApp;
+            if (mState != null && mDebugApp.equals(mState.debugApp)) {
+                label = mState.debugAppLabel;
+            } else {
+                // Just picked, not part of the loaded state yet
+                label = DevelopmentState.loadAppLabel(getActivity().getPackageManager(),
+                        mDebugApp);
             }
             mDebugAppPref.setSummary(getResources().getString(R.string.debug_app_set, label));
             mWaitForDebugger.setEnabled(true);
@@ -958,17 +1200,9 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
         }
         if (Settings.Global.getInt(cr, Settings.Global.PACKAGE_VERIFIER_ENABLE, 1) == 0) {
             return false;
-        } else {
-            final PackageManager pm = getActivity().getPackageManager();
-            final Intent verification = new Intent(Intent.ACTION_PACKAGE_NEEDS_VERIFICATION);
-            verification.setType(PACKAGE_MIME_TYPE);
-            verification.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(verification, 0);
-            if (receivers.size() == 0) {
-                return false;
-            }
         }
-        return true;
+        // Receivers are looked up with the rest of the state in the background
+        return mState != null && mState.verifierAvailable;
     }
 
     private boolean showVerifierSetting() {
@@ -1045,28 +1279,9 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     }
 
     private void updateFlingerOptions() {
-        // magic communication with surface flinger.
-        try {
-            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
-            if (flinger != null) {
-                Parcel data = Parcel.obtain();
-                Parcel reply = Parcel.obtain();
-                data.writeInterfaceToken("android.ui.ISurfaceComposer");
-                flinger.transact(1010, data, reply, 0);
-                @SuppressWarnings("unused")
-                int showCpu = reply.readInt();
-                @SuppressWarnings("unused")
-                int enableGL = reply.readInt();
-                int showUpdates = reply.readInt();
-                updateSwitchPreference(mShowScreenUpdates, showUpdates != 0);
-                @SuppressWarnings("unused")
-                int showBackground = reply.readInt();
-                int disableOverlays = reply.readInt();
-                updateSwitchPreference(mDisableOverlays, disableOverlays != 0);
-                reply.recycle();
-                data.recycle();
-            }
-        } catch (RemoteException ex) {
+        if (mState != null && mState.flingerValid) {
+            updateSwitchPreference(mShowScreenUpdates, mState.showScreenUpdates);
+            updateSwitchPreference(mDisableOverlays, mState.disableOverlays);
         }
     }
 
@@ -1081,7 +1296,7 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
                 flinger.transact(1002, data, null, 0);
                 data.recycle();
 
-                updateFlingerOptions();
+                reloadState();
             }
         } catch (RemoteException ex) {
         }
@@ -1098,7 +1313,7 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
                 flinger.transact(1008, data, null, 0);
                 data.recycle();
 
-                updateFlingerOptions();
+                reloadState();
             }
         } catch (RemoteException ex) {
         }
@@ -1334,8 +1549,9 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     }
 
     private void updateWifiVerboseLoggingOptions() {
-        boolean enabled = mWifiManager.getVerboseLoggingLevel() > 0;
-        updateSwitchPreference(mWifiVerboseLogging, enabled);
+        if (mState != null) {
+            updateSwitchPreference(mWifiVerboseLogging, mState.wifiVerboseLogging > 0);
+        }
     }
 
     private void writeWifiVerboseLoggingOptions() {
@@ -1343,8 +1559,9 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     }
 
     private void updateWifiAggressiveHandoverOptions() {
-        boolean enabled = mWifiManager.getAggressiveHandover() > 0;
-        updateSwitchPreference(mWifiAggressiveHandover, enabled);
+        if (mState != null) {
+            updateSwitchPreference(mWifiAggressiveHandover, mState.wifiAggressiveHandover > 0);
+        }
     }
 
     private void writeWifiAggressiveHandoverOptions() {
@@ -1352,8 +1569,10 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     }
 
     private void updateWifiAllowScansWithTrafficOptions() {
-        boolean enabled = mWifiManager.getAllowScansWithTraffic() > 0;
-        updateSwitchPreference(mWifiAllowScansWithTraffic, enabled);
+        if (mState != null) {
+            updateSwitchPreference(mWifiAllowScansWithTraffic,
+                    mState.wifiAllowScansWithTraffic > 0);
+        }
     }
 
     private void writeWifiAllowScansWithTrafficOptions() {
@@ -1459,38 +1678,40 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
                 getActivity().getContentResolver(), Settings.Global.ALWAYS_FINISH_ACTIVITIES, 0) != 0);
     }
 
-    private void updateAnimationScaleValue(int which, ListPreference pref) {
-        try {
-            float scale = mWindowManager.getAnimationScale(which);
-            if (scale != 1) {
-                mHaveDebugSettings = true;
-            }
-            CharSequence[] values = pref.getEntryValues();
-            for (int i=0; i<values.length; i++) {
-                float val = Float.parseFloat(values[i].toString());
-                if (scale <= val) {
-                    pref.setValueIndex(i);
-                    pref.setSummary(pref.getEntries()[i]);
-                    return;
-                }
+    private void updateAnimationScaleValue(float scale, ListPreference pref) {
+        if (Float.isNaN(scale)) {
+            return;
+        }
+        if (scale != 1) {
+            mHaveDebugSettings = true;
+        }
+        CharSequence[] values = pref.getEntryValues();
+        for (int i=0; i<values.length; i++) {
+            float val = Float.parseFloat(values[i].toString());
+            if (scale <= val) {
+                pref.setValueIndex(i);
+                pref.setSummary(pref.getEntries()[i]);
+                return;
             }
-            pref.setValueIndex(values.length-1);
-            pref.setSummary(pref.getEntries()[0]);
-        } catch (RemoteException e) {
         }
+        pref.setValueIndex(values.length-1);
+        pref.setSummary(pref.getEntries()[0]);
     }
 
     private void updateAnimationScaleOptions() {
-        updateAnimationScaleValue(0, mWindowAnimationScale);
-        updateAnimationScaleValue(1, mTransitionAnimationScale);
-        updateAnimationScaleValue(2, mAnimatorDurationScale);
+        if (mState == null) {
+            return;
+        }
+        updateAnimationScaleValue(mState.getAnimationScale(0), mWindowAnimationScale);
+        updateAnimationScaleValue(mState.getAnimationScale(1), mTransitionAnimationScale);
+        updateAnimationScaleValue(mState.getAnimationScale(2), mAnimatorDurationScale);
     }
 
     private void writeAnimationScaleOption(int which, ListPreference pref, Object newValue) {
         try {
             float scale = newValue != null ? Float.parseFloat(newValue.toString()) : 1;
             mWindowManager.setAnimationScale(which, scale);
-            updateAnimationScaleValue(which, pref);
+            updateAnimationScaleValue(scale, pref);
         } catch (RemoteException e) {
         }
     }
@@ -1545,31 +1766,34 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
     }
 
     private void updateAppProcessLimitOptions() {
-        try {
-            int limit = ActivityManagerNative.getDefault().getProcessLimit();
-            CharSequence[] values = mAppProcessLimit.getEntryValues();
-            for (int i=0; i<values.length; i++) {
-                int val = Integer.parseInt(values[i].toString());
-                if (val >= limit) {
-                    if (i != 0) {
-                        mHaveDebugSettings = true;
-                    }
-                    mAppProcessLimit.setValueIndex(i);
-                    mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[i]);
-                    return;
+        if (mState == null || !mState.processLimitValid) {
+            return;
+        }
+        updateAppProcessLimitValue(mState.processLimit);
+    }
+
+    private void updateAppProcessLimitValue(int limit) {
+        CharSequence[] values = mAppProcessLimit.getEntryValues();
+        for (int i=0; i<values.length; i++) {
+            int val = Integer.parseInt(values[i].toString());
+            if (val >= limit) {
+                if (i != 0) {
+                    mHaveDebugSettings = true;
                 }
+                mAppProcessLimit.setValueIndex(i);
+                mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[i]);
+                return;
             }
-            mAppProcessLimit.setValueIndex(0);
-            mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[0]);
-        } catch (RemoteException e) {
         }
+        mAppProcessLimit.setValueIndex(0);
+        mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[0]);
     }
 
     private void writeAppProcessLimitOptions(Object newValue) {
         try {
             int limit = newValue != null ? Integer.parseInt(newValue.toString()) : -1;
             ActivityManagerNative.getDefault().setProcessLimit(limit);
-            updateAppProcessLimitOptions();
+            updateAppProcessLimitValue(limit);
         } catch (RemoteException e) {
         }
     }
@@ -1591,6 +1815,7 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
             public void onClick(DialogInterface dialog, int which) {
                 Utils.setOemUnlockEnabled(getActivity(), true);
                 updateAllOptions();
+                reloadState();
             }
         };
 
@@ -1736,6 +1961,7 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
             pm.setApplicationEnabledSetting(TERMINAL_APP_PACKAGE,
                     mEnableTerminal.isChecked() ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
                             : PackageManager.COMPONENT_ENABLED_STATE_DEFAULT, 0);
+            reloadState();
         } else if (preference == mBugreportInPower) {
             Settings.Secure.putInt(getActivity().getContentResolver(),
                     Settings.Secure.BUGREPORT_IN_POWER_MENU,
@@ -2048,35 +2274,7 @@ public class DevelopmentSettings extends SettingsPreferenceFragment
 
     void pokeSystemProperties() {
         if (!mDontPokeProperties) {
-            //noinspection unchecked
-            (new SystemPropPoker()).execute();
-        }
-    }
-
-    static class SystemPropPoker extends AsyncTask<Void, Void, Void> {
-        @Override
-        protected Void doInBackground(Void... params) {
-            String[] services;
-            try {
-                services = ServiceManager.listServices();
-            } catch (RemoteException e) {
-                return null;
-            }
-            for (String service : services) {
-                IBinder obj = ServiceManager.checkService(service);
-                if (obj != null) {
-                    Parcel data = Parcel.obtain();
-                    try {
-                        obj.transact(IBinder.SYSPROPS_TRANSACTION, data, null, 0);
-                    } catch (RemoteException e) {
-                    } catch (Exception e) {
-                        Log.i(TAG, "Someone wrote a bad service '" + service
-                                + "' that doesn't like to be poked: " + e);
-                    }
-                    data.recycle();
-                }
-            }
-            return null;
+            SystemPropPoker.getInstance().poke();
         }
     }
 
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.app.ActivityManagerNative;
+import android.app.admin.DevicePolicyManager;
+import android.app.backup.IBackupManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.NetworkUtils;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.IWindowManager;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of the developer options that can only be read through
+ * a binder call (SurfaceFlinger, window manager, activity manager, backup,
+ * device policy, wifi and package manager).  Loaded off the UI thread by
+ * {@link DevelopmentSettings} and bound to the preferences in one go.
+ */
+final class DevelopmentState {
+    private static final String TAG = "DevelopmentState";
+
+    static final int ANIMATION_SCALE_COUNT = 3;
+
+    final boolean flingerValid;
+    final boolean showScreenUpdates;
+    final boolean disableOverlays;
+
+    /** Window, transition and animator scales; NaN if unavailable. */
+    private final float[] mAnimationScales = new float[ANIMATION_SCALE_COUNT];
+
+    final boolean processLimitValid;
+    final int processLimit;
+
+    final boolean backupPasswordValid;
+    final boolean hasBackupPassword;
+
+    /** Whether a device admin limits the time until the device locks. */
+    final boolean maximumTimeToLockSet;
+
+    final boolean terminalEnabled;
+    final boolean oemUnlockEnabled;
+
+    final String debugApp;
+    final String debugAppLabel;
+
+    final boolean verifierAvailable;
+
+    /** Current wifi address, used for the adb over network summary. */
+    final String wifiHostAddress;
+
+    final int wifiVerboseLogging;
+    final int wifiAggressiveHandover;
+    final int wifiAllowScansWithTraffic;
+
+    private DevelopmentState(Context context, IWindowManager windowManager,
+            IBackupManager backupManager, DevicePolicyManager dpm, WifiManager wifiManager,
+            String terminalPackage, boolean hasOemUnlock, String verifierMimeType) {
+        // magic communication with surface flinger.
+        boolean flingerValid = false;
+        boolean showUpdates = false;
+        boolean disableOverlays = false;
+        try {
+            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
+            if (flinger != null) {
+                Parcel data = Parcel.obtain();
+                Parcel reply = Parcel.obtain();
+                data.writeInterfaceToken("android.ui.ISurfaceComposer");
+                flinger.transact(1010, data, reply, 0);
+                @SuppressWarnings("unused")
+                int showCpu = reply.readInt();
+                @SuppressWarnings("unused")
+                int enableGL = reply.readInt();
+                showUpdates = reply.readInt() != 0;
+                @SuppressWarnings("unused")
+                int showBackground = reply.readInt();
+                disableOverlays = reply.readInt() != 0;
+                reply.recycle();
+                data.recycle();
+                flingerValid = true;
+            }
+        } catch (RemoteException ex) {
+        }
+        this.flingerValid = flingerValid;
+        this.showScreenUpdates = showUpdates;
+        this.disableOverlays = disableOverlays;
+
+        for (int i = 0; i < ANIMATION_SCALE_COUNT; i++) {
+            try {
+                mAnimationScales[i] = windowManager.getAnimationScale(i);
+            } catch (RemoteException e) {
+                mAnimationScales[i] = Float.NaN;
+            }
+        }
+
+        boolean processLimitValid = false;
+        int processLimit = 0;
+        try {
+            processLimit = ActivityManagerNative.getDefault().getProcessLimit();
+            processLimitValid = true;
+        } catch (RemoteException e) {
+        }
+        this.processLimitValid = processLimitValid;
+        this.processLimit = processLimit;
+
+        boolean backupPasswordValid = false;
+        boolean hasBackupPassword = false;
+        try {
+            hasBackupPassword = backupManager.hasBackupPassword();
+            backupPasswordValid = true;
+        } catch (RemoteException e) {
+            // Not much we can do here
+        }
+        this.backupPasswordValid = backupPasswordValid;
+        this.hasBackupPassword = hasBackupPassword;
+
+        this.maximumTimeToLockSet = dpm.getMaximumTimeToLock(null) > 0;
+
+        final PackageManager pm = context.getPackageManager();
+        this.terminalEnabled = terminalPackage != null
+                && pm.getApplicationEnabledSetting(terminalPackage)
+                        == PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
+        this.oemUnlockEnabled = hasOemUnlock && Utils.isOemUnlockEnabled(context);
+
+        this.debugApp = Settings.Global.getString(context.getContentResolver(),
+                Settings.Global.DEBUG_APP);
+        this.debugAppLabel = debugApp != null && debugApp.length() > 0
+                ? loadAppLabel(pm, debugApp) : null;
+
+        final Intent verification = new Intent(Intent.ACTION_PACKAGE_NEEDS_VERIFICATION);
+        verification.setType(verifierMimeType);
+        verification.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(verification, 0);
+        this.verifierAvailable = receivers.size() != 0;
+
+        String hostAddress = null;
+        try {
+            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+            if (wifiInfo != null) {
+                hostAddress = NetworkUtils.intToInetAddress(
+                        wifiInfo.getIpAddress()).getHostAddress();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "wifiManager, getConnectionInfo()", e);
+        }
+        this.wifiHostAddress = hostAddress;
+
+        this.wifiVerboseLogging = wifiManager.getVerboseLoggingLevel();
+        this.wifiAggressiveHandover = wifiManager.getAggressiveHandover();
+        this.wifiAllowScansWithTraffic = wifiManager.getAllowScansWithTraffic();
+    }
+
+    static DevelopmentState load(Context context, IWindowManager windowManager,
+            IBackupManager backupManager, DevicePolicyManager dpm, WifiManager wifiManager,
+            String terminalPackage, boolean hasOemUnlock, String verifierMimeType) {
+        return new DevelopmentState(context, windowManager, backupManager, dpm, wifiManager,
+                terminalPackage, hasOemUnlock, verifierMimeType);
+    }
+
+    static String loadAppLabel(PackageManager pm, String packageName) {
+        try {
+            ApplicationInfo ai = pm.getApplicationInfo(packageName,
+                    PackageManager.GET_DISABLED_COMPONENTS);
+            CharSequence lab = pm.getApplicationLabel(ai);
+            return lab != null ? lab.toString() : packageName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return packageName;
+        }
+    }
+
+    /**
+     * Returns the given animation scale, or NaN if it couldn't be read.
+     */
+    float getAnimationScale(int which) {
+        return mAnimationScales[which];
+    }
+}
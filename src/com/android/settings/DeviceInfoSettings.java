@@ -174,7 +174,8 @@ public class DeviceInfoSettings extends SettingsPreferenceFragment implements In
 
         // Remove regulatory information if none present.
         final Intent intent = new Intent(Settings.ACTION_SHOW_REGULATORY_INFO);
-        if (getPackageManager().queryIntentActivities(intent, 0).isEmpty()) {
+        if (ResolveInfoCache.getInstance(getActivity())
+                .queryIntentActivities(intent, 0).isEmpty()) {
             Preference pref = findPreference(KEY_REGULATORY_INFO);
             if (pref != null) {
                 getPreferenceScreen().removePreference(pref);
@@ -423,8 +424,8 @@ public class DeviceInfoSettings extends SettingsPreferenceFragment implements In
         final Intent intent = new Intent(Intent.ACTION_BUG_REPORT);
 
         PackageManager pm = context.getPackageManager();
-        List<ResolveInfo> resolvedPackages =
-                pm.queryIntentActivities(intent, PackageManager.GET_RESOLVED_FILTER);
+        List<ResolveInfo> resolvedPackages = ResolveInfoCache.getInstance(context)
+                .queryIntentActivities(intent, PackageManager.GET_RESOLVED_FILTER);
         for (ResolveInfo info : resolvedPackages) {
             if (info.activityInfo != null) {
                 if (!TextUtils.isEmpty(info.activityInfo.packageName)) {
@@ -503,8 +504,8 @@ public class DeviceInfoSettings extends SettingsPreferenceFragment implements In
                 final Intent intent = new Intent(action);
 
                 // Find the activity that is in the system image
-                final PackageManager pm = context.getPackageManager();
-                final List<ResolveInfo> list = pm.queryIntentActivities(intent, 0);
+                final List<ResolveInfo> list = ResolveInfoCache.getInstance(context)
+                        .queryIntentActivities(intent, 0);
                 final int listSize = list.size();
 
                 for (int i = 0; i < listSize; i++) {
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared timer for the screens showing live values (uptime, VPN state, CPU
+ * frequency...) that have to be refreshed periodically.
+ *
+ * Subscriptions are sampled on a single background thread, with their due
+ * times aligned on multiples of their interval so that subscriptions with the
+ * same or a multiple interval share the same wakeup. Only the values that
+ * changed since the previous sample are posted to the UI thread, all in one
+ * message per wakeup. Nothing is sampled while the display is off.
+ *
+ * Subscriptions are expected to be subscribed when their screen becomes
+ * visible and unsubscribed when it is hidden, typically from onResume() and
+ * onPause().
+ */
+public final class LiveTicker {
+    private static final String TAG = "LiveTicker";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final int MSG_TICK = 1;
+    private static final int MSG_APPLY = 2;
+
+    private static LiveTicker sInstance;
+
+    public static synchronized LiveTicker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LiveTicker(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * A value refreshed by the ticker.
+     */
+    public static abstract class Subscription<T> {
+        private final long mInterval;
+
+        // Only accessed on the ticker thread.
+        private long mDueTime;
+        private T mLastValue;
+        private boolean mHasValue;
+
+        // Only accessed on the UI thread.
+        private boolean mActive;
+
+        /**
+         * @param interval the sampling interval, in milliseconds
+         */
+        protected Subscription(long interval) {
+            mInterval = interval;
+        }
+
+        /**
+         * Reads the current value; called on the ticker thread. Returning null
+         * means the value could not be read, and leaves the displayed one alone.
+         */
+        protected abstract T sample();
+
+        /**
+         * Shows a value which differs from the previously shown one; called on
+         * the UI thread, only while subscribed.
+         */
+        protected abstract void apply(T value);
+
+        /**
+         * Returns whether two samples would be displayed the same way.
+         */
+        protected boolean isSameValue(T oldValue, T newValue) {
+            return oldValue.equals(newValue);
+        }
+    }
+
+    private final Context mContext;
+    private final PowerManager mPowerManager;
+    private final Handler mTickHandler;
+    private final Handler mUiHandler;
+
+    // All of the following are guarded by 'this'.
+    private final List<Subscription<?>> mSubscriptions = new ArrayList<Subscription<?>>();
+    private boolean mScreenOn;
+    private boolean mReceiverRegistered;
+    private long mRunningSince;
+    private long mRunningTime;
+    private int mWakeups;
+    private int mPosts;
+    private int mSkippedPosts;
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
+
+    private LiveTicker(Context context) {
+        mContext = context;
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mTickHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_TICK) {
+                    tick();
+                }
+            }
+        };
+        mUiHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_APPLY) {
+                    applyAll((List<Object>) msg.obj);
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts refreshing the subscription; its current value is applied as
+     * soon as it has been sampled. Must be called on the UI thread.
+     */
+    public void subscribe(final Subscription<?> subscription) {
+        if (subscription.mActive) {
+            return;
+        }
+        subscription.mActive = true;
+        synchronized (this) {
+            mSubscriptions.add(subscription);
+            if (!mReceiverRegistered) {
+                IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+                filter.addAction(Intent.ACTION_SCREEN_OFF);
+                mContext.registerReceiver(mScreenReceiver, filter);
+                mReceiverRegistered = true;
+                mScreenOn = mPowerManager.isInteractive();
+                if (mScreenOn) {
+                    mRunningSince = SystemClock.elapsedRealtime();
+                }
+            }
+        }
+        mTickHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                resetSubscription(subscription);
+            }
+        });
+    }
+
+    /**
+     * Stops refreshing the subscription; no value is applied to it anymore,
+     * even one already posted. Must be called on the UI thread.
+     */
+    public void unsubscribe(Subscription<?> subscription) {
+        if (!subscription.mActive) {
+            return;
+        }
+        subscription.mActive = false;
+        synchronized (this) {
+            mSubscriptions.remove(subscription);
+            if (mSubscriptions.isEmpty() && mReceiverRegistered) {
+                mContext.unregisterReceiver(mScreenReceiver);
+                mReceiverRegistered = false;
+                stopRunningLocked();
+                mTickHandler.removeMessages(MSG_TICK);
+            }
+        }
+    }
+
+    /**
+     * Makes the next sample of the subscription applied even if unchanged,
+     * e.g. after the view showing it was recreated.
+     */
+    public void invalidate(final Subscription<?> subscription) {
+        mTickHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                subscription.mHasValue = false;
+                subscription.mLastValue = null;
+            }
+        });
+    }
+
+    /** Number of times the ticker woke up per minute while running. */
+    public synchronized float getWakeupsPerMinute() {
+        return perMinuteLocked(mWakeups);
+    }
+
+    /** Number of UI thread posts per minute while running. */
+    public synchronized float getPostsPerMinute() {
+        return perMinuteLocked(mPosts);
+    }
+
+    /** Number of posts avoided because no sampled value had changed. */
+    public synchronized int getSkippedPostCount() {
+        return mSkippedPosts;
+    }
+
+    private float perMinuteLocked(int count) {
+        long running = mRunningTime;
+        if (mRunningSince != 0) {
+            running += SystemClock.elapsedRealtime() - mRunningSince;
+        }
+        return running > 0 ? count * (float) DateUtils.MINUTE_IN_MILLIS / running : 0f;
+    }
+
+    private void stopRunningLocked() {
+        if (mRunningSince != 0) {
+            mRunningTime += SystemClock.elapsedRealtime() - mRunningSince;
+            mRunningSince = 0;
+        }
+    }
+
+    private void setScreenOn(boolean screenOn) {
+        synchronized (this) {
+            if (mScreenOn == screenOn || !mReceiverRegistered) {
+                return;
+            }
+            mScreenOn = screenOn;
+            if (screenOn) {
+                mRunningSince = SystemClock.elapsedRealtime();
+            } else {
+                stopRunningLocked();
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Screen " + (screenOn ? "on, resuming" : "off, pausing"));
+        mTickHandler.removeMessages(MSG_TICK);
+        if (screenOn) {
+            mTickHandler.sendEmptyMessage(MSG_TICK);
+        }
+    }
+
+    // Runs on the ticker thread.
+    private void resetSubscription(Subscription<?> subscription) {
+        subscription.mHasValue = false;
+        subscription.mLastValue = null;
+        subscription.mDueTime = 0;
+        mTickHandler.removeMessages(MSG_TICK);
+        tick();
+    }
+
+    // Runs on the ticker thread.
+    @SuppressWarnings("unchecked")
+    private void tick() {
+        final List<Subscription<?>> due = new ArrayList<Subscription<?>>();
+        final long now = SystemClock.uptimeMillis();
+        long next = Long.MAX_VALUE;
+        synchronized (this) {
+            if (!mScreenOn) {
+                return;
+            }
+            for (int i = 0; i < mSubscriptions.size(); i++) {
+                Subscription<?> subscription = mSubscriptions.get(i);
+                if (subscription.mDueTime <= now) {
+                    due.add(subscription);
+                    subscription.mDueTime = (now / subscription.mInterval + 1)
+                            * subscription.mInterval;
+                }
+                next = Math.min(next, subscription.mDueTime);
+            }
+            if (!due.isEmpty()) {
+                mWakeups++;
+            }
+        }
+
+        List<Object> changes = null;
+        for (int i = 0; i < due.size(); i++) {
+            Subscription<Object> subscription = (Subscription<Object>) due.get(i);
+            Object value = subscription.sample();
+            if (value == null || (subscription.mHasValue
+                    && subscription.isSameValue(subscription.mLastValue, value))) {
+                continue;
+            }
+            subscription.mLastValue = value;
+            subscription.mHasValue = true;
+            if (changes == null) {
+                changes = new ArrayList<Object>();
+            }
+            changes.add(subscription);
+            changes.add(value);
+        }
+
+        synchronized (this) {
+            if (changes != null) {
+                mPosts++;
+            } else if (!due.isEmpty()) {
+                mSkippedPosts++;
+            }
+        }
+        if (changes != null) {
+            mUiHandler.obtainMessage(MSG_APPLY, changes).sendToTarget();
+        }
+        if (next != Long.MAX_VALUE) {
+            mTickHandler.removeMessages(MSG_TICK);
+            mTickHandler.sendEmptyMessageAtTime(MSG_TICK, next);
+        }
+    }
+
+    // Runs on the UI thread; changes holds (subscription, value) pairs.
+    @SuppressWarnings("unchecked")
+    private static void applyAll(List<Object> changes) {
+        for (int i = 0; i < changes.size(); i += 2) {
+            Subscription<Object> subscription = (Subscription<Object>) changes.get(i);
+            if (subscription.mActive) {
+                subscription.apply(changes.get(i + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide cache of the activities and services that intents resolve to.
+ *
+ * Results are keyed by the filter part of the intent (see
+ * {@link Intent#filterEquals(Intent)}), the query flags and the user. An entry
+ * is dropped when a package it lists is removed or changed; installing or
+ * changing a package may add results to any query of its user, so that drops
+ * all entries of the user.
+ *
+ * Broadcasts are not delivered to receivers in any particular order, so
+ * screens which reload their lists on package changes must report the change
+ * with {@link #onPackageBroadcast(Intent)} or
+ * {@link #onPackageChanged(String, int, boolean)} before reloading.
+ *
+ * Callers get their own copy of the list, but share the {@link ResolveInfo}
+ * instances, which must not be modified.
+ */
+public final class ResolveInfoCache {
+    private static final String TAG = "ResolveInfoCache";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final int CACHE_SIZE = 128;
+
+    private static final int TYPE_ACTIVITIES = 0;
+    private static final int TYPE_SERVICES = 1;
+
+    private static final class Key {
+        final int type;
+        final Intent.FilterComparison filter;
+        final int intentFlags;
+        final int flags;
+        final int userId;
+
+        Key(int type, Intent intent, int flags, int userId) {
+            this.type = type;
+            // Copy the filter, callers may keep changing their intent
+            this.filter = new Intent.FilterComparison(intent.cloneFilter());
+            this.intentFlags = intent.getFlags();
+            this.flags = flags;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return type == other.type && intentFlags == other.intentFlags
+                    && flags == other.flags && userId == other.userId
+                    && filter.equals(other.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = filter.hashCode();
+            result = 31 * result + type;
+            result = 31 * result + intentFlags;
+            result = 31 * result + flags;
+            result = 31 * result + userId;
+            return result;
+        }
+    }
+
+    private static ResolveInfoCache sInstance;
+
+    public static synchronized ResolveInfoCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResolveInfoCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final PackageManager mPm;
+
+    // All of the following are guarded by 'this'.
+    private final LruCache<Key, List<ResolveInfo>> mCache =
+            new LruCache<Key, List<ResolveInfo>>(CACHE_SIZE);
+    private int mGeneration;
+    // Requests and package manager queries since the current screen opened
+    private String mScreen;
+    private int mRequests;
+    private int mQueries;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onPackageBroadcast(intent);
+        }
+    };
+
+    private ResolveInfoCache(Context context) {
+        mPm = context.getPackageManager();
+
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter, null, null);
+
+        final IntentFilter externalFilter = new IntentFilter();
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, externalFilter, null,
+                null);
+    }
+
+    /**
+     * Cached {@link PackageManager#queryIntentActivities(Intent, int)}.
+     */
+    public List<ResolveInfo> queryIntentActivities(Intent intent, int flags) {
+        return query(TYPE_ACTIVITIES, intent, flags, UserHandle.myUserId());
+    }
+
+    /**
+     * Cached {@link PackageManager#queryIntentActivitiesAsUser(Intent, int, int)}.
+     */
+    public List<ResolveInfo> queryIntentActivitiesAsUser(Intent intent, int flags, int userId) {
+        return query(TYPE_ACTIVITIES, intent, flags, userId);
+    }
+
+    /**
+     * Cached {@link PackageManager#queryIntentServices(Intent, int)}.
+     */
+    public List<ResolveInfo> queryIntentServices(Intent intent, int flags) {
+        return query(TYPE_SERVICES, intent, flags, UserHandle.myUserId());
+    }
+
+    /**
+     * Cached {@link PackageManager#queryIntentServicesAsUser(Intent, int, int)}.
+     */
+    public List<ResolveInfo> queryIntentServicesAsUser(Intent intent, int flags, int userId) {
+        return query(TYPE_SERVICES, intent, flags, userId);
+    }
+
+    /**
+     * Drops the entries a package broadcast may have made stale.  Safe to call
+     * more than once for the same broadcast.
+     */
+    public void onPackageBroadcast(Intent intent) {
+        final String action = intent.getAction();
+        if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)
+                || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
+            invalidateUser(UserHandle.USER_ALL);
+            return;
+        }
+
+        final Uri data = intent.getData();
+        final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+        if (packageName == null) {
+            return;
+        }
+        final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+        final int userId = uid >= 0 ? UserHandle.getUserId(uid) : UserHandle.USER_ALL;
+        onPackageChanged(packageName, userId, Intent.ACTION_PACKAGE_REMOVED.equals(action));
+    }
+
+    /**
+     * Drops the entries a package change may have made stale, for callers
+     * which learn about it through a {@code PackageMonitor}.
+     */
+    public void onPackageChanged(String packageName, int userId, boolean removed) {
+        if (removed) {
+            // A removed package can only take its own results away
+            invalidatePackage(packageName, userId);
+        } else {
+            invalidateUser(userId);
+        }
+    }
+
+    /**
+     * Starts counting the requests of a newly opened screen.  The counts of
+     * the previous screen are logged when debug logging is enabled for
+     * {@value #TAG}.
+     */
+    public synchronized void onScreenOpened(String screen) {
+        if (DEBUG && mScreen != null) {
+            Log.d(TAG, mScreen + ": " + mRequests + " resolutions, " + mQueries
+                    + " package manager queries");
+        }
+        mScreen = screen;
+        mRequests = 0;
+        mQueries = 0;
+    }
+
+    private List<ResolveInfo> query(int type, Intent intent, int flags, int userId) {
+        if (intent.getSelector() != null) {
+            // Not part of the filter, don't bother caching these
+            synchronized (this) {
+                mRequests++;
+                mQueries++;
+            }
+            return queryPackageManager(type, intent, flags, userId);
+        }
+
+        final Key key = new Key(type, intent, flags, userId);
+        final int generation;
+        synchronized (this) {
+            mRequests++;
+            final List<ResolveInfo> cached = mCache.get(key);
+            if (cached != null) {
+                return new ArrayList<ResolveInfo>(cached);
+            }
+            mQueries++;
+            generation = mGeneration;
+        }
+
+        final List<ResolveInfo> result = queryPackageManager(type, intent, flags, userId);
+        if (DEBUG) Log.d(TAG, "Resolved " + intent + " to " + result.size() + " components, "
+                + mQueries + " of " + mRequests + " requests queried");
+
+        synchronized (this) {
+            // Drop results which may predate a package change
+            if (generation == mGeneration) {
+                mCache.put(key, new ArrayList<ResolveInfo>(result));
+            }
+        }
+        return result;
+    }
+
+    private List<ResolveInfo> queryPackageManager(int type, Intent intent, int flags,
+            int userId) {
+        if (type == TYPE_SERVICES) {
+            return mPm.queryIntentServicesAsUser(intent, flags, userId);
+        } else {
+            return mPm.queryIntentActivitiesAsUser(intent, flags, userId);
+        }
+    }
+
+    private synchronized void invalidateUser(int userId) {
+        mGeneration++;
+        if (userId == UserHandle.USER_ALL) {
+            mCache.evictAll();
+            return;
+        }
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.userId == userId) {
+                mCache.remove(key);
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Dropped resolutions of user " + userId);
+    }
+
+    private synchronized void invalidatePackage(String packageName, int userId) {
+        mGeneration++;
+        for (Map.Entry<Key, List<ResolveInfo>> entry : mCache.snapshot().entrySet()) {
+            final Key key = entry.getKey();
+            if (userId != UserHandle.USER_ALL && key.userId != userId) {
+                continue;
+            }
+            if (packageName.equals(key.filter.getIntent().getPackage())
+                    || containsPackage(entry.getValue(), packageName)) {
+                mCache.remove(key);
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Dropped resolutions of " + packageName);
+    }
+
+    private static boolean containsPackage(List<ResolveInfo> list, String packageName) {
+        for (int i = 0; i < list.size(); i++) {
+            final ResolveInfo info = list.get(i);
+            final ComponentInfo component = info.activityInfo != null
+                    ? info.activityInfo : info.serviceInfo;
+            if (component != null && packageName.equals(component.packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -317,10 +317,11 @@ public class SecuritySettings extends SettingsPreferenceFragment
     }
 
     public static ArrayList<TrustAgentComponentInfo> getActiveTrustAgents(
-            PackageManager pm, LockPatternUtils utils) {
+            Context context, LockPatternUtils utils) {
+        final PackageManager pm = context.getPackageManager();
         ArrayList<TrustAgentComponentInfo> result = new ArrayList<TrustAgentComponentInfo>();
-        List<ResolveInfo> resolveInfos = pm.queryIntentServices(TRUST_AGENT_INTENT,
-                PackageManager.GET_META_DATA);
+        List<ResolveInfo> resolveInfos = ResolveInfoCache.getInstance(context)
+                .queryIntentServices(TRUST_AGENT_INTENT, PackageManager.GET_META_DATA);
         List<ComponentName> enabledTrustAgents = utils.getEnabledTrustAgents();
         if (enabledTrustAgents != null && !enabledTrustAgents.isEmpty()) {
             for (int i = 0; i < resolveInfos.size(); i++) {
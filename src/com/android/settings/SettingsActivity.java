@@ -999,6 +999,7 @@ public class SettingsActivity extends Activity
             throw new IllegalArgumentException("Invalid fragment for this activity: "
                     + fragmentName);
         }
+        ResolveInfoCache.getInstance(this).onScreenOpened(fragmentName);
         Fragment f = Fragment.instantiate(this, fragmentName, args);
         FragmentTransaction transaction = getFragmentManager().beginTransaction();
         transaction.replace(R.id.main_content, f);
@@ -104,7 +104,6 @@ public class SoundSettings extends SettingsPreferenceFragment implements Indexab
     private final ArrayList<VolumeSeekBarPreference> mVolumePrefs = new ArrayList<>();
 
     private Context mContext;
-    private PackageManager mPM;
     private boolean mVoiceCapable;
     private Vibrator mVibrator;
     private AudioManager mAudioManager;
@@ -127,7 +126,6 @@ public class SoundSettings extends SettingsPreferenceFragment implements Indexab
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mContext = getActivity();
-        mPM = mContext.getPackageManager();
         mVoiceCapable = Utils.isVoiceCapable(mContext);
 
         mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
@@ -485,7 +483,7 @@ public class SoundSettings extends SettingsPreferenceFragment implements Indexab
 
     private void refreshNotificationListeners() {
         if (mNotificationAccess != null) {
-            final int total = NotificationAccessSettings.getListenersCount(mPM);
+            final int total = NotificationAccessSettings.getListenersCount(mContext);
             if (total == 0) {
                 getPreferenceScreen().removePreference(mNotificationAccess);
             } else {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Tells every registered service to re-read the system properties after one
+ * of them was changed.
+ *
+ * Pokes are debounced: all pokes received within {@link #DEBOUNCE_DELAY} of
+ * the first one are merged into a single propagation.  Propagations run one at
+ * a time on a dedicated thread; pokes arriving while one is in flight are
+ * merged into the next one.  Services are poked with one-way transactions, so
+ * a slow or hung service can't hold up the others or the next propagation.
+ */
+public final class SystemPropPoker {
+    private static final String TAG = "SystemPropPoker";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final long DEBOUNCE_DELAY = 100;
+
+    private static final int MSG_PROPAGATE = 1;
+
+    private static SystemPropPoker sInstance;
+
+    public static synchronized SystemPropPoker getInstance() {
+        if (sInstance == null) {
+            sInstance = new SystemPropPoker();
+        }
+        return sInstance;
+    }
+
+    private final Handler mHandler;
+
+    // All of the following are guarded by 'this'.
+    private int mPendingPokes;
+    private int mTotalPokes;
+    private int mPropagations;
+    private long mLastPropagationTime;
+
+    private SystemPropPoker() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_PROPAGATE) {
+                    propagate();
+                }
+            }
+        };
+    }
+
+    /**
+     * Requests a propagation of the system properties to all services.
+     */
+    public void poke() {
+        synchronized (this) {
+            mPendingPokes++;
+            mTotalPokes++;
+        }
+        if (!mHandler.hasMessages(MSG_PROPAGATE)) {
+            mHandler.sendEmptyMessageDelayed(MSG_PROPAGATE, DEBOUNCE_DELAY);
+        }
+    }
+
+    /** Number of pokes requested so far. */
+    public synchronized int getPokeCount() {
+        return mTotalPokes;
+    }
+
+    /** Number of propagations actually sent to the services. */
+    public synchronized int getPropagationCount() {
+        return mPropagations;
+    }
+
+    /** Duration of the last propagation, in milliseconds. */
+    public synchronized long getLastPropagationTime() {
+        return mLastPropagationTime;
+    }
+
+    private void propagate() {
+        final int merged;
+        synchronized (this) {
+            merged = mPendingPokes;
+            mPendingPokes = 0;
+        }
+        if (merged == 0) {
+            return;
+        }
+
+        final long start = SystemClock.uptimeMillis();
+        String[] services;
+        try {
+            services = ServiceManager.listServices();
+        } catch (RemoteException e) {
+            return;
+        }
+
+        int failed = 0;
+        for (String service : services) {
+            if (!pokeService(service)) {
+                failed++;
+            }
+        }
+
+        final long elapsed = SystemClock.uptimeMillis() - start;
+        synchronized (this) {
+            mPropagations++;
+            mLastPropagationTime = elapsed;
+        }
+        if (DEBUG) Log.d(TAG, "Propagated " + merged + " merged poke(s) to " + services.length
+                + " services in " + elapsed + "ms (" + failed + " failed)");
+    }
+
+    /**
+     * Sends the poke without waiting for the service to handle it. Returns
+     * false if it could not be sent.
+     */
+    private static boolean pokeService(String service) {
+        IBinder obj = ServiceManager.checkService(service);
+        if (obj == null) {
+            return false;
+        }
+        boolean sent = false;
+        Parcel data = Parcel.obtain();
+        try {
+            sent = obj.transact(IBinder.SYSPROPS_TRANSACTION, data, null,
+                    IBinder.FLAG_ONEWAY);
+        } catch (RemoteException e) {
+        } catch (Exception e) {
+            Log.i(TAG, "Someone wrote a bad service '" + service
+                    + "' that doesn't like to be poked: " + e);
+        }
+        data.recycle();
+        return sent;
+    }
+}
@@ -112,8 +112,8 @@ public class TrustAgentSettings extends SettingsPreferenceFragment implements
     ArrayMap<ComponentName, AgentInfo> findAvailableTrustAgents() {
         PackageManager pm = getActivity().getPackageManager();
         Intent trustAgentIntent = new Intent(SERVICE_INTERFACE);
-        List<ResolveInfo> resolveInfos = pm.queryIntentServices(trustAgentIntent,
-                PackageManager.GET_META_DATA);
+        List<ResolveInfo> resolveInfos = ResolveInfoCache.getInstance(getActivity())
+                .queryIntentServices(trustAgentIntent, PackageManager.GET_META_DATA);
 
         ArrayMap<ComponentName, AgentInfo> agents = new ArrayMap<ComponentName, AgentInfo>();
         final int count = resolveInfos.size();
@@ -28,10 +28,12 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.UserHandle;
+import android.os.SystemClock;
 import android.os.UserManager;
 import android.security.IKeyChainService;
 import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
+import android.util.ArrayMap;
 import android.util.SparseArray;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -57,9 +59,19 @@ import com.android.internal.util.ParcelableString;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class TrustedCredentialsSettings extends Fragment {
 
@@ -69,6 +81,38 @@ public class TrustedCredentialsSettings extends Fragment {
 
     private static final String USER_ACTION = "com.android.settings.TRUSTED_CREDENTIALS_USER";
 
+    /**
+     * Decoded rows are handed to the list at most this often while loading.
+     */
+    private static final long PUBLISH_INTERVAL = 100;
+
+    private static final int DECODER_THREADS = 3;
+
+    /**
+     * Fetches and decodes certificates in parallel; the X.509 parsing of the
+     * system CAs is what makes loading a tab slow.
+     */
+    private static final ThreadPoolExecutor sDecoder = new ThreadPoolExecutor(
+            DECODER_THREADS, DECODER_THREADS, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TrustedCredentials Decoder");
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    static {
+        sDecoder.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Certificates decoded on previous visits, by alias. Guarded by itself.
+     */
+    private static final ArrayMap<String, DecodedCert> sDecodedCerts =
+            new ArrayMap<String, DecodedCert>();
+
     private enum Tab {
         SYSTEM("system",
                R.string.trusted_credentials_system_tab,
@@ -413,14 +457,17 @@ public class TrustedCredentialsSettings extends Fragment {
             mTab = tab;
         }
 
-        private class AliasLoader extends AsyncTask<Void, Integer, SparseArray<List<CertHolder>>> {
+        private class AliasLoader extends AsyncTask<Void, CertHolder, Void> {
             private ProgressBar mProgressBar;
             private View mList;
             private Context mContext;
 
             public AliasLoader() {
                 mContext = getActivity();
-                mAliasLoaders.put(mTab, this);
+                AliasLoader previous = mAliasLoaders.put(mTab, this);
+                if (previous != null) {
+                    previous.cancel(true);
+                }
             }
 
             @Override protected void onPreExecute() {
@@ -429,19 +476,16 @@ public class TrustedCredentialsSettings extends Fragment {
                 mList = content.findViewById(mAdapter.getListViewId(mTab));
                 mProgressBar.setVisibility(View.VISIBLE);
                 mList.setVisibility(View.GONE);
+                mCertHoldersByUserId.clear();
+                mAdapter.notifyDataSetChanged();
             }
-            @Override protected SparseArray<List<CertHolder>> doInBackground(Void... params) {
-                SparseArray<List<CertHolder>> certHoldersByProfile =
-                        new SparseArray<List<CertHolder>>();
+            @Override protected Void doInBackground(Void... params) {
+                final List<Future<CertHolder>> futures = new ArrayList<Future<CertHolder>>();
                 try {
                     List<UserHandle> profiles = mUserManager.getUserProfiles();
                     final int n = profiles.size();
-                    // First we get all aliases for all profiles in order to show progress
-                    // correctly. Otherwise this could all be in a single loop.
-                    SparseArray<List<ParcelableString>> aliasesByProfileId = new SparseArray<
-                            List<ParcelableString>>(n);
-                    int max = 0;
-                    int progress = 0;
+                    final CompletionService<CertHolder> decoder =
+                            new ExecutorCompletionService<CertHolder>(sDecoder);
                     for (int i = 0; i < n; ++i) {
                         UserHandle profile = profiles.get(i);
                         int profileId = profile.getIdentifier();
@@ -452,62 +496,71 @@ public class TrustedCredentialsSettings extends Fragment {
                         IKeyChainService service = keyChainConnection.getService();
                         List<ParcelableString> aliases = mTab.getAliases(service);
                         if (isCancelled()) {
-                            return new SparseArray<List<CertHolder>>();
+                            return null;
                         }
-                        max += aliases.size();
-                        aliasesByProfileId.put(profileId, aliases);
-                    }
-                    for (int i = 0; i < n; ++i) {
-                        UserHandle profile = profiles.get(i);
-                        int profileId = profile.getIdentifier();
-                        List<ParcelableString> aliases = aliasesByProfileId.get(profileId);
-                        if (isCancelled()) {
-                            return new SparseArray<List<CertHolder>>();
-                        }
-                        IKeyChainService service = mKeyChainConnectionByProfileId.get(profileId)
-                                .getService();
-                        List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
                         final int aliasMax = aliases.size();
                         for (int j = 0; j < aliasMax; ++j) {
-                            String alias = aliases.get(j).string;
-                            byte[] encodedCertificate = service.getEncodedCaCertificate(alias,
-                                    true);
-                            X509Certificate cert = KeyChain.toCertificate(encodedCertificate);
-                            certHolders.add(new CertHolder(service, mAdapter,
-                                    mTab, alias, cert, profileId));
-                            publishProgress(++progress, max);
+                            futures.add(decoder.submit(new CertLoader(service, mAdapter, mTab,
+                                    aliases.get(j).string, profileId)));
+                        }
+                    }
+
+                    // Hand rows to the list as they are decoded, in batches
+                    final int max = futures.size();
+                    final List<CertHolder> batch = new ArrayList<CertHolder>();
+                    long lastPublish = 0;
+                    for (int i = 0; i < max; ++i) {
+                        CertHolder certHolder = decoder.take().get();
+                        if (certHolder != null) {
+                            batch.add(certHolder);
+                        }
+                        long now = SystemClock.uptimeMillis();
+                        if (!batch.isEmpty()
+                                && (now - lastPublish >= PUBLISH_INTERVAL || i == max - 1)) {
+                            publishProgress(batch.toArray(new CertHolder[batch.size()]));
+                            batch.clear();
+                            lastPublish = now;
                         }
-                        Collections.sort(certHolders);
-                        certHoldersByProfile.put(profileId, certHolders);
                     }
-                    return certHoldersByProfile;
                 } catch (RemoteException e) {
                     Log.e(TAG, "Remote exception while loading aliases.", e);
-                    return new SparseArray<List<CertHolder>>();
                 } catch (InterruptedException e) {
                     Log.e(TAG, "InterruptedException while loading aliases.", e);
-                    return new SparseArray<List<CertHolder>>();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception while loading certificates.", e);
+                } finally {
+                    for (Future<CertHolder> future : futures) {
+                        future.cancel(false);
+                    }
                 }
+                return null;
             }
-            @Override protected void onProgressUpdate(Integer... progressAndMax) {
-                int progress = progressAndMax[0];
-                int max = progressAndMax[1];
-                if (max != mProgressBar.getMax()) {
-                    mProgressBar.setMax(max);
+            @Override protected void onProgressUpdate(CertHolder... certHolders) {
+                // Progress already posted is still delivered after cancel()
+                if (isCancelled() || mAliasLoaders.get(mTab) != this) {
+                    return;
                 }
-                mProgressBar.setProgress(progress);
-            }
-            @Override protected void onPostExecute(SparseArray<List<CertHolder>> certHolders) {
-                mCertHoldersByUserId.clear();
-                final int n = certHolders.size();
-                for (int i = 0; i < n; ++i) {
-                    mCertHoldersByUserId.put(certHolders.keyAt(i), certHolders.valueAt(i));
+                for (CertHolder certHolder : certHolders) {
+                    List<CertHolder> certs = mCertHoldersByUserId.get(certHolder.mProfileId);
+                    if (certs == null) {
+                        certs = new ArrayList<CertHolder>();
+                        mCertHoldersByUserId.put(certHolder.mProfileId, certs);
+                    }
+                    int index = Collections.binarySearch(certs, certHolder);
+                    certs.add(index < 0 ? -index - 1 : index, certHolder);
                 }
                 mAdapter.notifyDataSetChanged();
+                showList();
+            }
+            @Override protected void onPostExecute(Void result) {
+                showList();
+                if (mAliasLoaders.get(mTab) == this) {
+                    mAliasLoaders.remove(mTab);
+                }
+            }
+            private void showList() {
                 mProgressBar.setVisibility(View.GONE);
                 mList.setVisibility(View.VISIBLE);
-                mProgressBar.setProgress(0);
-                mAliasLoaders.remove(mTab);
             }
         }
 
@@ -521,32 +574,57 @@ public class TrustedCredentialsSettings extends Fragment {
         }
     }
 
-    private static class CertHolder implements Comparable<CertHolder> {
-        public int mProfileId;
+    /**
+     * Fetches and decodes a single certificate on the decoder pool.
+     */
+    private static class CertLoader implements Callable<CertHolder> {
         private final IKeyChainService mService;
         private final TrustedCertificateAdapterCommons mAdapter;
         private final Tab mTab;
         private final String mAlias;
-        private final X509Certificate mX509Cert;
-
-        private final SslCertificate mSslCert;
-        private final String mSubjectPrimary;
-        private final String mSubjectSecondary;
-        private boolean mDeleted;
+        private final int mProfileId;
 
-        private CertHolder(IKeyChainService service,
-                           TrustedCertificateAdapterCommons adapter,
-                           Tab tab,
-                           String alias,
-                           X509Certificate x509Cert,
-                           int profileId) {
-            mProfileId = profileId;
+        private CertLoader(IKeyChainService service, TrustedCertificateAdapterCommons adapter,
+                Tab tab, String alias, int profileId) {
             mService = service;
             mAdapter = adapter;
             mTab = tab;
             mAlias = alias;
-            mX509Cert = x509Cert;
+            mProfileId = profileId;
+        }
 
+        @Override
+        public CertHolder call() {
+            try {
+                byte[] encodedCertificate = mService.getEncodedCaCertificate(mAlias, true);
+                if (encodedCertificate == null) {
+                    return null;
+                }
+                DecodedCert decoded = DecodedCert.get(mAlias, encodedCertificate);
+                return new CertHolder(mService, mAdapter, mTab, mAlias, decoded, mProfileId);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Remote exception while loading alias " + mAlias, e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Unable to decode certificate " + mAlias, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The parts of a certificate derived from its encoded form alone, cached
+     * across visits by alias and checked against the full encoding.
+     */
+    private static class DecodedCert {
+        private final byte[] mEncoded;
+        private final X509Certificate mX509Cert;
+        private final SslCertificate mSslCert;
+        private final String mSubjectPrimary;
+        private final String mSubjectSecondary;
+
+        private DecodedCert(byte[] encoded, X509Certificate x509Cert) {
+            mEncoded = encoded;
+            mX509Cert = x509Cert;
             mSslCert = new SslCertificate(x509Cert);
 
             String cn = mSslCert.getIssuedTo().getCName();
@@ -572,6 +650,52 @@ public class TrustedCredentialsSettings extends Fragment {
                     mSubjectSecondary = "";
                 }
             }
+        }
+
+        private static DecodedCert get(String alias, byte[] encodedCertificate) {
+            synchronized (sDecodedCerts) {
+                DecodedCert decoded = sDecodedCerts.get(alias);
+                if (decoded != null && Arrays.equals(decoded.mEncoded, encodedCertificate)) {
+                    return decoded;
+                }
+            }
+            DecodedCert decoded = new DecodedCert(encodedCertificate,
+                    KeyChain.toCertificate(encodedCertificate));
+            synchronized (sDecodedCerts) {
+                sDecodedCerts.put(alias, decoded);
+            }
+            return decoded;
+        }
+    }
+
+    private static class CertHolder implements Comparable<CertHolder> {
+        public int mProfileId;
+        private final IKeyChainService mService;
+        private final TrustedCertificateAdapterCommons mAdapter;
+        private final Tab mTab;
+        private final String mAlias;
+        private final X509Certificate mX509Cert;
+
+        private final SslCertificate mSslCert;
+        private final String mSubjectPrimary;
+        private final String mSubjectSecondary;
+        private boolean mDeleted;
+
+        private CertHolder(IKeyChainService service,
+                           TrustedCertificateAdapterCommons adapter,
+                           Tab tab,
+                           String alias,
+                           DecodedCert decoded,
+                           int profileId) {
+            mProfileId = profileId;
+            mService = service;
+            mAdapter = adapter;
+            mTab = tab;
+            mAlias = alias;
+            mX509Cert = decoded.mX509Cert;
+            mSslCert = decoded.mSslCert;
+            mSubjectPrimary = decoded.mSubjectPrimary;
+            mSubjectSecondary = decoded.mSubjectSecondary;
             try {
                 mDeleted = mTab.deleted(mService, mAlias);
             } catch (RemoteException e) {
@@ -170,7 +170,8 @@ public final class Utils {
         if (intent != null) {
             // Find the activity that is in the system image
             PackageManager pm = context.getPackageManager();
-            List<ResolveInfo> list = pm.queryIntentActivities(intent, 0);
+            List<ResolveInfo> list = ResolveInfoCache.getInstance(context)
+                    .queryIntentActivities(intent, 0);
             int listSize = list.size();
             for (int i = 0; i < listSize; i++) {
                 ResolveInfo resolveInfo = list.get(i);
@@ -199,8 +200,7 @@ public final class Utils {
     }
 
     public static boolean doesIntentResolve(Context context, Intent intent) {
-        PackageManager packageManager = context.getPackageManager();
-        return packageManager.queryIntentActivities(intent, 0).size() > 0;
+        return ResolveInfoCache.getInstance(context).queryIntentActivities(intent, 0).size() > 0;
     }
 
     /**
@@ -236,7 +236,8 @@ public final class Utils {
         if (intent != null) {
             // Find the activity that is in the system image
             PackageManager pm = context.getPackageManager();
-            List<ResolveInfo> list = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
+            List<ResolveInfo> list = ResolveInfoCache.getInstance(context)
+                    .queryIntentActivities(intent, PackageManager.GET_META_DATA);
             int listSize = list.size();
             for (int i = 0; i < listSize; i++) {
                 ResolveInfo resolveInfo = list.get(i);
@@ -302,7 +303,8 @@ public final class Utils {
         if (intent != null) {
             // Find the activity that is in the system image
             PackageManager pm = context.getPackageManager();
-            List<ResolveInfo> list = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
+            List<ResolveInfo> list = ResolveInfoCache.getInstance(context)
+                    .queryIntentActivities(intent, PackageManager.GET_META_DATA);
             int listSize = list.size();
             for (int i = 0; i < listSize; i++) {
                 ResolveInfo resolveInfo = list.get(i);
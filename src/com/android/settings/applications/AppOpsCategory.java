@@ -105,7 +105,8 @@ public class AppOpsCategory extends ListFragment implements
         }
 
         @Override public void onReceive(Context context, Intent intent) {
-            // Tell the loader about the change.
+            // Drop the shared index and tell the loader about the change.
+            mLoader.mState.invalidatePackages();
             mLoader.onContentChanged();
         }
     }
@@ -120,6 +121,7 @@ public class AppOpsCategory extends ListFragment implements
 
         List<AppOpEntry> mApps;
         PackageIntentReceiver mPackageObserver;
+        boolean mWatchingOps;
 
         public AppListLoader(Context context, AppOpsState state, AppOpsState.OpsTemplate template) {
             super(context);
@@ -180,6 +182,16 @@ public class AppOpsCategory extends ListFragment implements
                 mPackageObserver = new PackageIntentReceiver(this);
             }
 
+            // Share the op index with the other started tabs; the first one
+            // to start fetches fresh ops.
+            if (!mWatchingOps) {
+                mState.startWatchingOps();
+                mWatchingOps = true;
+            }
+
+            // Cached labels may be for a different locale
+            mState.updateLocale(getContext().getResources().getConfiguration().locale);
+
             // Has something interesting in the configuration changed since we
             // last built the app list?
             boolean configChange = mLastConfig.applyNewConfig(getContext().getResources());
@@ -197,6 +209,11 @@ public class AppOpsCategory extends ListFragment implements
         @Override protected void onStopLoading() {
             // Attempt to cancel the current load task if possible.
             cancelLoad();
+
+            if (mWatchingOps) {
+                mState.stopWatchingOps();
+                mWatchingOps = false;
+            }
         }
 
         /**
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Process-wide index of the app ops recorded for every (uid, package) pair.
+ *
+ * All ops used by the {@link AppOpsState} templates are fetched with a single
+ * call into the app ops service and the result is kept as a per-package op
+ * bitset, so that every template (and every tab of {@link AppOpsSummary}) can
+ * be served without another binder round-trip. Mode changes are applied to the
+ * index incrementally for the affected package only.
+ *
+ * The index only exists while a client (see {@link #addClient()}) is started.
+ * Access times change without any callback, so the ops are fetched again
+ * whenever the first client starts, e.g. when coming back from the details
+ * page, but not while switching between tabs. Once the last client stops,
+ * everything is dropped and no receiver or listener stays registered.
+ */
+final class AppOpsIndex {
+    private static final String TAG = "AppOpsIndex";
+    private static final boolean DEBUG = false;
+
+    static final int[] ALL_OPS;
+
+    static {
+        final BitSet ops = new BitSet(AppOpsManager._NUM_OP);
+        for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
+            for (int op : tpl.ops) {
+                ops.set(op);
+            }
+        }
+        ALL_OPS = new int[ops.cardinality()];
+        for (int i = 0, op = ops.nextSetBit(0); op >= 0; op = ops.nextSetBit(op + 1)) {
+            ALL_OPS[i++] = op;
+        }
+    }
+
+    static final Object sLock = new Object();
+    static AppOpsIndex sInstance;
+
+    static AppOpsIndex getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new AppOpsIndex(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Ops recorded for a single package, together with a bitset of the op
+     * codes present so templates can be matched without walking the list.
+     */
+    static final class Entry {
+        final String packageName;
+        final int uid;
+        final List<AppOpsManager.OpEntry> ops;
+        final BitSet mask;
+
+        Entry(AppOpsManager.PackageOps pkgOps) {
+            packageName = pkgOps.getPackageName();
+            uid = pkgOps.getUid();
+            ops = pkgOps.getOps();
+            mask = new BitSet(AppOpsManager._NUM_OP);
+            for (int i = 0; i < ops.size(); i++) {
+                mask.set(ops.get(i).getOp());
+            }
+        }
+
+        /**
+         * Returns the subset of this entry matching the given template mask,
+         * in the same shape {@link AppOpsManager#getPackagesForOps} returns it,
+         * or null if none of the template ops are present.
+         */
+        AppOpsManager.PackageOps filter(BitSet tplMask) {
+            if (!mask.intersects(tplMask)) {
+                return null;
+            }
+            final List<AppOpsManager.OpEntry> filtered
+                    = new ArrayList<AppOpsManager.OpEntry>(ops.size());
+            for (int i = 0; i < ops.size(); i++) {
+                AppOpsManager.OpEntry op = ops.get(i);
+                if (tplMask.get(op.getOp())) {
+                    filtered.add(op);
+                }
+            }
+            return new AppOpsManager.PackageOps(packageName, uid, filtered);
+        }
+    }
+
+    private final Context mContext;
+    private final AppOpsManager mAppOps;
+    private final PackageManager mPm;
+
+    // All of the following are guarded by 'this'.
+    // Keyed by entryKey(uid, packageName)
+    private final ArrayMap<String, Entry> mEntries = new ArrayMap<String, Entry>();
+    private final ArrayMap<String, PackageInfo> mPackages = new ArrayMap<String, PackageInfo>();
+    private final ArrayMap<String, String> mLabels = new ArrayMap<String, String>();
+    private Locale mLabelLocale;
+    private boolean mOpsValid;
+    private boolean mPackagesValid;
+    private int mClients;
+
+    private final AppOpsManager.OnOpChangedInternalListener mOpListener =
+            new AppOpsManager.OnOpChangedInternalListener() {
+        @Override
+        public void onOpChanged(int op, String packageName) {
+            refreshPackage(packageName);
+        }
+    };
+
+    // Registered while there are clients.
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidateAll();
+        }
+    };
+
+    private AppOpsIndex(Context context) {
+        mContext = context;
+        mAppOps = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mPm = context.getPackageManager();
+    }
+
+    private static String entryKey(int uid, String packageName) {
+        return uid + ":" + packageName;
+    }
+
+    static BitSet maskFor(int[] ops) {
+        final BitSet mask = new BitSet(AppOpsManager._NUM_OP);
+        for (int op : ops) {
+            mask.set(op);
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the ops of every package matching the template mask, building
+     * or refreshing the index first if needed.  Without a client the ops are
+     * fetched for this call only.
+     */
+    synchronized List<AppOpsManager.PackageOps> getPackagesForOps(BitSet tplMask) {
+        if (mClients == 0) {
+            final int[] ops = new int[tplMask.cardinality()];
+            for (int i = 0, op = tplMask.nextSetBit(0); op >= 0; op = tplMask.nextSetBit(op + 1)) {
+                ops[i++] = op;
+            }
+            return mAppOps.getPackagesForOps(ops);
+        }
+        ensureOpsLocked();
+        final List<AppOpsManager.PackageOps> result
+                = new ArrayList<AppOpsManager.PackageOps>();
+        for (int i = 0; i < mEntries.size(); i++) {
+            AppOpsManager.PackageOps pkgOps = mEntries.valueAt(i).filter(tplMask);
+            if (pkgOps != null) {
+                result.add(pkgOps);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the installed packages along with their requested permissions,
+     * fetched once and shared by all templates while there are clients.
+     */
+    synchronized List<PackageInfo> getPackagesWithPermissions() {
+        if (mClients == 0) {
+            return mPm.getInstalledPackages(PackageManager.GET_PERMISSIONS);
+        }
+        ensurePackagesLocked();
+        return new ArrayList<PackageInfo>(mPackages.values());
+    }
+
+    /**
+     * Returns the indexed application info of the package, or null if it is
+     * not known or there are no clients.
+     */
+    synchronized ApplicationInfo getApplicationInfo(String packageName) {
+        if (mClients == 0) {
+            return null;
+        }
+        ensurePackagesLocked();
+        PackageInfo info = mPackages.get(packageName);
+        return info != null ? info.applicationInfo : null;
+    }
+
+    synchronized String getLabel(String packageName) {
+        return mLabels.get(packageName);
+    }
+
+    synchronized void putLabel(String packageName, String label) {
+        if (mClients > 0) {
+            mLabels.put(packageName, label);
+        }
+    }
+
+    /**
+     * Drops the cached labels if they were loaded for another locale.
+     */
+    synchronized void updateLocale(Locale locale) {
+        if (mLabelLocale != null && !mLabelLocale.equals(locale)) {
+            mLabels.clear();
+        }
+        mLabelLocale = locale;
+    }
+
+    /**
+     * Registers a started client showing the ops.  The first client fetches
+     * the ops again and has mode and package changes applied to the index.
+     */
+    synchronized void addClient() {
+        if (mClients++ == 0) {
+            mOpsValid = false;
+            for (int op : ALL_OPS) {
+                mAppOps.startWatchingMode(op, null, mOpListener);
+            }
+            final IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addDataScheme("package");
+            mContext.registerReceiver(mPackageReceiver, filter);
+            final IntentFilter sdFilter = new IntentFilter();
+            sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+            sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+            mContext.registerReceiver(mPackageReceiver, sdFilter);
+        }
+    }
+
+    /**
+     * Unregisters a client; the last one drops the index.
+     */
+    synchronized void removeClient() {
+        if (mClients > 0 && --mClients == 0) {
+            mAppOps.stopWatchingMode(mOpListener);
+            mContext.unregisterReceiver(mPackageReceiver);
+            invalidateAll();
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Marks the recorded ops as stale, e.g. after the counters have been
+     * reset.
+     */
+    synchronized void invalidateOps() {
+        mOpsValid = false;
+    }
+
+    /**
+     * Drops everything derived from the installed packages; called when
+     * packages are added, removed or changed.
+     */
+    synchronized void invalidateAll() {
+        mOpsValid = false;
+        mPackagesValid = false;
+        mPackages.clear();
+        mLabels.clear();
+    }
+
+    private void ensureOpsLocked() {
+        if (mOpsValid) {
+            return;
+        }
+        final long start = DEBUG ? SystemClock.elapsedRealtime() : 0;
+        final List<AppOpsManager.PackageOps> pkgs = mAppOps.getPackagesForOps(ALL_OPS);
+        mEntries.clear();
+        if (pkgs != null) {
+            for (int i = 0; i < pkgs.size(); i++) {
+                Entry entry = new Entry(pkgs.get(i));
+                mEntries.put(entryKey(entry.uid, entry.packageName), entry);
+            }
+        }
+        mOpsValid = true;
+        if (DEBUG) Log.d(TAG, "Indexed " + mEntries.size() + " packages in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    private void ensurePackagesLocked() {
+        if (mPackagesValid) {
+            return;
+        }
+        final List<PackageInfo> apps = mPm.getInstalledPackages(PackageManager.GET_PERMISSIONS);
+        mPackages.clear();
+        for (int i = 0; i < apps.size(); i++) {
+            PackageInfo info = apps.get(i);
+            mPackages.put(info.packageName, info);
+        }
+        mPackagesValid = true;
+    }
+
+    private synchronized void refreshPackage(String packageName) {
+        if (!mOpsValid || packageName == null) {
+            return;
+        }
+        // The change may apply to the package under any of its uids
+        final ArrayList<Integer> uids = new ArrayList<Integer>(1);
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            if (packageName.equals(entry.packageName)) {
+                uids.add(entry.uid);
+            }
+        }
+        if (uids.isEmpty()) {
+            PackageInfo info = mPackages.get(packageName);
+            if (info == null || info.applicationInfo == null) {
+                // Unknown package; let the next load rebuild the index.
+                mOpsValid = false;
+                return;
+            }
+            uids.add(info.applicationInfo.uid);
+        }
+        for (int i = 0; i < uids.size(); i++) {
+            final int uid = uids.get(i);
+            final String key = entryKey(uid, packageName);
+            final List<AppOpsManager.PackageOps> pkgs
+                    = mAppOps.getOpsForPackage(uid, packageName, ALL_OPS);
+            if (pkgs == null || pkgs.isEmpty()) {
+                mEntries.remove(key);
+            } else {
+                mEntries.put(key, new Entry(pkgs.get(0)));
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Refreshed ops of " + packageName + " for " + uids.size()
+                + " uids");
+    }
+}
@@ -41,6 +41,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 
 public class AppOpsState {
     static final String TAG = "AppOpsState";
@@ -51,6 +52,7 @@ public class AppOpsState {
     final PackageManager mPm;
     final CharSequence[] mOpSummaries;
     final CharSequence[] mOpLabels;
+    final AppOpsIndex mIndex;
 
     List<AppOpEntry> mApps;
 
@@ -60,6 +62,7 @@ public class AppOpsState {
         mContext = context;
         mAppOps = (AppOpsManager)context.getSystemService(Context.APP_OPS_SERVICE);
         mPm = context.getPackageManager();
+        mIndex = AppOpsIndex.getInstance(context);
         mOpSummaries = context.getResources().getTextArray(R.array.app_ops_summaries_cm);
         mOpLabels = context.getResources().getTextArray(R.array.app_ops_labels_cm);
         mPreferences = context.getSharedPreferences("appops_manager", Activity.MODE_PRIVATE);
@@ -276,8 +279,12 @@ public class AppOpsState {
                     mLabel = mInfo.packageName;
                 } else {
                     mMounted = true;
-                    CharSequence label = mInfo.loadLabel(context.getPackageManager());
-                    mLabel = label != null ? label.toString() : mInfo.packageName;
+                    mLabel = mState.mIndex.getLabel(mInfo.packageName);
+                    if (mLabel == null) {
+                        CharSequence label = mInfo.loadLabel(context.getPackageManager());
+                        mLabel = label != null ? label.toString() : mInfo.packageName;
+                        mState.mIndex.putLabel(mInfo.packageName, mLabel);
+                    }
                 }
             }
         }
@@ -490,6 +497,9 @@ public class AppOpsState {
     private AppEntry getAppEntry(final Context context, final HashMap<String, AppEntry> appEntries,
             final String packageName, ApplicationInfo appInfo, boolean applyFilters) {
 
+        if (appInfo == null) {
+            appInfo = mIndex.getApplicationInfo(packageName);
+        }
         if (appInfo == null) {
             try {
                 appInfo = mPm.getApplicationInfo(packageName,
@@ -531,6 +541,58 @@ public class AppOpsState {
         return mPreferences.getBoolean("show_system_apps", true);
     }
 
+    /**
+     * Marks the shared op index as stale so the next build fetches fresh ops,
+     * e.g. after the usage counters have been reset.
+     */
+    public void invalidateOps() {
+        mIndex.invalidateOps();
+    }
+
+    /**
+     * Drops the shared op index and cached package data after the set of
+     * installed packages changed.
+     */
+    public void invalidatePackages() {
+        mIndex.invalidateAll();
+    }
+
+    /**
+     * Drops the cached labels if they were loaded for another locale.
+     */
+    public void updateLocale(Locale locale) {
+        mIndex.updateLocale(locale);
+    }
+
+    /**
+     * Keeps the shared op index alive and up to date with mode changes until
+     * {@link #stopWatchingOps()} is called.
+     */
+    public void startWatchingOps() {
+        mIndex.addClient();
+    }
+
+    public void stopWatchingOps() {
+        mIndex.removeClient();
+    }
+
+    private static boolean holdsAnyPermission(PackageInfo appInfo, List<String> perms) {
+        if (appInfo.requestedPermissions == null) {
+            return false;
+        }
+        for (int j=0; j<appInfo.requestedPermissions.length; j++) {
+            if (appInfo.requestedPermissionsFlags != null
+                    && (appInfo.requestedPermissionsFlags[j]
+                            & PackageInfo.REQUESTED_PERMISSION_GRANTED) == 0) {
+                continue;
+            }
+            if (perms.contains(appInfo.requestedPermissions[j])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName) {
         final Context context = mContext;
 
@@ -558,7 +620,8 @@ public class AppOpsState {
         if (packageName != null) {
             pkgs = mAppOps.getOpsForPackage(uid, packageName, tpl.ops);
         } else {
-            pkgs = mAppOps.getPackagesForOps(tpl.ops);
+            // Served from the shared index, no binder round-trip per template
+            pkgs = mIndex.getPackagesForOps(AppOpsIndex.maskFor(tpl.ops));
         }
 
         if (pkgs != null) {
@@ -590,19 +653,14 @@ public class AppOpsState {
             } catch (NameNotFoundException e) {
             }
         } else {
-            String[] permsArray = new String[perms.size()];
-            perms.toArray(permsArray);
-            apps = mPm.getPackagesHoldingPermissions(permsArray, 0);
+            // Shared by all templates; packages not holding any of the
+            // template permissions are skipped below.
+            apps = mIndex.getPackagesWithPermissions();
         }
         for (int i=0; i<apps.size(); i++) {
             PackageInfo appInfo = apps.get(i);
-            if (packageName == null && appInfo.packageName != null) {
-                try {
-                    appInfo = mPm.getPackageInfo(appInfo.packageName, PackageManager.GET_PERMISSIONS);
-                } catch (NameNotFoundException e) {
-                    if (DEBUG) Log.w(TAG, "Exception: " + e.toString());
-                    appInfo = apps.get(i);
-                }
+            if (packageName == null && !holdsAnyPermission(appInfo, perms)) {
+                continue;
             }
             AppEntry appEntry = getAppEntry(context, appEntries, appInfo.packageName,
                     appInfo.applicationInfo, applyFilters);
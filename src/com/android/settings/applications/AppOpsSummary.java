@@ -187,6 +187,7 @@ public class AppOpsSummary extends Fragment {
             return;
         }
         appOps.resetCounters();
+        AppOpsIndex.getInstance(mActivity).invalidateOps();
         // reload content
         resetAdapter();
     }
@@ -90,6 +90,7 @@ import android.widget.RelativeLayout;
 import android.widget.Spinner;
 import android.widget.TextView;
 import com.android.settings.cyanogenmod.ProtectedAppsReceiver;
+import com.android.settings.notification.NotificationAppList;
 
 /**
  * Activity to display application information from Settings. This activity presents
@@ -1453,6 +1454,7 @@ public class InstalledAppDetails extends Fragment
         try {
             final boolean enable = mNotificationSwitch.isChecked();
             nm.setNotificationsEnabledForPackage(packageName, mAppEntry.info.uid, enabled);
+            NotificationAppList.onNotificationStateChanged(packageName);
         } catch (android.os.RemoteException ex) {
             mNotificationSwitch.setChecked(!enabled); // revert
         }
@@ -76,6 +76,7 @@ import com.android.settings.Settings.RunningServicesActivity;
 import com.android.settings.Settings.StorageUseActivity;
 import com.android.settings.applications.ApplicationsState.AppEntry;
 import com.android.settings.deviceinfo.StorageMeasurement;
+import com.android.settings.notification.NotificationAppList;
 import com.android.settings.Utils;
 
 import java.util.ArrayList;
@@ -1247,6 +1248,7 @@ public class ManageApplications extends Fragment implements
                             }
                         }
                     }
+                    NotificationAppList.onNotificationStateChanged(null);
                     try {
                         mIPm.resetPreferredActivities(UserHandle.myUserId());
                     } catch (RemoteException e) {
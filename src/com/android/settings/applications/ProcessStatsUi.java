@@ -31,6 +31,7 @@ import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
 import android.text.format.Formatter;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.SparseArray;
 import android.util.TimeUtils;
 import android.view.Menu;
@@ -90,6 +91,25 @@ public class ProcessStatsUi extends PreferenceFragment
 
     private static ProcessStats sStatsXfer;
 
+    // Decoded stats per selected duration, keyed by duration.  The service
+    // commits its stats once per DURATION_QUANTUM, so an entry is reused, also
+    // when coming back to the screen, until the quantum it was read in is
+    // over.  Entries of past quanta are dropped on every lookup, and leaving
+    // the screen keeps only the entry of the duration last shown.  Only
+    // accessed on the UI thread.
+    private static final LongSparseArray<CachedStats> sStatsCache
+            = new LongSparseArray<CachedStats>(NUM_DURATIONS);
+
+    private static final class CachedStats {
+        final ProcessStats stats;
+        final long quantum;
+
+        CachedStats(ProcessStats stats, long quantum) {
+            this.stats = stats;
+            this.quantum = quantum;
+        }
+    }
+
     IProcessStats mProcessStats;
     UserManager mUm;
     ProcessStats mStats;
@@ -190,6 +210,11 @@ public class ProcessStatsUi extends PreferenceFragment
         if (getActivity().isChangingConfigurations()) {
             sStatsXfer = mStats;
         }
+        final CachedStats last = sStatsCache.get(mDuration);
+        sStatsCache.clear();
+        if (last != null) {
+            sStatsCache.put(mDuration, last);
+        }
     }
 
     @Override
@@ -310,6 +335,7 @@ public class ProcessStatsUi extends PreferenceFragment
         switch (id) {
             case MENU_STATS_REFRESH:
                 mStats = null;
+                sStatsCache.clear();
                 refreshStats();
                 return true;
             case MENU_SHOW_SYSTEM:
@@ -783,10 +809,33 @@ public class ProcessStatsUi extends PreferenceFragment
         }
     }
 
+    private static long currentQuantum() {
+        return SystemClock.elapsedRealtime() / DURATION_QUANTUM;
+    }
+
+    private static ProcessStats getCachedStats(long duration) {
+        // Drop every entry of a past quantum, not only the one asked for
+        final long quantum = currentQuantum();
+        for (int i = sStatsCache.size() - 1; i >= 0; i--) {
+            if (sStatsCache.valueAt(i).quantum != quantum) {
+                sStatsCache.removeAt(i);
+            }
+        }
+        final CachedStats cached = sStatsCache.get(duration);
+        return cached != null ? cached.stats : null;
+    }
+
     private void load() {
         try {
             mLastDuration = mDuration;
             mMemState = mProcessStats.getCurrentMemoryState();
+            ProcessStats stats = getCachedStats(mDuration);
+            if (stats != null) {
+                if (DEBUG) Log.d(TAG, "Using cached stats for " + makeDuration(mDuration));
+                mStats = stats;
+                return;
+            }
+            final long start = DEBUG ? SystemClock.uptimeMillis() : 0;
             ParcelFileDescriptor pfd = mProcessStats.getStatsOverTime(mDuration);
             mStats = new ProcessStats(false);
             InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
@@ -797,7 +846,11 @@ public class ProcessStatsUi extends PreferenceFragment
             }
             if (mStats.mReadError != null) {
                 Log.w(TAG, "Failure reading process stats: " + mStats.mReadError);
+            } else {
+                sStatsCache.put(mDuration, new CachedStats(mStats, currentQuantum()));
             }
+            if (DEBUG) Log.d(TAG, "Read stats for " + makeDuration(mDuration) + " in "
+                    + (SystemClock.uptimeMillis() - start) + "ms");
         } catch (RemoteException e) {
             Log.e(TAG, "RemoteException:", e);
         }
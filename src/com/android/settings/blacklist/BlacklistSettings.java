@@ -26,17 +26,10 @@ import android.database.Cursor;
 import android.location.CountryDetector;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
-import android.provider.ContactsContract.PhoneLookup;
 import android.provider.Settings;
 import android.provider.Telephony.Blacklist;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
-import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -54,8 +47,6 @@ import com.android.settings.SettingsActivity;
 import com.android.settings.SubSettings;
 import com.android.settings.cyanogenmod.BaseSystemSettingSwitchBar;
 
-import java.util.HashMap;
-
 /**
  * Blacklist settings UI for the Phone app.
  */
@@ -172,6 +163,9 @@ public class BlacklistSettings extends ListFragment
         if (mEnabledSwitch != null) {
             mEnabledSwitch.resume(activity);
         }
+        // Pick up names resolved while paused
+        ContactNameResolver.getInstance(mContext).addListener(mAdapter);
+        mAdapter.notifyDataSetChanged();
     }
 
     @Override
@@ -180,6 +174,7 @@ public class BlacklistSettings extends ListFragment
         if (mEnabledSwitch != null) {
             mEnabledSwitch.pause();
         }
+        ContactNameResolver.getInstance(mContext).removeListener(mAdapter);
     }
 
     @Override
@@ -218,84 +213,10 @@ public class BlacklistSettings extends ListFragment
     }
 
     private static class BlacklistAdapter extends ResourceCursorAdapter
-            implements ToggleImageView.OnCheckedChangeListener {
-        private Object mLock = new Object();
+            implements ToggleImageView.OnCheckedChangeListener, ContactNameResolver.Listener {
         private ContentResolver mResolver;
         private String mCurrentCountryIso;
-        private SparseArray<String> mRequestedLookups = new SparseArray<String>();
-        private HashMap<String, String> mContactNameCache = new HashMap<String, String>();
-
-        private Handler mMainHandler = new Handler() {
-            @Override
-            public void handleMessage(Message msg) {
-                int lookupIndex = msg.arg1;
-                String name = (String) msg.obj;
-                mContactNameCache.put(mRequestedLookups.get(lookupIndex),
-                        name == null ? "" : name);
-                mRequestedLookups.delete(lookupIndex);
-                notifyDataSetChanged();
-            }
-        };
-        private Handler mQueryHandler;
-
-        private class QueryHandler extends Handler {
-            public static final int MSG_LOOKUP = 1;
-            private static final int MSG_FINISH = 2;
-
-            public QueryHandler(Looper looper) {
-                super(looper);
-            }
-
-            @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
-                    case MSG_LOOKUP:
-                        String name = lookupNameForNumber((String) msg.obj);
-                        mMainHandler.obtainMessage(0, msg.arg1, 0, name).sendToTarget();
-                        synchronized (mLock) {
-                            if (mQueryHandler != null) {
-                                Message finishMessage = mQueryHandler.obtainMessage(MSG_FINISH);
-                                mQueryHandler.sendMessageDelayed(finishMessage, 3000);
-                            }
-                        }
-                        break;
-                    case MSG_FINISH:
-                        synchronized (mLock) {
-                            if (mQueryHandler != null) {
-                                mQueryHandler.getLooper().quit();
-                                mQueryHandler = null;
-                            }
-                        }
-                        break;
-                }
-            }
-
-            private String lookupNameForNumber(String number) {
-                if (!TextUtils.isEmpty(mCurrentCountryIso)) {
-                    // Normalise the number: this is needed because the PhoneLookup query
-                    // below does not accept a country code as an input.
-                    String numberE164 = PhoneNumberUtils.formatNumberToE164(number,
-                            mCurrentCountryIso);
-                    if (!TextUtils.isEmpty(numberE164)) {
-                        // Only use it if the number could be formatted to E164.
-                        number = numberE164;
-                    }
-                }
-
-                String result = null;
-                final String[] projection = new String[] { PhoneLookup.DISPLAY_NAME };
-                Uri uri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
-                Cursor cursor = mResolver.query(uri, projection, null, null, null);
-                if (cursor != null) {
-                    if (cursor.moveToFirst()) {
-                        result = cursor.getString(0);
-                    }
-                    cursor.close();
-                }
-
-                return result;
-            }
-        }
+        private final ContactNameResolver mNameResolver;
 
         public BlacklistAdapter(Context context, Cursor cursor) {
             super(context, R.layout.blacklist_entry_row, cursor);
@@ -304,6 +225,12 @@ public class BlacklistSettings extends ListFragment
                     (CountryDetector) context.getSystemService(Context.COUNTRY_DETECTOR);
             mCurrentCountryIso = detector.detectCountry().getCountryIso();
             mResolver = context.getContentResolver();
+            mNameResolver = ContactNameResolver.getInstance(context);
+        }
+
+        @Override
+        public void onNamesResolved() {
+            notifyDataSetChanged();
         }
 
         @Override
@@ -331,7 +258,7 @@ public class BlacklistSettings extends ListFragment
         public void bindView(View view, Context context, Cursor cursor) {
             ViewHolder holder = (ViewHolder) view.getTag();
             String number = cursor.getString(COLUMN_NUMBER);
-            String name = mContactNameCache.get(number);
+            String name = mNameResolver.getName(number);
             String formattedNumber = PhoneNumberUtils.formatNumber(number,
                     null, mCurrentCountryIso);
 
@@ -344,11 +271,6 @@ public class BlacklistSettings extends ListFragment
                 holder.subText.setVisibility(View.VISIBLE);
             }
 
-            if (name == null) {
-                int id = cursor.getInt(COLUMN_ID);
-                scheduleNameLookup(id, number);
-            }
-
             holder.callStatus.setCheckedInternal(cursor.getInt(COLUMN_PHONE) != 0, false);
             holder.messageStatus.setCheckedInternal(cursor.getInt(COLUMN_MESSAGE) != 0, false);
             holder.position = cursor.getPosition();
@@ -370,21 +292,6 @@ public class BlacklistSettings extends ListFragment
             }
         }
 
-        private void scheduleNameLookup(int id, String number) {
-            synchronized (mLock) {
-                if (mQueryHandler == null) {
-                    HandlerThread thread = new HandlerThread("blacklist_contact_query",
-                            Process.THREAD_PRIORITY_BACKGROUND);
-                    thread.start();
-                    mQueryHandler = new QueryHandler(thread.getLooper());
-                }
-            }
-
-            mRequestedLookups.put(id, number);
-            Message msg = mQueryHandler.obtainMessage(QueryHandler.MSG_LOOKUP, id, 0, number);
-            msg.sendToTarget();
-        }
-
         private static class ViewHolder {
             TextView mainText;
             TextView subText;
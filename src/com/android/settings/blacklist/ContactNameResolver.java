@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.blacklist;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.location.Country;
+import android.location.CountryDetector;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves blacklisted numbers to contact names on a single background
+ * thread.
+ *
+ * Numbers requested while a lookup is pending are resolved together: those
+ * that can be normalized to E.164 are matched with a single query on the
+ * normalized phone numbers.  The others, and those the exact match missed,
+ * fall back to the looser matching of a {@link PhoneLookup} query, once per
+ * distinct number, which the provider serves from its caller ID index.
+ * Results, including numbers without a contact, are kept in a bounded cache
+ * which is dropped whenever the contacts change.
+ */
+final class ContactNameResolver {
+    private static final String TAG = "ContactNameResolver";
+    private static final boolean DEBUG = false;
+
+    private static final int CACHE_SIZE = 256;
+
+    // Stay well below the SQLite bound arguments limit
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final int MSG_RESOLVE = 1;
+
+    private static final String[] PHONE_PROJECTION = {
+        Phone.NORMALIZED_NUMBER,
+        Phone.DISPLAY_NAME
+    };
+    private static final String[] LOOKUP_PROJECTION = { PhoneLookup.DISPLAY_NAME };
+
+    interface Listener {
+        /** Called on the main thread when new names were added to the cache. */
+        void onNamesResolved();
+    }
+
+    private static ContactNameResolver sInstance;
+
+    static synchronized ContactNameResolver getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContactNameResolver(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    private final String mCountryIso;
+    private final Handler mWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    // All of the following are guarded by 'this'.
+    // Maps numbers to names, or to an empty string if they are not a contact
+    private final LruCache<String, String> mNames = new LruCache<String, String>(CACHE_SIZE);
+    private final ArraySet<String> mPending = new ArraySet<String>();
+    private boolean mResolveScheduled;
+    private int mGeneration;
+    private int mLookups;
+    private int mQueries;
+    private long mLookupTime;
+
+    // Posted to the main thread so that all rows bound in the same pass
+    // are requested before the lookup starts.
+    private final Runnable mStartResolve = new Runnable() {
+        @Override
+        public void run() {
+            mWorker.sendEmptyMessage(MSG_RESOLVE);
+        }
+    };
+
+    private final Runnable mNotifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onNamesResolved();
+            }
+        }
+    };
+
+    private ContactNameResolver(Context context) {
+        mResolver = context.getContentResolver();
+
+        final CountryDetector detector =
+                (CountryDetector) context.getSystemService(Context.COUNTRY_DETECTOR);
+        final Country country = detector != null ? detector.detectCountry() : null;
+        mCountryIso = country != null ? country.getCountryIso() : null;
+
+        HandlerThread thread = new HandlerThread("blacklist_contact_query",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorker = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_RESOLVE) {
+                    resolvePending();
+                }
+            }
+        };
+
+        mResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true,
+                new ContentObserver(mWorker) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        });
+    }
+
+    /** Must be called on the main thread. */
+    void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    /** Must be called on the main thread. */
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the contact name for the number, an empty string if it doesn't
+     * belong to a contact, or null if it isn't known yet; in the latter case
+     * a lookup is scheduled and listeners are notified once it completes.
+     */
+    synchronized String getName(String number) {
+        final String name = mNames.get(number);
+        if (name == null && mPending.add(number) && !mResolveScheduled) {
+            mResolveScheduled = true;
+            mMainHandler.post(mStartResolve);
+        }
+        return name;
+    }
+
+    /** Number of numbers looked up since the process started. */
+    synchronized int getLookupCount() {
+        return mLookups;
+    }
+
+    /** Number of contacts provider queries these lookups took. */
+    synchronized int getQueryCount() {
+        return mQueries;
+    }
+
+    /** Average time spent resolving a number, in milliseconds. */
+    synchronized float getAverageLookupTime() {
+        return mLookups > 0 ? (float) mLookupTime / mLookups : 0f;
+    }
+
+    private void invalidate() {
+        synchronized (this) {
+            mGeneration++;
+            mNames.evictAll();
+        }
+        if (DEBUG) Log.d(TAG, "Contacts changed, dropped cached names");
+        mMainHandler.post(mNotifyListeners);
+    }
+
+    // Runs on the worker thread.
+    private void resolvePending() {
+        final List<String> numbers;
+        final int generation;
+        synchronized (this) {
+            numbers = new ArrayList<String>(mPending);
+            mPending.clear();
+            mResolveScheduled = false;
+            generation = mGeneration;
+        }
+        if (numbers.isEmpty()) {
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final ArrayMap<String, String> names = new ArrayMap<String, String>(numbers.size());
+        // Normalized number -> numbers that normalize to it
+        final ArrayMap<String, List<String>> byE164 = new ArrayMap<String, List<String>>();
+        // Number to match by caller ID -> numbers it stands for
+        final ArrayMap<String, List<String>> unmatched = new ArrayMap<String, List<String>>();
+        int queries = 0;
+
+        for (String number : numbers) {
+            final String e164 = !TextUtils.isEmpty(mCountryIso)
+                    ? PhoneNumberUtils.formatNumberToE164(number, mCountryIso) : null;
+            if (TextUtils.isEmpty(e164)) {
+                final List<String> self = new ArrayList<String>(1);
+                self.add(number);
+                unmatched.put(number, self);
+                continue;
+            }
+            List<String> same = byE164.get(e164);
+            if (same == null) {
+                same = new ArrayList<String>(1);
+                byE164.put(e164, same);
+            }
+            same.add(number);
+        }
+
+        for (int offset = 0; offset < byE164.size(); offset += MAX_BATCH_SIZE) {
+            final int count = Math.min(MAX_BATCH_SIZE, byE164.size() - offset);
+            final String[] args = new String[count];
+            final StringBuilder selection = new StringBuilder(Phone.NORMALIZED_NUMBER)
+                    .append(" IN (");
+            for (int i = 0; i < count; i++) {
+                args[i] = byE164.keyAt(offset + i);
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(')');
+
+            final Cursor cursor = mResolver.query(Phone.CONTENT_URI, PHONE_PROJECTION,
+                    selection.toString(), args, null);
+            queries++;
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        final List<String> same = byE164.get(cursor.getString(0));
+                        if (same == null) continue;
+                        for (int i = 0; i < same.size(); i++) {
+                            if (!names.containsKey(same.get(i))) {
+                                names.put(same.get(i), cursor.getString(1));
+                            }
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        // Numbers the exact match missed are looked up by their E.164 form
+        for (int i = 0; i < byE164.size(); i++) {
+            final List<String> same = byE164.valueAt(i);
+            final ArrayList<String> missed = new ArrayList<String>(same.size());
+            for (int j = 0; j < same.size(); j++) {
+                if (!names.containsKey(same.get(j))) {
+                    missed.add(same.get(j));
+                }
+            }
+            if (missed.isEmpty()) continue;
+            final List<String> existing = unmatched.get(byE164.keyAt(i));
+            if (existing != null) {
+                existing.addAll(missed);
+            } else {
+                unmatched.put(byE164.keyAt(i), missed);
+            }
+        }
+        // Contacts without a normalized number, or normalized for another
+        // country, are only found by caller ID matching
+        for (int i = 0; i < unmatched.size(); i++) {
+            final String name = lookupName(unmatched.keyAt(i));
+            queries++;
+            final List<String> same = unmatched.valueAt(i);
+            for (int j = 0; j < same.size(); j++) {
+                names.put(same.get(j), name);
+            }
+        }
+        // Most blacklisted numbers are no contacts, remember that too
+        for (String number : numbers) {
+            if (!names.containsKey(number)) {
+                names.put(number, null);
+            }
+        }
+
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        synchronized (this) {
+            mLookups += numbers.size();
+            mQueries += queries;
+            mLookupTime += elapsed;
+            if (generation == mGeneration) {
+                for (int i = 0; i < names.size(); i++) {
+                    final String name = names.valueAt(i);
+                    mNames.put(names.keyAt(i), name != null ? name : "");
+                }
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Resolved " + numbers.size() + " numbers with " + queries
+                + " queries in " + elapsed + "ms");
+        mMainHandler.post(mNotifyListeners);
+    }
+
+    private String lookupName(String number) {
+        String result = null;
+        Uri uri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+        Cursor cursor = mResolver.query(uri, LOOKUP_PROJECTION, null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                result = cursor.getString(0);
+            }
+            cursor.close();
+        }
+        return result;
+    }
+}
@@ -27,6 +27,8 @@ public class AnonymousStats extends SettingsPreferenceFragment {
     private static final String PREF_FILE_NAME = "CMStats";
     /* package */ static final String ANONYMOUS_OPT_IN = "pref_anonymous_opt_in";
     /* package */ static final String ANONYMOUS_LAST_CHECKED = "pref_anonymous_checked_in";
+    /* package */ static final String ANONYMOUS_FAILED_ATTEMPTS = "pref_anonymous_failed_attempts";
+    /* package */ static final String ANONYMOUS_NEXT_RETRY = "pref_anonymous_next_retry";
 
     public static SharedPreferences getPreferences(Context context) {
         return context.getSharedPreferences(PREF_FILE_NAME, 0);
@@ -17,20 +17,21 @@
 package com.android.settings.cmstats;
 
 import android.app.Service;
-import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.IBinder;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.R;
-import com.android.settings.Settings;
+import com.android.settings.cmstats.StatsOutbox.CheckIn;
 
 import com.google.analytics.tracking.android.GoogleAnalytics;
 import com.google.analytics.tracking.android.Tracker;
 import com.google.analytics.tracking.android.MapBuilder;
 
+import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
@@ -46,8 +47,85 @@ import java.util.Map;
 public class ReportingService extends Service {
     /* package */ static final String TAG = "CMStats";
 
+    private static final String STATS_URL = "https://stats.cyanogenmod.org/submit";
+
+    /**
+     * Receives the check-ins; replaceable so that tests can use a local server.
+     */
+    interface Endpoint {
+        /**
+         * Submits the check-ins in order, stopping at the first one which is not
+         * accepted, and returns the accepted ones.
+         */
+        List<CheckIn> submit(List<CheckIn> checkIns);
+    }
+
+    /**
+     * Posts the check-ins to a stats service, over a single client.
+     */
+    static final class HttpEndpoint implements Endpoint {
+        private final String mUrl;
+
+        HttpEndpoint(String url) {
+            mUrl = url;
+        }
+
+        @Override
+        public List<CheckIn> submit(List<CheckIn> checkIns) {
+            final List<CheckIn> accepted = new ArrayList<CheckIn>(checkIns.size());
+            final HttpClient httpClient = new DefaultHttpClient();
+            long bytes = 0;
+            try {
+                for (CheckIn checkIn : checkIns) {
+                    List<NameValuePair> kv = new ArrayList<NameValuePair>(6);
+                    kv.add(new BasicNameValuePair("device_hash", checkIn.deviceId));
+                    kv.add(new BasicNameValuePair("device_name", checkIn.deviceName));
+                    kv.add(new BasicNameValuePair("device_version", checkIn.deviceVersion));
+                    kv.add(new BasicNameValuePair("device_country", checkIn.deviceCountry));
+                    kv.add(new BasicNameValuePair("device_carrier", checkIn.deviceCarrier));
+                    kv.add(new BasicNameValuePair("device_carrier_id", checkIn.deviceCarrierId));
+
+                    final HttpPost httpPost = new HttpPost(mUrl);
+                    final UrlEncodedFormEntity entity = new UrlEncodedFormEntity(kv);
+                    httpPost.setEntity(entity);
+                    bytes += entity.getContentLength();
+
+                    final HttpResponse response = httpClient.execute(httpPost);
+                    final int status = response.getStatusLine().getStatusCode();
+                    // Release the connection for the next check-in
+                    if (response.getEntity() != null) {
+                        response.getEntity().consumeContent();
+                    }
+                    if (status < 200 || status >= 300) {
+                        Log.w(TAG, "Stats checkin rejected with status " + status);
+                        break;
+                    }
+                    accepted.add(checkIn);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not upload stats checkin", e);
+            } finally {
+                httpClient.getConnectionManager().shutdown();
+            }
+            Log.d(TAG, "Submitted " + accepted.size() + " of " + checkIns.size()
+                    + " checkins, " + bytes + " bytes");
+            return accepted;
+        }
+    }
+
+    private static Endpoint sEndpoint = new HttpEndpoint(STATS_URL);
+
     private StatsUploadTask mTask;
 
+    @VisibleForTesting
+    static synchronized void setEndpoint(Endpoint endpoint) {
+        sEndpoint = endpoint;
+    }
+
+    private static synchronized Endpoint getEndpoint() {
+        return sEndpoint;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -68,86 +146,84 @@ public class ReportingService extends Service {
     private class StatsUploadTask extends AsyncTask<Void, Void, Boolean> {
         @Override
         protected Boolean doInBackground(Void... params) {
-            String deviceId = Utilities.getUniqueID(getApplicationContext());
-            String deviceName = Utilities.getDevice();
-            String deviceVersion = Utilities.getModVersion();
-            String deviceCountry = Utilities.getCountryCode(getApplicationContext());
-            String deviceCarrier = Utilities.getCarrier(getApplicationContext());
-            String deviceCarrierId = Utilities.getCarrierId(getApplicationContext());
-
-            Log.d(TAG, "SERVICE: Device ID=" + deviceId);
-            Log.d(TAG, "SERVICE: Device Name=" + deviceName);
-            Log.d(TAG, "SERVICE: Device Version=" + deviceVersion);
-            Log.d(TAG, "SERVICE: Country=" + deviceCountry);
-            Log.d(TAG, "SERVICE: Carrier=" + deviceCarrier);
-            Log.d(TAG, "SERVICE: Carrier ID=" + deviceCarrierId);
-
-            // report to google analytics
-            Tracker tracker = GoogleAnalytics.getInstance(ReportingService.this)
-                    .getTracker(getString(R.string.ga_trackingId));
-            tracker.send(createMap(deviceName, deviceVersion,deviceCountry));
-
-            // this really should be set at build time...
-            // format of version should be:
-            // version[-date-type]-device
-            String[] parts = deviceVersion.split("-");
-            String deviceVersionNoDevice = null;
-            if (parts.length == 2) {
-                deviceVersionNoDevice = parts[0];
-            } else if (parts.length == 4) {
-                deviceVersionNoDevice = parts[0] + "-" + parts[2];
-            }
-
-            if (deviceVersionNoDevice != null) {
-                tracker.send(createMap("checkin", deviceName, deviceVersionNoDevice));
+            final StatsOutbox outbox = StatsOutbox.getInstance(getApplicationContext());
+
+            // Backoff retries only resend what is pending: attributes are
+            // collected and analytics hits sent once per scheduled check-in,
+            // which replaces a pending one of the same device and version.
+            if (isCheckInDue(outbox.getPending())) {
+                CheckIn checkIn = CheckIn.create(getApplicationContext());
+
+                Log.d(TAG, "SERVICE: Device ID=" + checkIn.deviceId);
+                Log.d(TAG, "SERVICE: Device Name=" + checkIn.deviceName);
+                Log.d(TAG, "SERVICE: Device Version=" + checkIn.deviceVersion);
+                Log.d(TAG, "SERVICE: Country=" + checkIn.deviceCountry);
+                Log.d(TAG, "SERVICE: Carrier=" + checkIn.deviceCarrier);
+                Log.d(TAG, "SERVICE: Carrier ID=" + checkIn.deviceCarrierId);
+
+                reportToAnalytics(checkIn);
+                outbox.add(checkIn);
             }
 
             // report to the cmstats service
-            HttpClient httpClient = new DefaultHttpClient();
-            HttpPost httpPost = new HttpPost("https://stats.cyanogenmod.org/submit");
-            boolean success = false;
-
-            try {
-                List<NameValuePair> kv = new ArrayList<NameValuePair>(5);
-                kv.add(new BasicNameValuePair("device_hash", deviceId));
-                kv.add(new BasicNameValuePair("device_name", deviceName));
-                kv.add(new BasicNameValuePair("device_version", deviceVersion));
-                kv.add(new BasicNameValuePair("device_country", deviceCountry));
-                kv.add(new BasicNameValuePair("device_carrier", deviceCarrier));
-                kv.add(new BasicNameValuePair("device_carrier_id", deviceCarrierId));
-
-                httpPost.setEntity(new UrlEncodedFormEntity(kv));
-                httpClient.execute(httpPost);
-
-                success = true;
-            } catch (IOException e) {
-                Log.w(TAG, "Could not upload stats checkin", e);
+            final List<CheckIn> pending = outbox.getPending();
+            final List<CheckIn> accepted = getEndpoint().submit(pending);
+            outbox.remove(accepted);
+            if (accepted.size() < pending.size()) {
+                outbox.onSubmitFailed();
+                return false;
             }
-
-            return success;
+            return true;
         }
 
         @Override
         protected void onPostExecute(Boolean result) {
-            final Context context = ReportingService.this;
-            long interval;
-
             if (result) {
-                final SharedPreferences prefs = AnonymousStats.getPreferences(context);
-                prefs.edit().putLong(AnonymousStats.ANONYMOUS_LAST_CHECKED,
-                        System.currentTimeMillis()).apply();
-                // use set interval
-                interval = 0;
+                ReportingServiceManager.onCheckedIn(ReportingService.this);
             } else {
-                // error, try again in 3 hours
-                interval = 3L * 60L * 60L * 1000L;
+                ReportingServiceManager.scheduleRetry(ReportingService.this);
             }
-
-            ReportingServiceManager.setAlarm(context, interval);
             stopSelf();
         }
     }
 
+    /**
+     * Whether a fresh check-in should be collected: on the first run of an
+     * update interval, or once the version changed since the last one.
+     */
+    private static boolean isCheckInDue(List<CheckIn> pending) {
+        if (pending.isEmpty()) {
+            return true;
+        }
+        final CheckIn newest = pending.get(pending.size() - 1);
+        return System.currentTimeMillis() - newest.queuedAt
+                >= ReportingServiceManager.UPDATE_INTERVAL
+                || !TextUtils.equals(newest.deviceVersion, Utilities.getModVersion());
+    }
+
+    private void reportToAnalytics(CheckIn checkIn) {
+        // report to google analytics
+        Tracker tracker = GoogleAnalytics.getInstance(ReportingService.this)
+                .getTracker(getString(R.string.ga_trackingId));
+        tracker.send(createMap(checkIn.deviceName, checkIn.deviceVersion,
+                checkIn.deviceCountry));
+
+        // this really should be set at build time...
+        // format of version should be:
+        // version[-date-type]-device
+        String[] parts = checkIn.deviceVersion.split("-");
+        String deviceVersionNoDevice = null;
+        if (parts.length == 2) {
+            deviceVersionNoDevice = parts[0];
+        } else if (parts.length == 4) {
+            deviceVersionNoDevice = parts[0] + "-" + parts[2];
+        }
+
+        if (deviceVersionNoDevice != null) {
+            tracker.send(createMap("checkin", checkIn.deviceName, deviceVersionNoDevice));
+        }
+    }
+
     private Map<String, String> createMap(String category, String action, String label) {
         return MapBuilder.createEvent(category,     // Event category (required)
                 action,                     // Event action (required)
@@ -27,10 +27,19 @@ import android.net.NetworkInfo;
 import android.provider.Settings;
 import android.util.Log;
 
+import java.util.Random;
+
 public class ReportingServiceManager extends BroadcastReceiver {
-    private static final long MILLIS_PER_HOUR = 60L * 60L * 1000L;
+    private static final long MILLIS_PER_MINUTE = 60L * 1000L;
+    private static final long MILLIS_PER_HOUR = 60L * MILLIS_PER_MINUTE;
     private static final long MILLIS_PER_DAY = 24L * MILLIS_PER_HOUR;
-    private static final long UPDATE_INTERVAL = 1L * MILLIS_PER_DAY;
+    /* package */ static final long UPDATE_INTERVAL = 1L * MILLIS_PER_DAY;
+
+    // Failed check-ins are retried after 30 minutes, doubling up to a day
+    private static final long RETRY_BASE_DELAY = 30L * MILLIS_PER_MINUTE;
+    private static final long RETRY_MAX_DELAY = MILLIS_PER_DAY;
+
+    private static final Random sRandom = new Random();
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -42,6 +51,10 @@ public class ReportingServiceManager extends BroadcastReceiver {
     }
 
     public static void setAlarm(Context context, long millisFromNow) {
+        setAlarm(context, millisFromNow, true);
+    }
+
+    private static void setAlarm(Context context, long millisFromNow, boolean wakeup) {
         SharedPreferences prefs = AnonymousStats.getPreferences(context);
         if (prefs.contains(AnonymousStats.ANONYMOUS_OPT_IN)) {
             migrate(context, prefs);
@@ -67,12 +80,45 @@ public class ReportingServiceManager extends BroadcastReceiver {
         intent.setClass(context, ReportingServiceManager.class);
 
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        alarmManager.set(AlarmManager.RTC_WAKEUP, System.currentTimeMillis() + millisFromNow,
+        alarmManager.set(wakeup ? AlarmManager.RTC_WAKEUP : AlarmManager.RTC,
+                System.currentTimeMillis() + millisFromNow,
                 PendingIntent.getBroadcast(context, 0, intent, 0));
         Log.d(ReportingService.TAG, "Next sync attempt in : "
                 + millisFromNow / MILLIS_PER_HOUR + " hours");
     }
 
+    /* package */ static void onCheckedIn(Context context) {
+        AnonymousStats.getPreferences(context).edit()
+                .putLong(AnonymousStats.ANONYMOUS_LAST_CHECKED, System.currentTimeMillis())
+                .remove(AnonymousStats.ANONYMOUS_FAILED_ATTEMPTS)
+                .remove(AnonymousStats.ANONYMOUS_NEXT_RETRY)
+                .apply();
+        // use set interval
+        setAlarm(context, 0);
+    }
+
+    /**
+     * Schedules the next attempt after a failed check-in, with an exponential
+     * and jittered delay so that devices failing together don't retry together.
+     * The retry alarm doesn't wake the device up: connectivity changes and the
+     * next wakeup are good enough to retry.
+     */
+    /* package */ static void scheduleRetry(Context context) {
+        final SharedPreferences prefs = AnonymousStats.getPreferences(context);
+        final int failures = prefs.getInt(AnonymousStats.ANONYMOUS_FAILED_ATTEMPTS, 0) + 1;
+        final long delay = Math.min(RETRY_BASE_DELAY << Math.min(failures - 1, 10),
+                RETRY_MAX_DELAY);
+        // Anywhere between half and one and a half of the delay
+        final long jitteredDelay = delay / 2 + (long) (sRandom.nextDouble() * delay);
+
+        prefs.edit()
+                .putInt(AnonymousStats.ANONYMOUS_FAILED_ATTEMPTS, failures)
+                .putLong(AnonymousStats.ANONYMOUS_NEXT_RETRY,
+                        System.currentTimeMillis() + jitteredDelay)
+                .apply();
+        setAlarm(context, jitteredDelay, false);
+    }
+
     public static void launchService(Context context) {
         ConnectivityManager cm = (ConnectivityManager)
                 context.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -93,6 +139,13 @@ public class ReportingServiceManager extends BroadcastReceiver {
             setAlarm(context, 0);
             return;
         }
+        long nextRetry = prefs.getLong(AnonymousStats.ANONYMOUS_NEXT_RETRY, 0);
+        if (System.currentTimeMillis() < nextRetry) {
+            // Don't retry on every connectivity change
+            Log.d(ReportingService.TAG, "Waiting for next retry : "
+                    + (nextRetry - System.currentTimeMillis()) / MILLIS_PER_MINUTE + " minutes");
+            return;
+        }
         long timeElapsed = System.currentTimeMillis() - lastSynced;
         if (timeElapsed < UPDATE_INTERVAL) {
             long timeLeft = UPDATE_INTERVAL - timeElapsed;
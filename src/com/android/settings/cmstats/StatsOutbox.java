@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cmstats;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check-ins waiting to be submitted to the stats service, kept in a small file
+ * so that they survive failed submissions and process restarts.
+ *
+ * A check-in only differs from a pending one of the same device and version by
+ * its network attributes, so it replaces that one instead of being queued as
+ * well; the outbox then holds at most one check-in per installed version.
+ */
+final class StatsOutbox {
+    private static final String FILE_NAME = "cmstats_outbox";
+    private static final int FILE_VERSION = 1;
+
+    // Oldest check-ins are dropped past this
+    private static final int MAX_CHECK_INS = 4;
+
+    static final class CheckIn {
+        final String deviceId;
+        final String deviceName;
+        final String deviceVersion;
+        final String deviceCountry;
+        final String deviceCarrier;
+        final String deviceCarrierId;
+        final long queuedAt;
+        int attempts;
+
+        CheckIn(String deviceId, String deviceName, String deviceVersion, String deviceCountry,
+                String deviceCarrier, String deviceCarrierId, long queuedAt) {
+            this.deviceId = deviceId;
+            this.deviceName = deviceName;
+            this.deviceVersion = deviceVersion;
+            this.deviceCountry = deviceCountry;
+            this.deviceCarrier = deviceCarrier;
+            this.deviceCarrierId = deviceCarrierId;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Collects the attributes of this device.
+         */
+        static CheckIn create(Context context) {
+            return new CheckIn(Utilities.getUniqueID(context), Utilities.getDevice(),
+                    Utilities.getModVersion(), Utilities.getCountryCode(context),
+                    Utilities.getCarrier(context), Utilities.getCarrierId(context),
+                    System.currentTimeMillis());
+        }
+
+        boolean isSameDevice(CheckIn other) {
+            return TextUtils.equals(deviceId, other.deviceId)
+                    && TextUtils.equals(deviceVersion, other.deviceVersion);
+        }
+    }
+
+    private static StatsOutbox sInstance;
+
+    static synchronized StatsOutbox getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StatsOutbox(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private final AtomicFile mFile;
+
+    // All of the following are guarded by 'this'.
+    private List<CheckIn> mCheckIns;
+
+    private StatsOutbox(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Queues a check-in, replacing a pending one of the same device and version.
+     */
+    synchronized void add(CheckIn checkIn) {
+        final List<CheckIn> checkIns = loadLocked();
+        for (int i = checkIns.size() - 1; i >= 0; i--) {
+            final CheckIn pending = checkIns.get(i);
+            if (pending.isSameDevice(checkIn)) {
+                checkIn.attempts = pending.attempts;
+                checkIns.remove(i);
+            }
+        }
+        checkIns.add(checkIn);
+        while (checkIns.size() > MAX_CHECK_INS) {
+            checkIns.remove(0);
+        }
+        writeLocked();
+    }
+
+    /**
+     * Returns the pending check-ins, oldest first.
+     */
+    synchronized List<CheckIn> getPending() {
+        return new ArrayList<CheckIn>(loadLocked());
+    }
+
+    /**
+     * Records a failed attempt to submit the pending check-ins.
+     */
+    synchronized void onSubmitFailed() {
+        for (CheckIn checkIn : loadLocked()) {
+            checkIn.attempts++;
+        }
+        writeLocked();
+    }
+
+    /**
+     * Drops the submitted check-ins.
+     */
+    synchronized void remove(List<CheckIn> submitted) {
+        if (loadLocked().removeAll(submitted)) {
+            writeLocked();
+        }
+    }
+
+    private List<CheckIn> loadLocked() {
+        if (mCheckIns != null) {
+            return mCheckIns;
+        }
+        mCheckIns = new ArrayList<CheckIn>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != FILE_VERSION) {
+                return mCheckIns;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final CheckIn checkIn = new CheckIn(in.readUTF(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readUTF(), in.readUTF(), in.readLong());
+                checkIn.attempts = in.readInt();
+                mCheckIns.add(checkIn);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing pending
+        } catch (IOException e) {
+            Log.w(ReportingService.TAG, "Dropping unreadable stats outbox", e);
+            mCheckIns.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return mCheckIns;
+    }
+
+    private void writeLocked() {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mCheckIns.size());
+            for (CheckIn checkIn : mCheckIns) {
+                out.writeUTF(checkIn.deviceId != null ? checkIn.deviceId : "");
+                out.writeUTF(checkIn.deviceName);
+                out.writeUTF(checkIn.deviceVersion);
+                out.writeUTF(checkIn.deviceCountry);
+                out.writeUTF(checkIn.deviceCarrier);
+                out.writeUTF(checkIn.deviceCarrierId);
+                out.writeLong(checkIn.queuedAt);
+                out.writeInt(checkIn.attempts);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(ReportingService.TAG, "Could not write stats outbox", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
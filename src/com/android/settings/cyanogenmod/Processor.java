@@ -17,22 +17,21 @@
 package com.android.settings.cyanogenmod;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
 import android.os.SystemProperties;
 import android.os.SystemService;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceScreen;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.settings.LiveTicker;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
 import java.lang.Runtime;
+import java.util.Objects;
 
 //
 // CPU Related Settings
@@ -70,58 +69,73 @@ public class Processor extends SettingsPreferenceFragment implements
     private ListPreference mMinFrequencyPref;
     private ListPreference mMaxFrequencyPref;
 
-    private HandlerThread mCpuInfoThread;
-    private Handler mCpuInfoHandler;
-    private CpuUiUpdate mCpuUiUpdate;
+    private boolean mUpdateCpuInfo;
 
-    private class CpuUiUpdate implements Runnable {
-        public String currentFrequency;
-        public String maxFrequency;
-        public String minFrequency;
-        public String currentGovernor;
+    private static final class CpuInfo {
+        String currentFrequency;
+        String maxFrequency;
+        String minFrequency;
+        String currentGovernor;
 
-        public void run() {
-            if (currentFrequency != null) {
-                mCurFrequencyPref.setSummary(toMHz(currentFrequency));
-            }
-            if (maxFrequency != null) {
-                mMaxFrequencyPref.setValue(maxFrequency);
-                mMaxFrequencyPref.setSummary(String.format(mMaxFrequencyFormat,
-                    toMHz(maxFrequency)));
-            }
-            if (minFrequency != null) {
-                mMinFrequencyPref.setValue(minFrequency);
-                mMinFrequencyPref.setSummary(String.format(mMinFrequencyFormat,
-                    toMHz(minFrequency)));
-            }
-            if (currentGovernor != null) {
-                mGovernorPref.setSummary(String.format(mGovernorFormat, currentGovernor));
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CpuInfo)) {
+                return false;
             }
+            CpuInfo other = (CpuInfo) o;
+            return TextUtils.equals(currentFrequency, other.currentFrequency)
+                    && TextUtils.equals(maxFrequency, other.maxFrequency)
+                    && TextUtils.equals(minFrequency, other.minFrequency)
+                    && TextUtils.equals(currentGovernor, other.currentGovernor);
         }
-    };
 
-    private Runnable mUpdateCpuFreqValues = new Runnable() {
+        @Override
+        public int hashCode() {
+            return Objects.hash(currentFrequency, maxFrequency, minFrequency, currentGovernor);
+        }
+    }
 
+    private final LiveTicker.Subscription<CpuInfo> mCpuInfoSubscription =
+            new LiveTicker.Subscription<CpuInfo>(UI_UPDATE_DELAY) {
         @Override
-        public void run() {
+        protected CpuInfo sample() {
+            CpuInfo info = new CpuInfo();
             if (Utils.fileExists(FREQ_CUR_FILE)) {
-                mCpuUiUpdate.currentFrequency = Utils.fileReadOneLine(FREQ_CUR_FILE);
+                info.currentFrequency = Utils.fileReadOneLine(FREQ_CUR_FILE);
             }
 
             if (Utils.fileExists(FREQ_MIN_FILE)) {
-                mCpuUiUpdate.minFrequency = Utils.fileReadOneLine(FREQ_MIN_FILE);
+                info.minFrequency = Utils.fileReadOneLine(FREQ_MIN_FILE);
             }
 
             if (Utils.fileExists(FREQ_MAX_FILE)) {
-                mCpuUiUpdate.maxFrequency = Utils.fileReadOneLine(FREQ_MAX_FILE);
+                info.maxFrequency = Utils.fileReadOneLine(FREQ_MAX_FILE);
             }
 
             if (Utils.fileExists(GOV_FILE)) {
-                mCpuUiUpdate.currentGovernor = Utils.fileReadOneLine(GOV_FILE);
+                info.currentGovernor = Utils.fileReadOneLine(GOV_FILE);
             }
+            return info;
+        }
 
-            Processor.this.getActivity().runOnUiThread(mCpuUiUpdate);
-            mCpuInfoHandler.postDelayed(mUpdateCpuFreqValues, UI_UPDATE_DELAY);
+        @Override
+        protected void apply(CpuInfo info) {
+            if (info.currentFrequency != null) {
+                mCurFrequencyPref.setSummary(toMHz(info.currentFrequency));
+            }
+            if (info.maxFrequency != null) {
+                mMaxFrequencyPref.setValue(info.maxFrequency);
+                mMaxFrequencyPref.setSummary(String.format(mMaxFrequencyFormat,
+                    toMHz(info.maxFrequency)));
+            }
+            if (info.minFrequency != null) {
+                mMinFrequencyPref.setValue(info.minFrequency);
+                mMinFrequencyPref.setSummary(String.format(mMinFrequencyFormat,
+                    toMHz(info.minFrequency)));
+            }
+            if (info.currentGovernor != null) {
+                mGovernorPref.setSummary(String.format(mGovernorFormat, info.currentGovernor));
+            }
         }
     };
 
@@ -222,11 +236,7 @@ public class Processor extends SettingsPreferenceFragment implements
 
         } else {
             mCurFrequencyPref.setSummary(toMHz(temp));
-
-            mCpuInfoThread = new HandlerThread("CPUInfoThread");
-            mCpuInfoThread.start();
-            mCpuInfoHandler = new Handler(mCpuInfoThread.getLooper());
-            mCpuUiUpdate = new CpuUiUpdate();
+            mUpdateCpuInfo = true;
         }
     }
 
@@ -234,25 +244,15 @@ public class Processor extends SettingsPreferenceFragment implements
     public void onResume() {
         super.onResume();
         initFreqCapFiles();
-        if (mCpuInfoHandler != null) {
-            mCpuInfoHandler.post(mUpdateCpuFreqValues);
+        if (mUpdateCpuInfo) {
+            LiveTicker.getInstance(getActivity()).subscribe(mCpuInfoSubscription);
         }
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        if (mCpuInfoHandler != null) {
-            mCpuInfoHandler.removeCallbacks(mUpdateCpuFreqValues);
-        }
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (mCpuInfoThread != null) {
-            mCpuInfoThread.quit();
-        }
+        LiveTicker.getInstance(getActivity()).unsubscribe(mCpuInfoSubscription);
     }
 
     public boolean onPreferenceChange(Preference preference, Object value) {
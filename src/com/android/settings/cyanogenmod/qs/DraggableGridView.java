@@ -16,15 +16,16 @@
  */
 package com.android.settings.cyanogenmod.qs;
 
-import android.animation.Animator;
-import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
+import android.animation.PropertyValuesHolder;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.Point;
+import android.os.Debug;
 import android.os.Handler;
 import android.provider.Settings;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -33,16 +34,15 @@ import android.widget.AdapterView;
 import com.android.settings.R;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 
 public class DraggableGridView extends ViewGroup implements
         View.OnTouchListener, View.OnClickListener, View.OnLongClickListener {
+    private static final String TAG = "DraggableGridView";
+    private static final boolean DEBUG = false;
 
     private static final float CHILD_RATIO = .95f;
     private static final int ANIM_DURATION = 150;
-    private int COL_COUNT;
+    private int mColumnCount = 3;
 
     protected int mChildSize, mPadding, mLeftOffset, mScroll = 0;
     protected float mLastDelta = 0;
@@ -55,20 +55,58 @@ public class DraggableGridView extends ViewGroup implements
     private AdapterView.OnItemClickListener mOnItemClickListener;
     private boolean mUseLargerFirstRow = false;
     private int mDefaultColor;
+    private final int mMaxChildSize;
+    private final int mMaxPadding;
+    private final float mDraggedZ;
+
+    // Position -> layout coordinates, rebuilt when the grid geometry changes.
+    // Tops are not scrolled.
+    private int[] mTileLeft = new int[0];
+    private int[] mTileTop = new int[0];
+    private int mTableWidth = -1, mTableChildSize, mTableColumns;
+    private boolean mTableLargerFirstRow;
+
+    // Reused by every drag
+    private final Point mTmpPoint = new Point();
+    private View[] mReorderViews = new View[0];
+    private float[] mReorderX = new float[0];
+    private float[] mReorderY = new float[0];
+    private int mMoveEvents;
+    private int mAnimatorsCreated;
+
+    /**
+     * Animators of a child, created once and retargeted for every move.
+     */
+    private static final class ChildAnimators {
+        final ObjectAnimator translation;
+        final ObjectAnimator lift;
+
+        ChildAnimators(View v) {
+            translation = ObjectAnimator.ofPropertyValuesHolder(v,
+                    PropertyValuesHolder.ofFloat(View.TRANSLATION_X, 0f),
+                    PropertyValuesHolder.ofFloat(View.TRANSLATION_Y, 0f));
+            translation.setDuration(ANIM_DURATION);
+            lift = ObjectAnimator.ofPropertyValuesHolder(v,
+                    PropertyValuesHolder.ofFloat(View.ALPHA, 1f),
+                    PropertyValuesHolder.ofFloat(View.SCALE_X, 1f),
+                    PropertyValuesHolder.ofFloat(View.SCALE_Y, 1f),
+                    PropertyValuesHolder.ofFloat(View.TRANSLATION_Z, 0f));
+            lift.setDuration(ANIM_DURATION);
+        }
+    }
 
     /**
      * Use three or four columns.
      */
     private int columnCount() {
+        return mColumnCount;
+    }
+
+    private void updateColumnCount() {
         boolean shouldUseFourColumns = Settings.Secure.getInt(
             mContext.getContentResolver(), Settings.Secure.QS_USE_FOUR_COLUMNS,
                 0) == 1;
-        if (shouldUseFourColumns) {
-            COL_COUNT = 4;
-        } else {
-            COL_COUNT = 3;
-        }
-        return COL_COUNT;
+        mColumnCount = shouldUseFourColumns ? 4 : 3;
     }
 
     protected Runnable mUpdateTask = new Runnable() {
@@ -99,6 +137,10 @@ public class DraggableGridView extends ViewGroup implements
         setListeners();
         setChildrenDrawingOrderEnabled(true);
         mDefaultColor = mContext.getResources().getColor(R.color.qs_tile_default_background_color);
+        mMaxChildSize = getResources().getDimensionPixelSize(R.dimen.qs_tile_max_size);
+        mMaxPadding = getResources().getDimensionPixelSize(R.dimen.qs_tile_max_padding);
+        mDraggedZ = getResources().getDimension(R.dimen.qs_tile_dragged_z);
+        updateColumnCount();
     }
 
     public void setUseLargeFirstRow(boolean largeFirstRow) {
@@ -131,7 +173,7 @@ public class DraggableGridView extends ViewGroup implements
     @Override
     public void addView(View child, int index) {
         super.addView(child, index);
-        mNewPositions.add(-1);
+        mNewPositions.add(index < 0 ? mNewPositions.size() : index, -1);
     }
 
     @Override
@@ -149,30 +191,52 @@ public class DraggableGridView extends ViewGroup implements
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         int width = r - l;
-        mPadding = Math.min((width - (mChildSize * columnCount())) / (columnCount() + 1),
-                getResources().getDimensionPixelSize(R.dimen.qs_tile_max_padding));
-        mLeftOffset = (width - mChildSize * columnCount() - mPadding * (columnCount() - 1)) / 2;
+        int count = getChildCount();
+        updateCoordinateTable(width, count);
 
-        for (int i = 0; i < getChildCount(); i++) {
+        for (int i = 0; i < count; i++) {
             if (i != mDragged) {
-                Point xy = getCoordinateFromIndex(i);
-                int left = xy.x;
-                // If using main tiles and index == 0 or 1, we need to offset the tiles
-                if (mUseLargerFirstRow && i < (columnCount() - 1)) {
-                    left += mChildSize / 2;
-                }
-                getChildAt(i).layout(left, xy.y, left + mChildSize, xy.y + mChildSize);
+                int left = mTileLeft[i];
+                int top = mTileTop[i] - mScroll;
+                getChildAt(i).layout(left, top, left + mChildSize, top + mChildSize);
             }
         }
     }
 
+    private void updateCoordinateTable(int width, int count) {
+        boolean geometryChanged = width != mTableWidth || mChildSize != mTableChildSize
+                || columnCount() != mTableColumns || mUseLargerFirstRow != mTableLargerFirstRow;
+        // One more slot for a drop to the right of the last child
+        if (!geometryChanged && mTileLeft.length > count) {
+            return;
+        }
+        if (geometryChanged) {
+            mPadding = Math.min((width - (mChildSize * columnCount())) / (columnCount() + 1),
+                    mMaxPadding);
+            mLeftOffset = (width - mChildSize * columnCount()
+                    - mPadding * (columnCount() - 1)) / 2;
+            mTableWidth = width;
+            mTableChildSize = mChildSize;
+            mTableColumns = columnCount();
+            mTableLargerFirstRow = mUseLargerFirstRow;
+        }
+        if (mTileLeft.length <= count) {
+            mTileLeft = new int[count + columnCount()];
+            mTileTop = new int[mTileLeft.length];
+        }
+        for (int i = 0; i < mTileLeft.length; i++) {
+            computeCoordinate(i);
+        }
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
 
+        updateColumnCount();
         int availableWidth = getMeasuredWidth() - getPaddingLeft() - getPaddingRight();
         mChildSize = Math.min(Math.round((float) availableWidth * CHILD_RATIO / columnCount()),
-                getResources().getDimensionPixelSize(R.dimen.qs_tile_max_size));
+                mMaxChildSize);
 
         // Update each of the children's widths accordingly to the cell width
         int N = getChildCount();
@@ -285,7 +349,17 @@ public class DraggableGridView extends ViewGroup implements
         return target;
     }
 
-    protected Point getCoordinateFromIndex(int index) {
+    /**
+     * Stores the layout position of the child at index, scrolled, into outPoint.
+     */
+    protected void getCoordinateFromIndex(int index, Point outPoint) {
+        if (index >= mTileLeft.length) {
+            updateCoordinateTable(getWidth(), index);
+        }
+        outPoint.set(mTileLeft[index], mTileTop[index] - mScroll);
+    }
+
+    private void computeCoordinate(int index) {
         int col = index % columnCount();
         int row = index / columnCount();
 
@@ -306,8 +380,13 @@ public class DraggableGridView extends ViewGroup implements
             row++;
         }
 
-        return new Point(mLeftOffset + (mPadding / 2) * (col + 1) + mChildSize * col,
-                (mPadding / 2) * (row + 1) + mChildSize * row - mScroll);
+        int left = mLeftOffset + (mPadding / 2) * (col + 1) + mChildSize * col;
+        // If using main tiles and on the first row, we need to offset the tiles
+        if (mUseLargerFirstRow && index < (columnCount() - 1)) {
+            left += mChildSize / 2;
+        }
+        mTileLeft[index] = left;
+        mTileTop[index] = (mPadding / 2) * (row + 1) + mChildSize * row;
     }
 
     public int getIndexOf(View child) {
@@ -349,7 +428,14 @@ public class DraggableGridView extends ViewGroup implements
         }
 
         mDragged = index;
-        startAnimation(animateDragging(true));
+        mMoveEvents = 0;
+        if (DEBUG) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        }
+        View v = getChildAt(index);
+        getAnimators(v).translation.cancel();
+        animateDragging(v, true);
         return true;
     }
 
@@ -366,6 +452,7 @@ public class DraggableGridView extends ViewGroup implements
             case MotionEvent.ACTION_MOVE:
                 int delta = mLastY - (int) event.getY();
                 if (mDragged != -1) {
+                    mMoveEvents++;
                     // change draw location of dragged visual
                     ColoringCardView draggedView = (ColoringCardView) getChildAt(mDragged);
                     int x = (int) event.getX(), y = (int) event.getY();
@@ -400,29 +487,32 @@ public class DraggableGridView extends ViewGroup implements
             case MotionEvent.ACTION_UP:
                 if (mDragged != -1) {
                     int dragged = mDragged;
-                    List<Animator> animators = animateDragging(false);
+                    View v = getChildAt(dragged);
+                    animateDragging(v, false);
 
                     mDragged = -1;
 
                     if (mLastTarget != -1 && !mIsDelete) {
-                        reorderChildren(dragged, animators);
+                        reorderChildren(dragged);
                     } else if (mIsDelete) {
                         mLastTarget = dragged;
                         removeViewAt(dragged);
-                        reorderChildren(dragged, animators);
+                        reorderChildren(dragged);
                     } else {
-                        View v = getChildAt(dragged);
-                        animators.add(ObjectAnimator.ofFloat(v, "translationX",
-                                    v.getTranslationX(), 0));
-                        animators.add(ObjectAnimator.ofFloat(v, "translationY",
-                                    v.getTranslationY(), 0));
+                        animateTranslation(v, v.getTranslationX(), 0, v.getTranslationY(), 0);
                     }
 
                     if (mOnRearrangeListener != null) {
                         mOnRearrangeListener.onEndDrag();
                     }
-                    startAnimation(animators);
                     mLastTarget = -1;
+                    if (DEBUG) {
+                        Debug.stopAllocCounting();
+                        Log.d(TAG, "Drag took " + mMoveEvents + " move events, "
+                                + Debug.getThreadAllocCount() / Math.max(mMoveEvents, 1)
+                                + " allocations per move, " + mAnimatorsCreated
+                                + " animators created so far");
+                    }
                 }
                 mTouching = false;
                 mIsDelete = false;
@@ -435,31 +525,37 @@ public class DraggableGridView extends ViewGroup implements
     }
 
     // EVENT HELPERS
-    protected List<Animator> animateDragging(boolean start) {
-        List<Animator> animators = new ArrayList<Animator>();
-        View v = getChildAt(mDragged);
+    private ChildAnimators getAnimators(View v) {
+        ChildAnimators animators = (ChildAnimators) v.getTag(R.id.qs_tile_animators);
+        if (animators == null) {
+            animators = new ChildAnimators(v);
+            v.setTag(R.id.qs_tile_animators, animators);
+            mAnimatorsCreated += 2;
+        }
+        return animators;
+    }
 
+    protected void animateDragging(View v, boolean start) {
         v.setPivotX(mChildSize / 2);
         v.setPivotY(mChildSize / 2);
 
-        animators.add(ObjectAnimator.ofFloat(v, "alpha", v.getAlpha(), start ? 0.7f : 1.0f));
-        animators.add(ObjectAnimator.ofFloat(v, "scaleX", v.getScaleX(), start ? 1.1f : 1.0f));
-        animators.add(ObjectAnimator.ofFloat(v, "scaleY", v.getScaleY(), start ? 1.1f : 1.0f));
-
-        float z = start ? getResources().getDimension(R.dimen.qs_tile_dragged_z) : 0f;
-        animators.add(ObjectAnimator.ofFloat(v, "translationZ", v.getTranslationZ(), z));
-
-        return animators;
+        ObjectAnimator lift = getAnimators(v).lift;
+        lift.cancel();
+        PropertyValuesHolder[] values = lift.getValues();
+        values[0].setFloatValues(v.getAlpha(), start ? 0.7f : 1.0f);
+        values[1].setFloatValues(v.getScaleX(), start ? 1.1f : 1.0f);
+        values[2].setFloatValues(v.getScaleY(), start ? 1.1f : 1.0f);
+        values[3].setFloatValues(v.getTranslationZ(), start ? mDraggedZ : 0f);
+        lift.start();
     }
 
-    protected void startAnimation(List<Animator> animators) {
-        if (animators.isEmpty()) {
-            return;
-        }
-        AnimatorSet animation = new AnimatorSet();
-        animation.playTogether(animators);
-        animation.setDuration(ANIM_DURATION);
-        animation.start();
+    protected void animateTranslation(View v, float fromX, float toX, float fromY, float toY) {
+        ObjectAnimator translation = getAnimators(v).translation;
+        translation.cancel();
+        PropertyValuesHolder[] values = translation.getValues();
+        values[0].setFloatValues(fromX, toX);
+        values[1].setFloatValues(fromY, toY);
+        translation.start();
     }
 
     protected void animateGap(int target) {
@@ -485,83 +581,72 @@ public class DraggableGridView extends ViewGroup implements
                 continue;
             }
 
-            Point oldXY = getCoordinateFromIndex(oldPos);
-            Point newXY = getCoordinateFromIndex(newPos);
-
-            int offsetOld = 0;
-            if (mUseLargerFirstRow && oldPos < 2) {
-                offsetOld = mChildSize / 2;
-            }
-            Point oldOffset = new Point(oldXY.x + offsetOld - v.getLeft(),
-                    oldXY.y - v.getTop());
-
-            int offsetNew = 0;
-            if (mUseLargerFirstRow && newPos < 2) {
-                offsetNew = mChildSize / 2;
-            }
-            Point newOffset = new Point(newXY.x + offsetNew - v.getLeft(),
-                    newXY.y - v.getTop());
-
-            Animator x = ObjectAnimator.ofFloat(v, "translationX", oldOffset.x, newOffset.x);
-            Animator y = ObjectAnimator.ofFloat(v, "translationY", oldOffset.y, newOffset.y);
-            startAnimation(Arrays.asList(x, y));
+            // Retarget from wherever the child currently is
+            getCoordinateFromIndex(newPos, mTmpPoint);
+            animateTranslation(v, v.getTranslationX(), mTmpPoint.x - v.getLeft(),
+                    v.getTranslationY(), mTmpPoint.y - v.getTop());
 
             mNewPositions.set(i, newPos);
         }
     }
 
-    private static class ChildReorderInfo {
-        View view;
-        float lastX;
-        float lastY;
-    }
-
-    protected void reorderChildren(int dragged, List<Animator> animators) {
-        final ArrayList<ChildReorderInfo> children = new ArrayList<ChildReorderInfo>();
+    protected void reorderChildren(int dragged) {
+        final int count = getChildCount();
+        if (mReorderViews.length < count) {
+            mReorderViews = new View[count + columnCount()];
+            mReorderX = new float[mReorderViews.length];
+            mReorderY = new float[mReorderViews.length];
+        }
 
-        for (int i = 0; i < getChildCount(); i++) {
+        for (int i = 0; i < count; i++) {
             View v = getChildAt(i);
-            ChildReorderInfo info = new ChildReorderInfo();
-            info.view = getChildAt(i);
-            info.lastX = info.view.getX();
-            info.lastY = info.view.getY();
-            info.view.setTranslationX(0);
-            info.view.setTranslationY(0);
-            children.add(info);
-        }
-
-        removeAllViews();
-        while (dragged != mLastTarget) {
-            if (mLastTarget == children.size()) {
-                // dragged and dropped to the right of the last element
-                children.add(children.remove(dragged));
-                dragged = mLastTarget;
-            } else if (dragged < mLastTarget) {
-                // shift to the right
-                Collections.swap(children, dragged, dragged + 1);
-                dragged++;
-            } else if (dragged > mLastTarget) {
-                // shift to the left
-                Collections.swap(children, dragged, dragged - 1);
-                dragged--;
+            mReorderViews[i] = v;
+            mReorderX[i] = v.getX();
+            mReorderY[i] = v.getY();
+            getAnimators(v).translation.cancel();
+            v.setTranslationX(0);
+            v.setTranslationY(0);
+        }
+
+        // dragging to the right of the last element moves it to the end
+        int target = Math.min(mLastTarget, count - 1);
+        if (dragged != target) {
+            View view = mReorderViews[dragged];
+            float x = mReorderX[dragged], y = mReorderY[dragged];
+            int from = Math.min(dragged, target), to = Math.max(dragged, target);
+            if (dragged < target) {
+                // shift the others to the left
+                System.arraycopy(mReorderViews, from + 1, mReorderViews, from, to - from);
+                System.arraycopy(mReorderX, from + 1, mReorderX, from, to - from);
+                System.arraycopy(mReorderY, from + 1, mReorderY, from, to - from);
+            } else {
+                // shift the others to the right
+                System.arraycopy(mReorderViews, from, mReorderViews, from + 1, to - from);
+                System.arraycopy(mReorderX, from, mReorderX, from + 1, to - from);
+                System.arraycopy(mReorderY, from, mReorderY, from + 1, to - from);
             }
+            mReorderViews[target] = view;
+            mReorderX[target] = x;
+            mReorderY[target] = y;
         }
-        for (int i = 0; i < children.size(); i++) {
+
+        // Reorder in place rather than removing and adding all children back
+        detachAllViewsFromParent();
+        for (int i = 0; i < count; i++) {
             mNewPositions.set(i, -1);
-            addView(children.get(i).view);
+            attachViewToParent(mReorderViews[i], i, mReorderViews[i].getLayoutParams());
         }
         onLayout(true, getLeft(), getTop(), getRight(), getBottom());
-
-        for (int i = 0; i < children.size(); i++) {
-            ChildReorderInfo info = children.get(i);
-            if (info.view.getLeft() != info.lastX) {
-                animators.add(ObjectAnimator.ofFloat(info.view,
-                            "translationX", info.lastX - info.view.getLeft(), 0));
-            }
-            if (info.view.getTop() != info.lastY) {
-                animators.add(ObjectAnimator.ofFloat(info.view,
-                            "translationY", info.lastY - info.view.getTop(), 0));
+        invalidate();
+
+        for (int i = 0; i < count; i++) {
+            View v = mReorderViews[i];
+            float dx = mReorderX[i] - v.getLeft();
+            float dy = mReorderY[i] - v.getTop();
+            if (dx != 0 || dy != 0) {
+                animateTranslation(v, dx, 0, dy, 0);
             }
+            mReorderViews[i] = null;
         }
     }
 
@@ -609,6 +694,16 @@ public class DraggableGridView extends ViewGroup implements
         return rowCount * mChildSize + (rowCount + 1) * mPadding - getHeight();
     }
 
+    /** Number of move events handled during the last drag. */
+    public int getDragMoveCount() {
+        return mMoveEvents;
+    }
+
+    /** Number of animators created since this view was inflated. */
+    public int getAnimatorCount() {
+        return mAnimatorsCreated;
+    }
+
     public int getLastIndex() {
         return getIndexFromCoordinate(mLastX, mLastY);
     }
@@ -47,6 +47,7 @@ import android.telephony.TelephonyManager;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
@@ -59,6 +60,7 @@ import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.PhoneStateIntentReceiver;
 import com.android.internal.telephony.SubscriptionController;
 import com.android.internal.util.ArrayUtils;
+import com.android.settings.LiveTicker;
 import com.android.settings.R;
 import com.android.settings.Utils;
 
@@ -145,8 +147,6 @@ public class Status extends PreferenceActivity {
     private static final int EVENT_SIGNAL_STRENGTH_CHANGED = 200;
     private static final int EVENT_SERVICE_STATE_CHANGED = 300;
 
-    private static final int EVENT_UPDATE_STATS = 500;
-
     private static final int EVENT_UPDATE_CONNECTIVITY = 600;
 
     private ConnectivityManager mCM;
@@ -196,11 +196,6 @@ public class Status extends PreferenceActivity {
                     status.updateServiceState(serviceState);
                     break;
 
-                case EVENT_UPDATE_STATS:
-                    status.updateTimes();
-                    sendEmptyMessageDelayed(EVENT_UPDATE_STATS, 1000);
-                    break;
-
                 case EVENT_UPDATE_CONNECTIVITY:
                     status.updateConnectivity();
                     break;
@@ -486,7 +481,7 @@ public class Status extends PreferenceActivity {
         registerReceiver(mConnectivityReceiver, mConnectivityIntentFilter,
                          android.Manifest.permission.CHANGE_NETWORK_STATE, null);
         registerReceiver(mBatteryInfoReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        mHandler.sendEmptyMessage(EVENT_UPDATE_STATS);
+        LiveTicker.getInstance(this).subscribe(mUptimeSubscription);
     }
 
     @Override
@@ -502,7 +497,7 @@ public class Status extends PreferenceActivity {
         }
         unregisterReceiver(mBatteryInfoReceiver);
         unregisterReceiver(mConnectivityReceiver);
-        mHandler.removeMessages(EVENT_UPDATE_STATS);
+        LiveTicker.getInstance(this).unsubscribe(mUptimeSubscription);
     }
 
     /**
@@ -683,18 +678,26 @@ public class Status extends PreferenceActivity {
         setIpAddressStatus();
     }
 
-    void updateTimes() {
-        long at = SystemClock.uptimeMillis() / 1000;
-        long ut = SystemClock.elapsedRealtime() / 1000;
+    private final LiveTicker.Subscription<String> mUptimeSubscription =
+            new LiveTicker.Subscription<String>(DateUtils.SECOND_IN_MILLIS) {
+        @Override
+        protected String sample() {
+            long ut = SystemClock.elapsedRealtime() / 1000;
+
+            if (ut == 0) {
+                ut = 1;
+            }
 
-        if (ut == 0) {
-            ut = 1;
+            return convert(ut);
         }
 
-        mUptime.setSummary(convert(ut));
-    }
+        @Override
+        protected void apply(String uptime) {
+            mUptime.setSummary(uptime);
+        }
+    };
 
-    private String pad(int n) {
+    private static String pad(int n) {
         if (n >= 10) {
             return String.valueOf(n);
         } else {
@@ -702,7 +705,7 @@ public class Status extends PreferenceActivity {
         }
     }
 
-    private String convert(long t) {
+    private static String convert(long t) {
         int s = (int)(t % 60);
         int m = (int)((t / 60) % 60);
         int h = (int)((t / 3600));
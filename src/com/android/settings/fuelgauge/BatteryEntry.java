@@ -28,16 +28,22 @@ import android.os.BatteryStats;
 import android.os.Handler;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.internal.os.BatterySipper;
 import com.android.settings.R;
 import com.android.settings.Utils;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Wraps the power usage data of a BatterySipper with information about package name
@@ -47,71 +53,121 @@ public class BatteryEntry {
     public static final int MSG_UPDATE_NAME_ICON = 1;
     public static final int MSG_REPORT_FULLY_DRAWN = 2;
 
-    static final HashMap<String,UidToDetail> sUidCache = new HashMap<String,UidToDetail>();
+    private static final boolean DEBUG = false;
 
-    static final ArrayList<BatteryEntry> mRequestQueue = new ArrayList<BatteryEntry>();
-    static Handler sHandler;
+    private static final int UID_CACHE_SIZE = 128;
 
-    static private class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
+    static final LruCache<Integer, UidToDetail> sUidCache
+            = new LruCache<Integer, UidToDetail>(UID_CACHE_SIZE);
 
-        public NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
-        }
+    // Single low priority worker.  Requests are executed in the order they were
+    // queued, which is the order of the rows in the list, so visible rows get
+    // their name and icon first.
+    private static final ThreadPoolExecutor sLoader = new ThreadPoolExecutor(1, 1,
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BatteryUsage Icon Loader");
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    static {
+        sLoader.allowCoreThreadTimeOut(true);
+    }
 
-        public void abort() {
-            mAbort = true;
+    // All of the following are guarded by sLock.
+    private static final Object sLock = new Object();
+    private static final ArrayList<BatteryEntry> sPendingRequests = new ArrayList<BatteryEntry>();
+    private static final ArrayList<BatteryEntry> sLoadedEntries = new ArrayList<BatteryEntry>();
+    private static int sGeneration;
+    private static int sOutstanding;
+    private static boolean sUpdatePosted;
+    private static long sQueueStartTime;
+    static Handler sHandler;
+
+    private static class NameAndIconTask implements Runnable {
+        private final BatteryEntry mEntry;
+        private final int mGeneration;
+
+        NameAndIconTask(BatteryEntry entry, int generation) {
+            mEntry = entry;
+            mGeneration = generation;
         }
 
         @Override
         public void run() {
-            while (true) {
-                BatteryEntry be;
-                synchronized (mRequestQueue) {
-                    if (mRequestQueue.isEmpty() || mAbort) {
-                        if (sHandler != null) {
-                            sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
-                        }
-                        mRequestQueue.clear();
-                        return;
-                    }
-                    be = mRequestQueue.remove(0);
+            synchronized (sLock) {
+                if (mGeneration != sGeneration) {
+                    return;
+                }
+            }
+            mEntry.loadNameAndIcon();
+            synchronized (sLock) {
+                if (mGeneration != sGeneration || sHandler == null) {
+                    return;
+                }
+                // Updates are batched: only one message is in flight at a time,
+                // anything loaded meanwhile is picked up by the same message.
+                sLoadedEntries.add(mEntry);
+                if (!sUpdatePosted) {
+                    sUpdatePosted = true;
+                    sHandler.sendEmptyMessage(MSG_UPDATE_NAME_ICON);
+                }
+                if (--sOutstanding == 0) {
+                    if (DEBUG) Log.d(PowerUsageSummary.TAG, "Fully labelled in "
+                            + (SystemClock.uptimeMillis() - sQueueStartTime) + "ms");
+                    sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
                 }
-                be.loadNameAndIcon();
             }
         }
     }
 
-    private static NameAndIconLoader mRequestThread;
-
     public static void startRequestQueue() {
-        if (sHandler != null) {
-            synchronized (mRequestQueue) {
-                if (!mRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
-                    }
-                    mRequestThread = new NameAndIconLoader();
-                    mRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    mRequestThread.start();
-                    mRequestQueue.notify();
-                }
+        synchronized (sLock) {
+            if (sHandler == null || sPendingRequests.isEmpty()) {
+                return;
+            }
+            // Anything still queued belongs to a previous list and is dropped.
+            final int generation = ++sGeneration;
+            sLoader.getQueue().clear();
+            sLoadedEntries.clear();
+            sOutstanding = sPendingRequests.size();
+            sQueueStartTime = SystemClock.uptimeMillis();
+            for (int i = 0; i < sPendingRequests.size(); i++) {
+                sLoader.execute(new NameAndIconTask(sPendingRequests.get(i), generation));
             }
+            sPendingRequests.clear();
         }
     }
 
     public static void stopRequestQueue() {
-        synchronized (mRequestQueue) {
-            if (mRequestThread != null) {
-                mRequestThread.abort();
-                mRequestThread = null;
-                sHandler = null;
-            }
+        synchronized (sLock) {
+            sGeneration++;
+            sLoader.getQueue().clear();
+            sPendingRequests.clear();
+            sLoadedEntries.clear();
+            sUpdatePosted = false;
+            sHandler = null;
+        }
+    }
+
+    /**
+     * Returns the entries whose name and icon finished loading since the last
+     * call, to be applied to the UI in one pass.
+     */
+    public static List<BatteryEntry> takeLoadedEntries() {
+        synchronized (sLock) {
+            final List<BatteryEntry> loaded = new ArrayList<BatteryEntry>(sLoadedEntries);
+            sLoadedEntries.clear();
+            sUpdatePosted = false;
+            return loaded;
         }
     }
 
     public static void clearUidCache() {
-        sUidCache.clear();
+        sUidCache.evictAll();
     }
 
     public final Context context;
@@ -122,14 +178,21 @@ public class BatteryEntry {
     public int iconId; // For passing to the detail screen.
     public String defaultPackageName;
 
+    // Set when the name and icon still have to be loaded by the request queue.
+    private volatile boolean mNameIconPending;
+
     static class UidToDetail {
         String name;
         String packageName;
         Drawable icon;
     }
 
-    public BatteryEntry(Context context, Handler handler, UserManager um, BatterySipper sipper) {
-        sHandler = handler;
+    /**
+     * Builds the entry with its quick name and icon.  Safe to call off the UI
+     * thread; the full name and icon are loaded once {@link #requestNameAndIcon}
+     * queues the entry.
+     */
+    public BatteryEntry(Context context, UserManager um, BatterySipper sipper) {
         this.context = context;
         this.sipper = sipper;
         switch (sipper.drainType) {
@@ -192,6 +255,19 @@ public class BatteryEntry {
         }
     }
 
+    /**
+     * Queues the entry for the next {@link #startRequestQueue} if its name and
+     * icon have not been loaded yet.  Results are posted to the given handler.
+     */
+    public void requestNameAndIcon(Handler handler) {
+        synchronized (sLock) {
+            sHandler = handler;
+            if (mNameIconPending) {
+                sPendingRequests.add(this);
+            }
+        }
+    }
+
     public Drawable getIcon() {
         return icon;
     }
@@ -205,9 +281,8 @@ public class BatteryEntry {
 
     void getQuickNameIconForUid(BatteryStats.Uid uidObj) {
         final int uid = uidObj.getUid();
-        final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
+        final UidToDetail utd = sUidCache.get(uid);
+        if (utd != null) {
             defaultPackageName = utd.packageName;
             name = utd.name;
             icon = utd.icon;
@@ -229,11 +304,7 @@ public class BatteryEntry {
         } else {
             //name = packages[0];
         }
-        if (sHandler != null) {
-            synchronized (mRequestQueue) {
-                mRequestQueue.add(this);
-            }
-        }
+        mNameIconPending = true;
     }
 
     /**
@@ -250,6 +321,7 @@ public class BatteryEntry {
         sipper.mPackages = pm.getPackagesForUid(uid);
         if (sipper.mPackages == null) {
             name = Integer.toString(uid);
+            mNameIconPending = false;
             return;
         }
 
@@ -328,14 +400,11 @@ public class BatteryEntry {
                 }
             }
         }
-        final String uidString = Integer.toString(sipper.uidObj.getUid());
         UidToDetail utd = new UidToDetail();
         utd.name = name;
         utd.icon = icon;
         utd.packageName = defaultPackageName;
-        sUidCache.put(uidString, utd);
-        if (sHandler != null) {
-            sHandler.sendMessage(sHandler.obtainMessage(MSG_UPDATE_NAME_ICON, this));
-        }
+        sUidCache.put(uid, utd);
+        mNameIconPending = false;
     }
 }
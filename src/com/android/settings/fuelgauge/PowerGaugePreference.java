@@ -47,8 +47,14 @@ public class PowerGaugePreference extends Preference {
     }
 
     public void setPercent(double percentOfMax, double percentOfTotal) {
-        mProgress = (int) Math.ceil(percentOfMax);
-        mProgressText = Utils.formatPercentage((int) (percentOfTotal + 0.5));
+        final int progress = (int) Math.ceil(percentOfMax);
+        final CharSequence progressText = Utils.formatPercentage((int) (percentOfTotal + 0.5));
+        if (progress == mProgress && progressText.equals(mProgressText)) {
+            // Nothing visible changed, avoid rebinding the row
+            return;
+        }
+        mProgress = progress;
+        mProgressText = progressText;
         notifyChanged();
     }
 
@@ -56,6 +62,10 @@ public class PowerGaugePreference extends Preference {
         return mInfo;
     }
 
+    void setInfo(BatteryEntry info) {
+        mInfo = info;
+    }
+
     @Override
     protected void onBindView(View view) {
         super.onBindView(view);
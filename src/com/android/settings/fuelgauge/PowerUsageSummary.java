@@ -28,6 +28,7 @@ import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.BatteryStats;
 import android.os.Build;
@@ -35,6 +36,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.preference.ListPreference;
@@ -44,6 +46,9 @@ import android.preference.PreferenceScreen;
 import android.preference.SwitchPreference;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -56,6 +61,8 @@ import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 import com.android.settings.SettingsPreferenceFragment;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -97,7 +104,17 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
     private static final int MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP = 10;
     private static final int SECONDS_IN_HOUR = 60 * 60;
 
-    private BatteryStatsHelper mStatsHelper;
+    // Refreshes requested within this window reuse the last computed snapshot.
+    private static final long SNAPSHOT_REUSE_WINDOW = 2 * DateUtils.SECOND_IN_MILLIS;
+
+    private StatsSnapshot mSnapshot;
+    // The snapshot shown in the list, its helper backs the detail pages
+    private StatsSnapshot mBoundSnapshot;
+    // Bumped by invalidateSnapshot(), results of older refreshes are dropped
+    private int mSnapshotGeneration;
+    private RefreshStatsTask mRefreshTask;
+    private boolean mRefreshPending;
+    private Preference mNotAvailablePref;
 
     private PowerManager mPowerManager;
     private ListPreference mPerfProfilePref;
@@ -137,13 +154,11 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
         super.onAttach(activity);
         mUm = (UserManager) activity.getSystemService(Context.USER_SERVICE);
         mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        mStatsHelper = new BatteryStatsHelper(activity, true);
     }
 
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
-        mStatsHelper.create(icicle);
 
         mPerfProfileEntries = getResources().getStringArray(
                 com.android.internal.R.array.perf_profile_entries);
@@ -173,12 +188,6 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
         mPerformanceProfileObserver = new PerformanceProfileObserver(new Handler());
     }
 
-    @Override
-    public void onStart() {
-        super.onStart();
-        mStatsHelper.clearStats();
-    }
-
     @Override
     public void onResume() {
         super.onResume();
@@ -187,7 +196,7 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
                 new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
         if (mHandler.hasMessages(MSG_REFRESH_STATS)) {
             mHandler.removeMessages(MSG_REFRESH_STATS);
-            mStatsHelper.clearStats();
+            invalidateSnapshot();
         }
         refreshStats();
 
@@ -224,8 +233,11 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (mRefreshTask != null) {
+            mRefreshTask.cancel(false);
+            mRefreshTask = null;
+        }
         if (getActivity().isChangingConfigurations()) {
-            mStatsHelper.storeState();
             BatteryEntry.clearUidCache();
         }
     }
@@ -233,11 +245,11 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
     @Override
     public boolean onPreferenceTreeClick(PreferenceScreen preferenceScreen, Preference preference) {
         if (preference instanceof BatteryHistoryPreference) {
-            mStatsHelper.storeStatsHistoryInFile(BATTERY_HISTORY_FILE);
+            mBoundSnapshot.helper.storeStatsHistoryInFile(BATTERY_HISTORY_FILE);
             Bundle args = new Bundle();
-            args.putString(BatteryHistoryDetail.EXTRA_STATS, BATTERY_HISTORY_FILE);
             args.putParcelable(BatteryHistoryDetail.EXTRA_BROADCAST,
-                    mStatsHelper.getBatteryBroadcast());
+                    mBoundSnapshot.batteryBroadcast);
+            args.putString(BatteryHistoryDetail.EXTRA_STATS, BATTERY_HISTORY_FILE);
             SettingsActivity sa = (SettingsActivity) getActivity();
             sa.startPreferencePanel(BatteryHistoryDetail.class.getName(), args,
                     R.string.history_details_title, null, null, 0);
@@ -248,8 +260,8 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
         }
         PowerGaugePreference pgp = (PowerGaugePreference) preference;
         BatteryEntry entry = pgp.getInfo();
-        PowerUsageDetail.startBatteryDetailPage((SettingsActivity) getActivity(), mStatsHelper,
-                mStatsType, entry, true);
+        PowerUsageDetail.startBatteryDetailPage((SettingsActivity) getActivity(),
+                mBoundSnapshot.helper, mBoundSnapshot.statsType, entry, true);
         return super.onPreferenceTreeClick(preferenceScreen, preference);
     }
 
@@ -298,10 +310,11 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
                 } else {
                     mStatsType = BatteryStats.STATS_SINCE_CHARGED;
                 }
+                invalidateSnapshot();
                 refreshStats();
                 return true;
             case MENU_STATS_REFRESH:
-                mStatsHelper.clearStats();
+                invalidateSnapshot();
                 refreshStats();
                 mHandler.removeMessages(MSG_REFRESH_STATS);
                 return true;
@@ -365,6 +378,7 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
         notAvailable.setTitle(R.string.power_usage_not_available);
         mHistPref.setHideLabels(true);
         mAppListGroup.addPreference(notAvailable);
+        mNotAvailablePref = notAvailable;
     }
 
     private boolean updateBatteryStatus(Intent intent) {
@@ -413,26 +427,146 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
         updatePerformanceSummary();
     }
 
+    /**
+     * One row of the usage list, as computed by {@link #loadSnapshot}.  The
+     * entry is built with the row so binding never touches the package manager.
+     */
+    private static final class StatsRow {
+        final String key;
+        final BatterySipper sipper;
+        final BatteryEntry entry;
+        final double percentOfMax;
+        final double percentOfTotal;
+
+        StatsRow(String key, BatteryEntry entry, double percentOfMax, double percentOfTotal) {
+            this.key = key;
+            this.sipper = entry.sipper;
+            this.entry = entry;
+            this.percentOfMax = percentOfMax;
+            this.percentOfTotal = percentOfTotal;
+        }
+    }
+
+    /**
+     * Immutable result of a stats refresh.  Computed off the UI thread and
+     * reused by refreshes requested within {@link #SNAPSHOT_REUSE_WINDOW}.
+     * Each refresh loads into its own {@link BatteryStatsHelper}, which is
+     * only used on the UI thread once the snapshot is published.
+     */
+    private static final class StatsSnapshot {
+        final long timestamp;
+        final int statsType;
+        final BatteryStatsHelper helper;
+        final BatteryStats stats;
+        final Intent batteryBroadcast;
+        final List<StatsRow> rows;
+
+        StatsSnapshot(int statsType, BatteryStatsHelper helper, List<StatsRow> rows) {
+            this.timestamp = SystemClock.elapsedRealtime();
+            this.statsType = statsType;
+            this.helper = helper;
+            this.stats = helper.getStats();
+            this.batteryBroadcast = helper.getBatteryBroadcast();
+            this.rows = Collections.unmodifiableList(rows);
+        }
+    }
+
+    private class RefreshStatsTask extends AsyncTask<Void, Void, StatsSnapshot> {
+        private final Context mContext;
+        private final int mType;
+        private final int mGeneration;
+
+        RefreshStatsTask(Context context, int statsType, int generation) {
+            mContext = context;
+            mType = statsType;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected StatsSnapshot doInBackground(Void... params) {
+            final BatteryStatsHelper helper = new BatteryStatsHelper(mContext, true);
+            helper.create((Bundle) null);
+            return loadSnapshot(mContext, helper, mType);
+        }
+
+        @Override
+        protected void onPostExecute(StatsSnapshot snapshot) {
+            mRefreshTask = null;
+            if (getActivity() == null) {
+                return;
+            }
+            final boolean stale = mGeneration != mSnapshotGeneration || mType != mStatsType;
+            if (!stale) {
+                mSnapshot = snapshot;
+            }
+            if (!isResumed()) {
+                // onResume() binds the snapshot or refreshes again
+                mRefreshPending = false;
+                return;
+            }
+            if (!stale) {
+                bindSnapshot(snapshot);
+            }
+            if (mRefreshPending || stale) {
+                mRefreshPending = false;
+                refreshStats();
+            }
+        }
+    }
+
+    private static String getRowKey(BatterySipper sipper) {
+        if (sipper.uidObj != null) {
+            // Also used to find the row once its name and icon are loaded
+            return Integer.toString(sipper.uidObj.getUid());
+        }
+        if (sipper.drainType == BatterySipper.DrainType.USER) {
+            return sipper.drainType.name() + ":" + sipper.userId;
+        }
+        return sipper.drainType.name();
+    }
+
+    /**
+     * Schedules a stats refresh.  The computation runs in the background; a
+     * snapshot younger than {@link #SNAPSHOT_REUSE_WINDOW} is reused as is.
+     */
     private void refreshStats() {
-        mAppListGroup.removeAll();
-        mAppListGroup.setOrderingAsAdded(false);
-        mHistPref = new BatteryHistoryPreference(getActivity(), mStatsHelper.getStats(),
-                mStatsHelper.getBatteryBroadcast());
-        mHistPref.setOrder(-1);
-        mAppListGroup.addPreference(mHistPref);
-        boolean addedSome = false;
-
-        final PowerProfile powerProfile = mStatsHelper.getPowerProfile();
-        final BatteryStats stats = mStatsHelper.getStats();
-        final double averagePower = powerProfile.getAveragePower(PowerProfile.POWER_SCREEN_FULL);
+        if (mSnapshot != null && mSnapshot.statsType == mStatsType
+                && SystemClock.elapsedRealtime() - mSnapshot.timestamp < SNAPSHOT_REUSE_WINDOW) {
+            if (DEBUG) Log.d(TAG, "Reusing stats snapshot");
+            bindSnapshot(mSnapshot);
+            return;
+        }
+        if (mRefreshTask != null) {
+            // Picked up again once the running refresh completes
+            mRefreshPending = true;
+            return;
+        }
+        mRefreshTask = new RefreshStatsTask(getActivity().getApplicationContext(), mStatsType,
+                mSnapshotGeneration);
+        mRefreshTask.execute();
+    }
+
+    private void invalidateSnapshot() {
+        mSnapshot = null;
+        mSnapshotGeneration++;
+    }
+
+    private StatsSnapshot loadSnapshot(Context context, BatteryStatsHelper helper,
+            int statsType) {
+        final long start = DEBUG ? SystemClock.uptimeMillis() : 0;
+        final List<StatsRow> rows = new ArrayList<StatsRow>();
+        final PowerProfile powerProfile = helper.getPowerProfile();
+        final BatteryStats stats = helper.getStats();
+        final double averagePower =
+                powerProfile.getAveragePower(PowerProfile.POWER_SCREEN_FULL);
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP) {
             final List<UserHandle> profiles = mUm.getUserProfiles();
 
-            mStatsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED, profiles);
+            helper.refreshStats(BatteryStats.STATS_SINCE_CHARGED, profiles);
 
-            final List<BatterySipper> usageList = mStatsHelper.getUsageList();
+            final List<BatterySipper> usageList = helper.getUsageList();
 
-            final int dischargeAmount = stats != null ? stats.getDischargeAmount(mStatsType) : 0;
+            final int dischargeAmount = stats != null ? stats.getDischargeAmount(statsType) : 0;
             final int numSippers = usageList.size();
             for (int i = 0; i < numSippers; i++) {
                 final BatterySipper sipper = usageList.get(i);
@@ -440,14 +574,14 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
                     continue;
                 }
                 final double percentOfTotal =
-                        ((sipper.value / mStatsHelper.getTotalPower()) * dischargeAmount);
+                        ((sipper.value / helper.getTotalPower()) * dischargeAmount);
                 if (((int) (percentOfTotal + .5)) < 1) {
                     continue;
                 }
                 if (sipper.drainType == BatterySipper.DrainType.OVERCOUNTED) {
                     // Don't show over-counted unless it is at least 2/3 the size of
                     // the largest real entry, and its percent of total is more significant
-                    if (sipper.value < ((mStatsHelper.getMaxRealPower()*2)/3)) {
+                    if (sipper.value < ((helper.getMaxRealPower()*2)/3)) {
                         continue;
                     }
                     if (percentOfTotal < 10) {
@@ -460,7 +594,7 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
                 if (sipper.drainType == BatterySipper.DrainType.UNACCOUNTED) {
                     // Don't show over-counted unless it is at least 1/2 the size of
                     // the largest real entry, and its percent of total is more significant
-                    if (sipper.value < (mStatsHelper.getMaxRealPower()/2)) {
+                    if (sipper.value < (helper.getMaxRealPower()/2)) {
                         continue;
                     }
                     if (percentOfTotal < 5) {
@@ -470,31 +604,84 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
                         continue;
                     }
                 }
-                final UserHandle userHandle = new UserHandle(UserHandle.getUserId(sipper.getUid()));
-                final BatteryEntry entry = new BatteryEntry(getActivity(), mHandler, mUm, sipper);
-                final Drawable badgedIcon = mUm.getBadgedIconForUser(entry.getIcon(),
-                        userHandle);
-                final CharSequence contentDescription = mUm.getBadgedLabelForUser(entry.getLabel(),
-                        userHandle);
-                final PowerGaugePreference pref = new PowerGaugePreference(getActivity(),
-                        badgedIcon, contentDescription, entry);
-
-                final double percentOfMax = (sipper.value * 100) / mStatsHelper.getMaxPower();
+                final double percentOfMax = (sipper.value * 100) / helper.getMaxPower();
                 sipper.percent = percentOfTotal;
-                pref.setTitle(entry.getLabel());
-                pref.setOrder(i + 1);
-                pref.setPercent(percentOfMax, percentOfTotal);
-                if (sipper.uidObj != null) {
-                    pref.setKey(Integer.toString(sipper.uidObj.getUid()));
+                rows.add(new StatsRow(getRowKey(sipper),
+                        new BatteryEntry(context, mUm, sipper), percentOfMax,
+                        percentOfTotal));
+                if (rows.size() > MAX_ITEMS_TO_LIST) {
+                    break;
                 }
-                addedSome = true;
+            }
+        }
+        final StatsSnapshot snapshot = new StatsSnapshot(statsType, helper, rows);
+        if (DEBUG) Log.d(TAG, "Computed stats snapshot in "
+                + (SystemClock.uptimeMillis() - start) + "ms");
+        return snapshot;
+    }
+
+    /**
+     * Binds a snapshot to the list, touching only the rows that were added,
+     * removed or whose values changed since the last bind.
+     */
+    private void bindSnapshot(StatsSnapshot snapshot) {
+        mAppListGroup.setOrderingAsAdded(false);
+        mBoundSnapshot = snapshot;
+        if (mHistPref == null || mHistPref.getStats() != snapshot.stats) {
+            if (mHistPref != null) {
+                mAppListGroup.removePreference(mHistPref);
+            }
+            mHistPref = new BatteryHistoryPreference(getActivity(), snapshot.stats,
+                    snapshot.batteryBroadcast);
+            mHistPref.setOrder(-1);
+            mAppListGroup.addPreference(mHistPref);
+        }
+        if (mNotAvailablePref != null) {
+            mAppListGroup.removePreference(mNotAvailablePref);
+            mNotAvailablePref = null;
+            mHistPref.setHideLabels(false);
+        }
+
+        final ArrayMap<String, PowerGaugePreference> oldRows =
+                new ArrayMap<String, PowerGaugePreference>();
+        for (int i = 0; i < mAppListGroup.getPreferenceCount(); i++) {
+            final Preference pref = mAppListGroup.getPreference(i);
+            if (pref instanceof PowerGaugePreference) {
+                oldRows.put(pref.getKey(), (PowerGaugePreference) pref);
+            }
+        }
+
+        final int numRows = snapshot.rows.size();
+        for (int i = 0; i < numRows; i++) {
+            final StatsRow row = snapshot.rows.get(i);
+            final BatterySipper sipper = row.sipper;
+            final UserHandle userHandle = new UserHandle(UserHandle.getUserId(sipper.getUid()));
+            final BatteryEntry entry = row.entry;
+            PowerGaugePreference pref = oldRows.remove(row.key);
+            if (pref == null) {
+                final Drawable badgedIcon = mUm.getBadgedIconForUser(entry.getIcon(),
+                        userHandle);
+                final CharSequence contentDescription = mUm.getBadgedLabelForUser(
+                        entry.getLabel(), userHandle);
+                pref = new PowerGaugePreference(getActivity(), badgedIcon, contentDescription,
+                        entry);
+                pref.setKey(row.key);
                 mAppListGroup.addPreference(pref);
-                if (mAppListGroup.getPreferenceCount() > (MAX_ITEMS_TO_LIST + 1)) {
-                    break;
+            } else {
+                if (pref.getInfo().getIcon() != entry.getIcon()) {
+                    pref.setIcon(mUm.getBadgedIconForUser(entry.getIcon(), userHandle));
                 }
+                pref.setInfo(entry);
             }
+            pref.setTitle(entry.getLabel());
+            pref.setOrder(i + 1);
+            pref.setPercent(row.percentOfMax, row.percentOfTotal);
+            entry.requestNameAndIcon(mHandler);
+        }
+        for (int i = 0; i < oldRows.size(); i++) {
+            mAppListGroup.removePreference(oldRows.valueAt(i));
         }
-        if (!addedSome) {
+        if (numRows == 0) {
             addNotAvailableMessage();
         }
 
@@ -509,15 +696,16 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case BatteryEntry.MSG_UPDATE_NAME_ICON:
-                    BatteryEntry entry = (BatteryEntry) msg.obj;
-                    PowerGaugePreference pgp =
-                            (PowerGaugePreference) findPreference(
-                                    Integer.toString(entry.sipper.uidObj.getUid()));
-                    if (pgp != null) {
-                        final int userId = UserHandle.getUserId(entry.sipper.getUid());
-                        final UserHandle userHandle = new UserHandle(userId);
-                        pgp.setIcon(mUm.getBadgedIconForUser(entry.getIcon(), userHandle));
-                        pgp.setTitle(entry.name);
+                    for (BatteryEntry entry : BatteryEntry.takeLoadedEntries()) {
+                        PowerGaugePreference pgp =
+                                (PowerGaugePreference) findPreference(
+                                        Integer.toString(entry.sipper.uidObj.getUid()));
+                        if (pgp != null) {
+                            final int userId = UserHandle.getUserId(entry.sipper.getUid());
+                            final UserHandle userHandle = new UserHandle(userId);
+                            pgp.setIcon(mUm.getBadgedIconForUser(entry.getIcon(), userHandle));
+                            pgp.setTitle(entry.name);
+                        }
                     }
                     break;
                 case BatteryEntry.MSG_REPORT_FULLY_DRAWN:
@@ -527,7 +715,7 @@ public class PowerUsageSummary extends SettingsPreferenceFragment
                     }
                     break;
                 case MSG_REFRESH_STATS:
-                    mStatsHelper.clearStats();
+                    invalidateSnapshot();
                     refreshStats();
                     if (mBatterySaverPref != null) {
                         refreshBatterySaverOptions();
@@ -31,6 +31,7 @@ import android.hardware.CmHardwareManager;
 import android.hardware.input.InputDeviceIdentifier;
 import android.hardware.input.InputManager;
 import android.hardware.input.KeyboardLayout;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.preference.ListPreference;
@@ -44,6 +45,7 @@ import android.provider.Settings;
 import android.provider.Settings.System;
 import android.speech.tts.TtsEngines;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.InputDevice;
 import android.view.inputmethod.InputMethodInfo;
@@ -102,6 +104,17 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
     // false: on ICS or later
     private static final boolean SHOW_INPUT_METHOD_SWITCHER_SETTINGS = false;
 
+    // Input devices are often added or changed in bursts, e.g. when docking a keyboard
+    private static final long INPUT_DEVICES_UPDATE_DELAY = 200;
+
+    private static final Comparator<Preference> TITLE_ORDER = new Comparator<Preference>() {
+        @Override
+        public int compare(Preference lhs, Preference rhs) {
+            return String.CASE_INSENSITIVE_ORDER.compare(String.valueOf(lhs.getTitle()),
+                    String.valueOf(rhs.getTitle()));
+        }
+    };
+
     private static final String[] sSystemSettingNames = {
         System.TEXT_AUTO_REPLACE, System.TEXT_AUTO_CAPS, System.TEXT_AUTO_PUNCTUATE,
     };
@@ -121,17 +134,27 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
     private Preference mLanguagePref;
     private PreferenceScreen mStylusGestures;
     private final ArrayList<InputMethodPreference> mInputMethodPreferenceList = new ArrayList<>();
+    // Input device descriptor -> hard keyboard preference
+    private final ArrayMap<String, PreferenceScreen> mHardKeyboardPreferences = new ArrayMap<>();
     private final ArrayList<PreferenceScreen> mHardKeyboardPreferenceList = new ArrayList<>();
     private InputManager mIm;
     private InputMethodManager mImm;
     private boolean mShowsOnlyFullImeAndKeyboardList;
     private Handler mHandler;
+    private RefreshInputMethodsTask mRefreshInputMethodsTask;
     private SettingsObserver mSettingsObserver;
     private Intent mIntentWaitingForResult;
     private InputMethodSettingValuesWrapper mInputMethodSettingValues;
     private DevicePolicyManager mDpm;
     private CmHardwareManager mCmHardwareManager;
 
+    private final Runnable mUpdateInputDevices = new Runnable() {
+        @Override
+        public void run() {
+            updateInputDevices();
+        }
+    };
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -368,7 +391,7 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
         }
 
         // Hard keyboard
-        if (!mHardKeyboardPreferenceList.isEmpty()) {
+        if (!mHardKeyboardPreferences.isEmpty()) {
             for (int i = 0; i < sHardKeyboardKeys.length; ++i) {
                 SwitchPreference swPref = (SwitchPreference)
                         mHardKeyboardCategory.findPreference(sHardKeyboardKeys[i]);
@@ -381,8 +404,11 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
 
         // Refresh internal states in mInputMethodSettingValues to keep the latest
         // "InputMethodInfo"s and "InputMethodSubtype"s
-        mInputMethodSettingValues.refreshAllInputMethodAndSubtypes();
-        updateInputMethodPreferenceViews();
+        if (mRefreshInputMethodsTask != null) {
+            mRefreshInputMethodsTask.cancel(false);
+        }
+        mRefreshInputMethodsTask = new RefreshInputMethodsTask();
+        mRefreshInputMethodsTask.execute();
     }
 
     @Override
@@ -390,7 +416,12 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
         super.onPause();
 
         mIm.unregisterInputDeviceListener(this);
+        mHandler.removeCallbacks(mUpdateInputDevices);
         mSettingsObserver.pause();
+        if (mRefreshInputMethodsTask != null) {
+            mRefreshInputMethodsTask.cancel(false);
+            mRefreshInputMethodsTask = null;
+        }
 
         if (SHOW_INPUT_METHOD_SWITCHER_SETTINGS) {
             mShowInputMethodSelectorPref.setOnPreferenceChangeListener(null);
@@ -398,22 +429,27 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
         // TODO: Consolidate the logic to InputMethodSettingsWrapper
         InputMethodAndSubtypeUtil.saveInputMethodSubtypeList(
                 this, getContentResolver(), mInputMethodSettingValues.getInputMethodList(),
-                !mHardKeyboardPreferenceList.isEmpty());
+                !mHardKeyboardPreferences.isEmpty());
     }
 
     @Override
     public void onInputDeviceAdded(int deviceId) {
-        updateInputDevices();
+        scheduleUpdateInputDevices();
     }
 
     @Override
     public void onInputDeviceChanged(int deviceId) {
-        updateInputDevices();
+        scheduleUpdateInputDevices();
     }
 
     @Override
     public void onInputDeviceRemoved(int deviceId) {
-        updateInputDevices();
+        scheduleUpdateInputDevices();
+    }
+
+    private void scheduleUpdateInputDevices() {
+        mHandler.removeCallbacks(mUpdateInputDevices);
+        mHandler.postDelayed(mUpdateInputDevices, INPUT_DEVICES_UPDATE_DELAY);
     }
 
     @Override
@@ -446,7 +482,7 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
                         pref.isChecked() ? 1 : 0);
                 return true;
             }
-            if (!mHardKeyboardPreferenceList.isEmpty()) {
+            if (!mHardKeyboardPreferences.isEmpty()) {
                 for (int i = 0; i < sHardKeyboardKeys.length; ++i) {
                     if (pref == mHardKeyboardCategory.findPreference(sHardKeyboardKeys[i])) {
                         System.putInt(getContentResolver(), sSystemSettingNames[i],
@@ -502,18 +538,52 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
         return false;
     }
 
-    private void updateInputMethodPreferenceViews() {
+    /**
+     * Reads the input methods without blocking the UI thread, then applies them to
+     * mInputMethodSettingValues and the preferences.
+     */
+    private final class RefreshInputMethodsTask extends AsyncTask<Void, Void, Void> {
+        private List<InputMethodInfo> mInputMethods;
+        private List<InputMethodInfo> mEnabledInputMethods;
+        private List<String> mPermittedInputMethods;
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            mInputMethods = mImm.getInputMethodList();
+            if (!mShowsOnlyFullImeAndKeyboardList) {
+                mEnabledInputMethods = mImm.getEnabledInputMethodList();
+            }
+            mPermittedInputMethods = mDpm.getPermittedInputMethodsForCurrentUser();
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if (mRefreshInputMethodsTask != this || getActivity() == null) {
+                return;
+            }
+            mRefreshInputMethodsTask = null;
+            mInputMethodSettingValues.refreshAllInputMethodAndSubtypes(mInputMethods);
+            updateInputMethodPreferenceViews(mEnabledInputMethods, mPermittedInputMethods);
+        }
+    }
+
+    /**
+     * @param enabledImis the enabled input methods, only used when not showing all of them
+     * @param permittedList the input methods allowed by the device policy, or null
+     */
+    private void updateInputMethodPreferenceViews(List<InputMethodInfo> enabledImis,
+            List<String> permittedList) {
         synchronized (mInputMethodPreferenceList) {
             // Clear existing "InputMethodPreference"s
             for (final InputMethodPreference pref : mInputMethodPreferenceList) {
                 mKeyboardSettingsCategory.removePreference(pref);
             }
             mInputMethodPreferenceList.clear();
-            List<String> permittedList = mDpm.getPermittedInputMethodsForCurrentUser();
             final Context context = getActivity();
             final List<InputMethodInfo> imis = mShowsOnlyFullImeAndKeyboardList
                     ? mInputMethodSettingValues.getInputMethodList()
-                    : mImm.getEnabledInputMethodList();
+                    : enabledImis;
             final int N = (imis == null ? 0 : imis.size());
             for (int i = 0; i < N; ++i) {
                 final InputMethodInfo imi = imis.get(i);
@@ -632,62 +702,95 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
     }
 
     private void updateInputDevices() {
-        updateHardKeyboards();
-        updateGameControllers();
-    }
-
-    private void updateHardKeyboards() {
+        boolean haveVibrator = false;
         mHardKeyboardPreferenceList.clear();
         final int[] devices = InputDevice.getDeviceIds();
         for (int i = 0; i < devices.length; i++) {
             InputDevice device = InputDevice.getDevice(devices[i]);
-            if (device != null
-                    && !device.isVirtual()
-                    && device.isFullKeyboard()) {
-                final InputDeviceIdentifier identifier = device.getIdentifier();
-                final String keyboardLayoutDescriptor =
-                    mIm.getCurrentKeyboardLayoutForInputDevice(identifier);
-                final KeyboardLayout keyboardLayout = keyboardLayoutDescriptor != null ?
-                    mIm.getKeyboardLayout(keyboardLayoutDescriptor) : null;
-
-                final PreferenceScreen pref = new PreferenceScreen(getActivity(), null);
-                pref.setTitle(device.getName());
-                if (keyboardLayout != null) {
-                    pref.setSummary(keyboardLayout.toString());
-                } else {
-                    pref.setSummary(R.string.keyboard_layout_default_label);
-                }
-                pref.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                    @Override
-                    public boolean onPreferenceClick(Preference preference) {
-                        showKeyboardLayoutDialog(identifier);
-                        return true;
-                    }
-                });
-                mHardKeyboardPreferenceList.add(pref);
+            if (device == null || device.isVirtual()) {
+                continue;
+            }
+            if (device.getVibrator().hasVibrator()) {
+                haveVibrator = true;
+            }
+            if (device.isFullKeyboard()) {
+                mHardKeyboardPreferenceList.add(updateHardKeyboard(device));
             }
         }
+        updateHardKeyboards();
+        updateGameControllers(haveVibrator);
+    }
 
-        if (!mHardKeyboardPreferenceList.isEmpty()) {
-            for (int i = mHardKeyboardCategory.getPreferenceCount(); i-- > 0; ) {
-                final Preference pref = mHardKeyboardCategory.getPreference(i);
-                if (pref.getOrder() < 1000) {
-                    mHardKeyboardCategory.removePreference(pref);
+    /**
+     * Returns the preference of the keyboard, creating it if it isn't known yet.
+     */
+    private PreferenceScreen updateHardKeyboard(InputDevice device) {
+        final InputDeviceIdentifier identifier = device.getIdentifier();
+        final String keyboardLayoutDescriptor =
+            mIm.getCurrentKeyboardLayoutForInputDevice(identifier);
+        final KeyboardLayout keyboardLayout = keyboardLayoutDescriptor != null ?
+            mIm.getKeyboardLayout(keyboardLayoutDescriptor) : null;
+
+        PreferenceScreen pref = mHardKeyboardPreferences.get(device.getDescriptor());
+        if (pref == null) {
+            pref = new PreferenceScreen(getActivity(), null);
+            pref.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    showKeyboardLayoutDialog(identifier);
+                    return true;
                 }
+            });
+            mHardKeyboardPreferences.put(device.getDescriptor(), pref);
+        }
+        // Both only notify the change if the value differs
+        pref.setTitle(device.getName());
+        if (keyboardLayout != null) {
+            pref.setSummary(keyboardLayout.toString());
+        } else {
+            pref.setSummary(R.string.keyboard_layout_default_label);
+        }
+        return pref;
+    }
+
+    /**
+     * Syncs the hard keyboard category with mHardKeyboardPreferenceList, only adding,
+     * removing or reordering the preferences which changed.
+     */
+    private void updateHardKeyboards() {
+        for (int i = mHardKeyboardPreferences.size(); i-- > 0; ) {
+            final PreferenceScreen pref = mHardKeyboardPreferences.valueAt(i);
+            if (!mHardKeyboardPreferenceList.contains(pref)) {
+                mHardKeyboardCategory.removePreference(pref);
+                mHardKeyboardPreferences.removeAt(i);
             }
+        }
 
-            Collections.sort(mHardKeyboardPreferenceList);
+        if (!mHardKeyboardPreferenceList.isEmpty()) {
+            Collections.sort(mHardKeyboardPreferenceList, TITLE_ORDER);
             final int count = mHardKeyboardPreferenceList.size();
             for (int i = 0; i < count; i++) {
                 final Preference pref = mHardKeyboardPreferenceList.get(i);
                 pref.setOrder(i);
-                mHardKeyboardCategory.addPreference(pref);
+                if (!containsPreference(mHardKeyboardCategory, pref)) {
+                    mHardKeyboardCategory.addPreference(pref);
+                }
             }
 
             getPreferenceScreen().addPreference(mHardKeyboardCategory);
         } else {
             getPreferenceScreen().removePreference(mHardKeyboardCategory);
         }
+        mHardKeyboardPreferenceList.clear();
+    }
+
+    private static boolean containsPreference(PreferenceCategory category, Preference pref) {
+        for (int i = category.getPreferenceCount(); i-- > 0; ) {
+            if (category.getPreference(i) == pref) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void showKeyboardLayoutDialog(InputDeviceIdentifier inputDeviceIdentifier) {
@@ -719,8 +822,8 @@ public class InputMethodAndLanguageSettings extends SettingsPreferenceFragment
         }
     }
 
-    private void updateGameControllers() {
-        if (haveInputDeviceWithVibrator()) {
+    private void updateGameControllers(boolean haveVibrator) {
+        if (haveVibrator) {
             getPreferenceScreen().addPreference(mGameControllerCategory);
 
             SwitchPreference pref = (SwitchPreference)
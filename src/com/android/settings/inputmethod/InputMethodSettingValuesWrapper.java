@@ -79,10 +79,17 @@ class InputMethodSettingValuesWrapper {
     }
 
     void refreshAllInputMethodAndSubtypes() {
+        refreshAllInputMethodAndSubtypes(mImm.getInputMethodList());
+    }
+
+    /**
+     * Same as {@link #refreshAllInputMethodAndSubtypes()}, with an input method list
+     * which was already read from the InputMethodManager, e.g. on a background thread.
+     */
+    void refreshAllInputMethodAndSubtypes(List<InputMethodInfo> imms) {
         synchronized (mMethodMap) {
             mMethodList.clear();
             mMethodMap.clear();
-            final List<InputMethodInfo> imms = mImm.getInputMethodList();
             mMethodList.addAll(imms);
             for (InputMethodInfo imi : imms) {
                 mMethodMap.put(imi.getId(), imi);
@@ -234,7 +234,7 @@ public class LockScreenSettings extends SettingsPreferenceFragment
         if (securityCategory != null) {
             final boolean hasSecurity = mLockPatternUtils.isSecure();
             ArrayList<TrustAgentUtils.TrustAgentComponentInfo> agents =
-                    SecuritySettings.getActiveTrustAgents(getPackageManager(), mLockPatternUtils);
+                    SecuritySettings.getActiveTrustAgents(getActivity(), mLockPatternUtils);
             for (int i = 0; i < agents.size(); i++) {
                 final TrustAgentUtils.TrustAgentComponentInfo agent = agents.get(i);
                 Preference trustAgentPreference =
@@ -265,7 +265,7 @@ public class LockScreenSettings extends SettingsPreferenceFragment
     private String getActiveTrustAgentTitle() {
         final boolean hasSecurity = mLockPatternUtils.isSecure();
         ArrayList<TrustAgentUtils.TrustAgentComponentInfo> agents =
-                SecuritySettings.getActiveTrustAgents(getPackageManager(), mLockPatternUtils);
+                SecuritySettings.getActiveTrustAgents(getActivity(), mLockPatternUtils);
         for (int i = 0; i < agents.size(); i++) {
             final TrustAgentUtils.TrustAgentComponentInfo agent = agents.get(i);
             if (agent.title != null) {
@@ -565,8 +565,7 @@ public class LockScreenSettings extends SettingsPreferenceFragment
             final LockPatternUtils lockPatternUtils = new LockPatternUtils(context);
             if (lockPatternUtils.isSecure()) {
                 ArrayList<TrustAgentUtils.TrustAgentComponentInfo> agents =
-                        SecuritySettings.getActiveTrustAgents(context.getPackageManager(),
-                                lockPatternUtils);
+                        SecuritySettings.getActiveTrustAgents(context, lockPatternUtils);
                 for (int i = 0; i < agents.size(); i++) {
                     final TrustAgentUtils.TrustAgentComponentInfo agent = agents.get(i);
                     data = new SearchIndexableRaw(context);
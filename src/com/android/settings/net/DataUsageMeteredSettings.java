@@ -78,6 +78,12 @@ public class DataUsageMeteredSettings extends SettingsPreferenceFragment impleme
         updateNetworks(context);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPolicyEditor.flush();
+    }
+
     private void updateNetworks(Context context) {
         if (SHOW_MOBILE_CATEGORY && hasReadyMobileRadio(context)) {
             mMobileCategory.removeAll();
@@ -27,99 +27,241 @@ import android.net.NetworkPolicy;
 import android.net.NetworkPolicyManager;
 import android.net.NetworkTemplate;
 import android.net.wifi.WifiInfo;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.text.TextUtils;
 import android.text.format.Time;
+import android.util.Log;
 
 import com.google.android.collect.Lists;
+import com.google.android.collect.Maps;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Utility class to modify list of {@link NetworkPolicy}. Specifically knows
  * about which policies can coexist. This editor offers thread safety when
  * talking with {@link NetworkPolicyManager}.
+ * <p>
+ * Edits are written behind: {@link #writeAsync()} only schedules a commit on a
+ * single writer thread, so that edits made in quick succession, such as
+ * dragging the warning and limit sweeps, reach the service as one
+ * {@link NetworkPolicyManager#setNetworkPolicies} call. Call {@link #flush()}
+ * before leaving the screen to have pending edits written right away.
+ * <p>
+ * All editors of the process share one set of policies.  While edits are
+ * waiting to be written, {@link #read()} keeps that set instead of reading the
+ * service, which may not have the edits yet; the next commit writes them
+ * along with any edits made through the new editor.
  */
 public class NetworkPolicyEditor {
+    private static final String TAG = "NetworkPolicyEditor";
+    private static final boolean DEBUG = false;
+
     // TODO: be more robust when missing policies from service
 
     public static final boolean ENABLE_SPLIT_POLICIES = false;
 
+    private static final long COMMIT_DELAY = 500;
+
+    private static Handler sWriter;
+
+    // Guards the policies shared by all editors and the state below.
+    private static final Object sLock = new Object();
+    private static final ArrayList<NetworkPolicy> sPolicies = Lists.newArrayList();
+    private static final HashMap<NetworkTemplate, NetworkPolicy> sPolicyIndex = Maps.newHashMap();
+    // Whether sPolicies has edits which are not written yet, or being written
+    private static boolean sDirty;
+    private static boolean sWriting;
+    private static NetworkPolicyManager sPolicyManager;
+    private static int sCommits;
+
+    private static final Runnable sCommit = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    private static synchronized Handler getWriter() {
+        if (sWriter == null) {
+            final HandlerThread thread = new HandlerThread(TAG,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sWriter = new Handler(thread.getLooper());
+        }
+        return sWriter;
+    }
+
     private NetworkPolicyManager mPolicyManager;
-    private ArrayList<NetworkPolicy> mPolicies = Lists.newArrayList();
+
+    // The shared policies, guarded by sLock
+    private final ArrayList<NetworkPolicy> mPolicies = sPolicies;
+    private final HashMap<NetworkTemplate, NetworkPolicy> mPolicyIndex = sPolicyIndex;
+    // Guarded by sLock
+    private int mEdits;
 
     public NetworkPolicyEditor(NetworkPolicyManager policyManager) {
         mPolicyManager = checkNotNull(policyManager);
     }
 
     public void read() {
-        final NetworkPolicy[] policies = mPolicyManager.getNetworkPolicies();
-
         boolean modified = false;
-        mPolicies.clear();
-        for (NetworkPolicy policy : policies) {
-            // TODO: find better place to clamp these
-            if (policy.limitBytes < -1) {
-                policy.limitBytes = LIMIT_DISABLED;
-                modified = true;
-            }
-            if (policy.warningBytes < -1) {
-                policy.warningBytes = WARNING_DISABLED;
-                modified = true;
+        synchronized (sLock) {
+            if (sDirty || sWriting) {
+                // Newer than what the service has, written by the next commit
+                if (DEBUG) Log.d(TAG, "Keeping " + mPolicies.size() + " unwritten policies");
+                return;
             }
 
-            mPolicies.add(policy);
+            final NetworkPolicy[] policies = mPolicyManager.getNetworkPolicies();
+
+            mPolicies.clear();
+            mPolicyIndex.clear();
+            for (NetworkPolicy policy : policies) {
+                // TODO: find better place to clamp these
+                if (policy.limitBytes < -1) {
+                    policy.limitBytes = LIMIT_DISABLED;
+                    modified = true;
+                }
+                if (policy.warningBytes < -1) {
+                    policy.warningBytes = WARNING_DISABLED;
+                    modified = true;
+                }
+
+                addPolicyLocked(policy);
+            }
         }
 
         // when we cleaned policies above, write back changes
         if (modified) writeAsync();
     }
 
+    /**
+     * Schedules writing the policies to the service. Edits made until the
+     * commit runs are written along with this one.
+     */
     public void writeAsync() {
         // TODO: consider making more robust by passing through service
-        final NetworkPolicy[] policies = mPolicies.toArray(new NetworkPolicy[mPolicies.size()]);
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                write(policies);
-                return null;
-            }
-        }.execute();
+        synchronized (sLock) {
+            sDirty = true;
+            sPolicyManager = mPolicyManager;
+            mEdits++;
+        }
+        final Handler writer = getWriter();
+        writer.removeCallbacks(sCommit);
+        writer.postDelayed(sCommit, COMMIT_DELAY);
+    }
+
+    /**
+     * Writes the pending edits, if any, without waiting for the commit delay.
+     * The commit still runs on the writer thread, ahead of anything queued.
+     */
+    public void flush() {
+        final Handler writer = getWriter();
+        writer.removeCallbacks(sCommit);
+        writer.postAtFrontOfQueue(sCommit);
     }
 
     public void write(NetworkPolicy[] policies) {
         mPolicyManager.setNetworkPolicies(policies);
     }
 
+    /** Number of edits made through this editor. */
+    public int getEditCount() {
+        synchronized (sLock) {
+            return mEdits;
+        }
+    }
+
+    /** Number of times the edits of all editors were written to the service. */
+    public int getCommitCount() {
+        synchronized (sLock) {
+            return sCommits;
+        }
+    }
+
+    // Runs on the writer thread only.
+    private static void commit() {
+        final NetworkPolicy[] policies;
+        final NetworkPolicyManager policyManager;
+        synchronized (sLock) {
+            if (!sDirty) {
+                return;
+            }
+            sDirty = false;
+            sWriting = true;
+            policies = sPolicies.toArray(new NetworkPolicy[sPolicies.size()]);
+            policyManager = sPolicyManager;
+        }
+
+        try {
+            policyManager.setNetworkPolicies(policies);
+        } finally {
+            synchronized (sLock) {
+                sWriting = false;
+            }
+        }
+
+        synchronized (sLock) {
+            sCommits++;
+            if (DEBUG) Log.d(TAG, "Committed policies in " + sCommits + " writes");
+        }
+    }
+
     public boolean hasLimitedPolicy(NetworkTemplate template) {
         final NetworkPolicy policy = getPolicy(template);
         return policy != null && policy.limitBytes != LIMIT_DISABLED;
     }
 
     public NetworkPolicy getOrCreatePolicy(NetworkTemplate template) {
-        NetworkPolicy policy = getPolicy(template);
-        if (policy == null) {
-            policy = buildDefaultPolicy(template);
-            mPolicies.add(policy);
+        synchronized (sLock) {
+            NetworkPolicy policy = getPolicy(template);
+            if (policy == null) {
+                policy = buildDefaultPolicy(template);
+                addPolicyLocked(policy);
+            }
+            return policy;
         }
-        return policy;
     }
 
     public NetworkPolicy getPolicy(NetworkTemplate template) {
-        for (NetworkPolicy policy : mPolicies) {
-            if (policy.template.equals(template)) {
-                return policy;
+        synchronized (sLock) {
+            return mPolicyIndex.get(template);
+        }
+    }
+
+    private void addPolicyLocked(NetworkPolicy policy) {
+        mPolicies.add(policy);
+        // Lookups return the first policy of a template, as the service does
+        if (!mPolicyIndex.containsKey(policy.template)) {
+            mPolicyIndex.put(policy.template, policy);
+        }
+    }
+
+    private void removePolicyLocked(NetworkPolicy policy) {
+        mPolicies.remove(policy);
+        if (mPolicyIndex.get(policy.template) == policy) {
+            mPolicyIndex.remove(policy.template);
+            for (NetworkPolicy other : mPolicies) {
+                if (other.template.equals(policy.template)) {
+                    mPolicyIndex.put(other.template, other);
+                    break;
+                }
             }
         }
-        return null;
     }
 
     public NetworkPolicy getPolicyMaybeUnquoted(NetworkTemplate template) {
-        NetworkPolicy policy = getPolicy(template);
-        if (policy != null) {
-            return policy;
-        } else {
-            return getPolicy(buildUnquotedNetworkTemplate(template));
+        synchronized (sLock) {
+            NetworkPolicy policy = getPolicy(template);
+            if (policy != null) {
+                return policy;
+            } else {
+                return getPolicy(buildUnquotedNetworkTemplate(template));
+            }
         }
     }
 
@@ -152,12 +294,14 @@ public class NetworkPolicyEditor {
     }
 
     public void setPolicyCycleDay(NetworkTemplate template, int cycleDay, String cycleTimezone) {
-        final NetworkPolicy policy = getOrCreatePolicy(template);
-        policy.cycleDay = cycleDay;
-        policy.cycleTimezone = cycleTimezone;
-        policy.inferred = false;
-        policy.clearSnooze();
-        writeAsync();
+        synchronized (sLock) {
+            final NetworkPolicy policy = getOrCreatePolicy(template);
+            policy.cycleDay = cycleDay;
+            policy.cycleTimezone = cycleTimezone;
+            policy.inferred = false;
+            policy.clearSnooze();
+            writeAsync();
+        }
     }
 
     public long getPolicyWarningBytes(NetworkTemplate template) {
@@ -166,11 +310,13 @@ public class NetworkPolicyEditor {
     }
 
     public void setPolicyWarningBytes(NetworkTemplate template, long warningBytes) {
-        final NetworkPolicy policy = getOrCreatePolicy(template);
-        policy.warningBytes = warningBytes;
-        policy.inferred = false;
-        policy.clearSnooze();
-        writeAsync();
+        synchronized (sLock) {
+            final NetworkPolicy policy = getOrCreatePolicy(template);
+            policy.warningBytes = warningBytes;
+            policy.inferred = false;
+            policy.clearSnooze();
+            writeAsync();
+        }
     }
 
     public long getPolicyLimitBytes(NetworkTemplate template) {
@@ -179,11 +325,13 @@ public class NetworkPolicyEditor {
     }
 
     public void setPolicyLimitBytes(NetworkTemplate template, long limitBytes) {
-        final NetworkPolicy policy = getOrCreatePolicy(template);
-        policy.limitBytes = limitBytes;
-        policy.inferred = false;
-        policy.clearSnooze();
-        writeAsync();
+        synchronized (sLock) {
+            final NetworkPolicy policy = getOrCreatePolicy(template);
+            policy.limitBytes = limitBytes;
+            policy.inferred = false;
+            policy.clearSnooze();
+            writeAsync();
+        }
     }
 
     public boolean getPolicyMetered(NetworkTemplate template) {
@@ -196,41 +344,43 @@ public class NetworkPolicyEditor {
     }
 
     public void setPolicyMetered(NetworkTemplate template, boolean metered) {
-        boolean modified = false;
-
-        NetworkPolicy policy = getPolicy(template);
-        if (metered) {
-            if (policy == null) {
-                policy = buildDefaultPolicy(template);
-                policy.metered = true;
-                policy.inferred = false;
-                mPolicies.add(policy);
-                modified = true;
-            } else if (!policy.metered) {
-                policy.metered = true;
-                policy.inferred = false;
-                modified = true;
+        synchronized (sLock) {
+            boolean modified = false;
+
+            NetworkPolicy policy = getPolicy(template);
+            if (metered) {
+                if (policy == null) {
+                    policy = buildDefaultPolicy(template);
+                    policy.metered = true;
+                    policy.inferred = false;
+                    addPolicyLocked(policy);
+                    modified = true;
+                } else if (!policy.metered) {
+                    policy.metered = true;
+                    policy.inferred = false;
+                    modified = true;
+                }
+
+            } else {
+                if (policy == null) {
+                    // ignore when policy doesn't exist
+                } else if (policy.metered) {
+                    policy.metered = false;
+                    policy.inferred = false;
+                    modified = true;
+                }
             }
 
-        } else {
-            if (policy == null) {
-                // ignore when policy doesn't exist
-            } else if (policy.metered) {
-                policy.metered = false;
-                policy.inferred = false;
+            // Remove legacy unquoted policies while we're here
+            final NetworkTemplate unquoted = buildUnquotedNetworkTemplate(template);
+            final NetworkPolicy unquotedPolicy = getPolicy(unquoted);
+            if (unquotedPolicy != null) {
+                removePolicyLocked(unquotedPolicy);
                 modified = true;
             }
-        }
 
-        // Remove legacy unquoted policies while we're here
-        final NetworkTemplate unquoted = buildUnquotedNetworkTemplate(template);
-        final NetworkPolicy unquotedPolicy = getPolicy(unquoted);
-        if (unquotedPolicy != null) {
-            mPolicies.remove(unquotedPolicy);
-            modified = true;
+            if (modified) writeAsync();
         }
-
-        if (modified) writeAsync();
     }
 
     /**
@@ -24,7 +24,12 @@ import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
 
-public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
+/**
+ * Loads the usage summary of all uids for the template and range of args built
+ * with {@link #buildArgs}, and hands it to {@link #onSummaryLoaded} in the
+ * background to build the loader's result.
+ */
+public abstract class SummaryForAllUidLoader<D> extends AsyncTaskLoader<D> {
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_START = "start";
     private static final String KEY_END = "end";
@@ -53,18 +58,26 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
     }
 
     @Override
-    public NetworkStats loadInBackground() {
+    public D loadInBackground() {
         final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
         final long start = mArgs.getLong(KEY_START);
         final long end = mArgs.getLong(KEY_END);
 
+        NetworkStats stats;
         try {
-            return mSession.getSummaryForAllUid(template, start, end, false);
+            stats = mSession.getSummaryForAllUid(template, start, end, false);
         } catch (RemoteException e) {
-            return null;
+            stats = null;
         }
+        return onSummaryLoaded(stats);
     }
 
+    /**
+     * Builds the result from the loaded summary, which is null on failure.
+     * Called on the loader's background thread.
+     */
+    protected abstract D onSummaryLoaded(NetworkStats stats);
+
     @Override
     protected void onStopLoading() {
         super.onStopLoading();
@@ -17,7 +17,6 @@
 package com.android.settings.notification;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.provider.Settings;
 import android.service.notification.ConditionProviderService;
 
@@ -45,8 +44,8 @@ public class ConditionProviderSettings extends ManagedServiceSettings {
         return CONFIG;
     }
 
-    public static int getProviderCount(PackageManager pm) {
-        return getServicesCount(CONFIG, pm);
+    public static int getProviderCount(Context context) {
+        return getServicesCount(CONFIG, context);
     }
 
     public static int getEnabledProviderCount(Context context) {
@@ -48,6 +48,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.android.settings.R;
+import com.android.settings.ResolveInfoCache;
 
 import java.util.HashSet;
 import java.util.List;
@@ -78,6 +79,8 @@ public abstract class ManagedServiceSettings extends ListFragment {
     private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            // The cache may not have seen this broadcast yet
+            ResolveInfoCache.getInstance(context).onPackageBroadcast(intent);
             updateList();
         }
     };
@@ -200,7 +203,7 @@ public abstract class ManagedServiceSettings extends ListFragment {
     private void updateList() {
         loadEnabledServices();
 
-        getServices(mConfig, mListAdapter, mPM);
+        getServices(mConfig, mListAdapter, getActivity());
         mListAdapter.sort(new PackageItemInfo.DisplayNameComparator(mPM));
 
         getListView().setAdapter(mListAdapter);
@@ -213,21 +216,20 @@ public abstract class ManagedServiceSettings extends ListFragment {
         return components.length;
     }
 
-    protected static int getServicesCount(Config c, PackageManager pm) {
-        return getServices(c, null, pm);
+    protected static int getServicesCount(Config c, Context context) {
+        return getServices(c, null, context);
     }
 
-    private static int getServices(Config c, ArrayAdapter<ServiceInfo> adapter, PackageManager pm) {
+    private static int getServices(Config c, ArrayAdapter<ServiceInfo> adapter, Context context) {
         int services = 0;
         if (adapter != null) {
             adapter.clear();
         }
         final int user = ActivityManager.getCurrentUser();
 
-        List<ResolveInfo> installedServices = pm.queryIntentServicesAsUser(
-                new Intent(c.intentAction),
-                PackageManager.GET_SERVICES | PackageManager.GET_META_DATA,
-                user);
+        List<ResolveInfo> installedServices = ResolveInfoCache.getInstance(context)
+                .queryIntentServicesAsUser(new Intent(c.intentAction),
+                        PackageManager.GET_SERVICES | PackageManager.GET_META_DATA, user);
 
         for (int i = 0, count = installedServices.size(); i < count; i++) {
             ResolveInfo resolveInfo = installedServices.get(i);
@@ -17,7 +17,6 @@
 package com.android.settings.notification;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.provider.Settings;
 import android.service.notification.NotificationListenerService;
 
@@ -45,8 +44,8 @@ public class NotificationAccessSettings extends ManagedServiceSettings {
         return CONFIG;
     }
 
-    public static int getListenersCount(PackageManager pm) {
-        return getServicesCount(CONFIG, pm);
+    public static int getListenersCount(Context context) {
+        return getServicesCount(CONFIG, context);
     }
 
     public static int getEnabledListenersCount(Context context) {
@@ -22,8 +22,10 @@ import static com.android.settings.notification.AppNotificationSettings.EXTRA_SE
 import android.animation.LayoutTransition;
 import android.app.INotificationManager;
 import android.app.Notification;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.LauncherActivityInfo;
@@ -43,6 +45,7 @@ import android.os.UserManager;
 import android.provider.Settings;
 import android.service.notification.NotificationListenerService;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
@@ -68,6 +71,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /** Just a sectioned list of installed applications, nothing else to index **/
 public class NotificationAppList extends PinnedHeaderListFragment
@@ -82,10 +90,71 @@ public class NotificationAppList extends PinnedHeaderListFragment
             = new Intent(Intent.ACTION_MAIN)
                 .addCategory(Notification.INTENT_CATEGORY_NOTIFICATION_PREFERENCES);
 
+    // App rows are kept across visits of the screen.  Package broadcasts mark
+    // the package dirty, and only those are reloaded on the next resume.
+    // Changes of the notification state made in Settings are reported through
+    // onNotificationStateChanged(), and only the state of those packages is
+    // read again.  The collector works on the following,
+    // guarded by sCollectLock, on a background thread.  Published rows are
+    // never changed, a reloaded package gets a new row.
+    private static final Object sCollectLock = new Object();
+    private static final ArrayMap<String, AppRow> sRows = new ArrayMap<String, AppRow>();
+    private static final ArrayList<AppRow> sSortedRows = new ArrayList<AppRow>();
+    private static final ArrayList<String> sSections = new ArrayList<String>();
+    private static boolean sRowsValid;
+    private static Locale sRowsLocale;
+
+    // The collector publishes its results as an immutable snapshot, so the UI
+    // thread never waits for a collection.  Guarded by sRowsLock, which is
+    // only held briefly.
+    private static final Object sRowsLock = new Object();
+    private static final ArraySet<String> sDirtyPackages = new ArraySet<String>();
+    // Packages whose notification state changed, or all of them
+    private static final ArraySet<String> sStatePackages = new ArraySet<String>();
+    private static boolean sAllStateStale;
+    // Packages whose icon may have changed, dropped from sIcons when the rows
+    // are shown again
+    private static final ArraySet<String> sStaleIcons = new ArraySet<String>();
+    private static RowsSnapshot sRowsSnapshot;
+    private static PackageReceiver sPackageReceiver;
+
+    // Icons of the listed rows, kept apart from the published rows.  Keyed by
+    // iconKey(), so that rows rebuilt for a new snapshot keep their icon.
+    // Only accessed on the UI thread.
+    private static final ArrayMap<String, Drawable> sIcons = new ArrayMap<String, Drawable>();
+
+    // Single low priority worker for the row icons.  Each list keeps at most
+    // one request on it, see loadNextIcon().
+    private static final ThreadPoolExecutor sIconLoader = new ThreadPoolExecutor(1, 1,
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "NotificationAppList Icon Loader");
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    static {
+        sIconLoader.allowCoreThreadTimeOut(true);
+    }
+
+    private static final class RowsSnapshot {
+        final List<AppRow> rows;
+        final List<String> sections;
+
+        RowsSnapshot(List<AppRow> rows, List<String> sections) {
+            this.rows = Collections.unmodifiableList(new ArrayList<AppRow>(rows));
+            this.sections = Collections.unmodifiableList(new ArrayList<String>(sections));
+        }
+    }
+
     private final Handler mHandler = new Handler();
-    private final ArrayMap<String, AppRow> mRows = new ArrayMap<String, AppRow>();
-    private final ArrayList<AppRow> mSortedRows = new ArrayList<AppRow>();
     private final ArrayList<String> mSections = new ArrayList<String>();
+    // Rows that were bound without an icon, most recent last, and the one
+    // being loaded.  UI thread only.
+    private final ArrayList<AppRow> mIconRequests = new ArrayList<AppRow>();
+    private AppRow mLoadingIconRow;
 
     private Context mContext;
     private LayoutInflater mInflater;
@@ -149,11 +218,18 @@ public class NotificationAppList extends PinnedHeaderListFragment
     public void onDestroyView() {
         super.onDestroyView();
         mListViewState = null;  // you're dead to me
+        mHandler.removeCallbacks(mLoadNextIconRunnable);
+        mIconRequests.clear();
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        if (getRowsSnapshot() != null) {
+            // Show the cached rows right away, the collector only posts
+            // another refresh if something changed.
+            refreshDisplayedItems();
+        }
         loadAppsList();
     }
 
@@ -183,7 +259,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
         AsyncTask.execute(mCollectAppsRunnable);
     }
 
-    private String getSection(CharSequence label) {
+    private static String getSection(CharSequence label) {
         if (label == null || label.length() == 0) return SECTION_BEFORE_A;
         final char c = Character.toUpperCase(label.charAt(0));
         if (c < 'A') return SECTION_BEFORE_A;
@@ -205,6 +281,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
     }
 
     private static class ViewHolder {
+        AppRow boundRow;
         ViewGroup row;
         ImageView icon;
         TextView title;
@@ -246,7 +323,8 @@ public class NotificationAppList extends PinnedHeaderListFragment
             } else {
                 v = convertView;
             }
-            bindView(v, r, false /*animate*/);
+            final boolean first = position == 0 || !(getItem(position - 1) instanceof AppRow);
+            bindView(v, r, first, false /*animate*/);
             return v;
         }
 
@@ -277,7 +355,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
             }
         }
 
-        public void bindView(final View view, Row r, boolean animate) {
+        public void bindView(final View view, Row r, boolean first, boolean animate) {
             if (!(r instanceof AppRow)) {
                 // it's a section row
                 final TextView tv = (TextView)view.findViewById(android.R.id.title);
@@ -288,7 +366,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
             final AppRow row = (AppRow)r;
             final ViewHolder vh = (ViewHolder) view.getTag();
             enableLayoutTransitions(vh.row, animate);
-            vh.rowDivider.setVisibility(row.first ? View.GONE : View.VISIBLE);
+            vh.rowDivider.setVisibility(first ? View.GONE : View.VISIBLE);
             vh.row.setOnClickListener(new OnClickListener() {
                 @Override
                 public void onClick(View v) {
@@ -301,7 +379,15 @@ public class NotificationAppList extends PinnedHeaderListFragment
                 }
             });
             enableLayoutTransitions(vh.row, animate);
-            vh.icon.setImageDrawable(row.icon);
+            vh.boundRow = row;
+            final Drawable icon = sIcons.get(iconKey(row));
+            if (icon == null) {
+                // Icons are only loaded for rows that actually get displayed
+                vh.icon.setImageDrawable(mPM.getDefaultActivityIcon());
+                requestIcon(row);
+            } else {
+                vh.icon.setImageDrawable(icon);
+            }
             vh.title.setText(row.label);
             final String sub = getSubtitle(row);
             vh.subtitle.setText(sub);
@@ -355,13 +441,13 @@ public class NotificationAppList extends PinnedHeaderListFragment
     public static class AppRow extends Row {
         public String pkg;
         public int uid;
+        public ApplicationInfo info;
         public Drawable icon;
         public CharSequence label;
         public Intent settingsIntent;
         public boolean banned;
         public boolean priority;
         public boolean sensitive;
-        public boolean first;  // first app in section
     }
 
     private static final Comparator<AppRow> mRowComparator = new Comparator<AppRow>() {
@@ -375,22 +461,108 @@ public class NotificationAppList extends PinnedHeaderListFragment
 
     public static AppRow loadAppRow(PackageManager pm, ApplicationInfo app,
             Backend backend) {
+        final AppRow row = loadAppRowWithoutIcon(pm, app, backend);
+        row.icon = app.loadIcon(pm);
+        return row;
+    }
+
+    private static AppRow loadAppRowWithoutIcon(PackageManager pm, ApplicationInfo app,
+            Backend backend) {
         final AppRow row = new AppRow();
         row.pkg = app.packageName;
         row.uid = app.uid;
+        row.info = app;
         try {
             row.label = app.loadLabel(pm);
         } catch (Throwable t) {
             Log.e(TAG, "Error loading application label for " + row.pkg, t);
             row.label = row.pkg;
         }
-        row.icon = app.loadIcon(pm);
         row.banned = backend.getNotificationsBanned(row.pkg, row.uid);
         row.priority = backend.getHighPriority(row.pkg, row.uid);
         row.sensitive = backend.getSensitive(row.pkg, row.uid);
         return row;
     }
 
+    private static String iconKey(AppRow row) {
+        return row.pkg + ":" + UserHandle.getUserId(row.uid);
+    }
+
+    private void requestIcon(AppRow row) {
+        if (row.info == null || row == mLoadingIconRow) {
+            return;
+        }
+        mIconRequests.remove(row);
+        mIconRequests.add(row);
+        // Rows are bound during layout, look for them on screen once it is done
+        mHandler.removeCallbacks(mLoadNextIconRunnable);
+        mHandler.post(mLoadNextIconRunnable);
+    }
+
+    private final Runnable mLoadNextIconRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loadNextIcon();
+        }
+    };
+
+    /**
+     * Loads the icon of the most recently bound row that is still on screen.
+     * Requests of rows scrolled away meanwhile are dropped, they are requested
+     * again when bound.
+     */
+    private void loadNextIcon() {
+        if (mLoadingIconRow != null || getView() == null) {
+            return;
+        }
+        final ViewGroup list = getListView();
+        while (!mIconRequests.isEmpty()) {
+            final AppRow row = mIconRequests.remove(mIconRequests.size() - 1);
+            if (sIcons.containsKey(iconKey(row)) || findBoundIcon(list, row) == null) {
+                continue;
+            }
+            mLoadingIconRow = row;
+            final ApplicationInfo info = row.info;
+            sIconLoader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Drawable icon = info.loadIcon(mPM);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onIconLoaded(row, icon);
+                        }
+                    });
+                }
+            });
+            return;
+        }
+    }
+
+    private void onIconLoaded(AppRow row, Drawable icon) {
+        mLoadingIconRow = null;
+        sIcons.put(iconKey(row), icon);
+        if (getView() == null) {
+            return;
+        }
+        // Update the row in place if it is still on screen
+        final ImageView view = findBoundIcon(getListView(), row);
+        if (view != null) {
+            view.setImageDrawable(icon);
+        }
+        loadNextIcon();
+    }
+
+    private static ImageView findBoundIcon(ViewGroup list, AppRow row) {
+        for (int i = 0; i < list.getChildCount(); i++) {
+            final Object tag = list.getChildAt(i).getTag();
+            if (tag instanceof ViewHolder && ((ViewHolder) tag).boundRow == row) {
+                return ((ViewHolder) tag).icon;
+            }
+        }
+        return null;
+    }
+
     public static List<ResolveInfo> queryNotificationConfigActivities(PackageManager pm) {
         if (DEBUG) Log.d(TAG, "APP_NOTIFICATION_PREFS_CATEGORY_INTENT is "
                 + APP_NOTIFICATION_PREFS_CATEGORY_INTENT);
@@ -430,97 +602,331 @@ public class NotificationAppList extends PinnedHeaderListFragment
         }
     }
 
-    private final Runnable mCollectAppsRunnable = new Runnable() {
+    /**
+     * Marks packages touched by package broadcasts so that the cached rows are
+     * updated for those packages only.  Registered once per process.
+     */
+    private static class PackageReceiver extends BroadcastReceiver {
         @Override
-        public void run() {
-            synchronized (mRows) {
-                final long start = SystemClock.uptimeMillis();
-                if (DEBUG) Log.d(TAG, "Collecting apps...");
-                mRows.clear();
-                mSortedRows.clear();
-
-                // collect all launchable apps, plus any packages that have notification settings
-                final List<ApplicationInfo> appInfos = new ArrayList<ApplicationInfo>();
-
-                final List<LauncherActivityInfo> lais
-                        = mLauncherApps.getActivityList(null /* all */,
-                            UserHandle.getCallingUserHandle());
-                if (DEBUG) Log.d(TAG, "  launchable activities:");
-                for (LauncherActivityInfo lai : lais) {
-                    if (DEBUG) Log.d(TAG, "    " + lai.getComponentName().toString());
-                    appInfos.add(lai.getApplicationInfo());
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            synchronized (sRowsLock) {
+                if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)
+                        || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
+                    final String[] pkgs = intent.getStringArrayExtra(
+                            Intent.EXTRA_CHANGED_PACKAGE_LIST);
+                    if (pkgs != null) {
+                        for (String pkg : pkgs) {
+                            sDirtyPackages.add(pkg);
+                        }
+                    }
+                } else if (intent.getData() != null) {
+                    sDirtyPackages.add(intent.getData().getSchemeSpecificPart());
                 }
+            }
+        }
+    }
 
-                final List<ResolveInfo> resolvedConfigActivities
-                        = queryNotificationConfigActivities(mPM);
-                if (DEBUG) Log.d(TAG, "  config activities:");
-                for (ResolveInfo ri : resolvedConfigActivities) {
-                    if (DEBUG) Log.d(TAG, "    "
-                            + ri.activityInfo.packageName + "/" + ri.activityInfo.name);
-                    appInfos.add(ri.activityInfo.applicationInfo);
-                }
+    /**
+     * Reports a change of the notification state of a package made outside
+     * of this list, or of all packages if {@code pkg} is null, so that the
+     * cached rows pick it up on the next resume.
+     */
+    public static void onNotificationStateChanged(String pkg) {
+        synchronized (sRowsLock) {
+            if (pkg == null) {
+                sAllStateStale = true;
+            } else {
+                sStatePackages.add(pkg);
+            }
+        }
+    }
 
-                for (ApplicationInfo info : appInfos) {
-                    final String key = info.packageName;
-                    if (mRows.containsKey(key)) {
-                        // we already have this app, thanks
-                        continue;
-                    }
+    private static void registerPackageReceiver(Context context) {
+        if (sPackageReceiver != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        sPackageReceiver = new PackageReceiver();
+        final IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        appContext.registerReceiver(sPackageReceiver, filter);
+        final IntentFilter sdFilter = new IntentFilter();
+        sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        appContext.registerReceiver(sPackageReceiver, sdFilter);
+    }
 
-                    final AppRow row = loadAppRow(mPM, info, mBackend);
-                    mRows.put(key, row);
-                }
+    private static void insertSortedRow(AppRow row) {
+        int pos = Collections.binarySearch(sSortedRows, row, mRowComparator);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        sSortedRows.add(pos, row);
+        if (!sSections.contains(row.section)) {
+            computeSections();
+        }
+    }
+
+    private static void removeSortedRow(AppRow row) {
+        final int pos = sSortedRows.indexOf(row);
+        if (pos < 0) {
+            return;
+        }
+        sSortedRows.remove(pos);
+        final boolean sameAsPrev = pos > 0
+                && sSortedRows.get(pos - 1).section.equals(row.section);
+        final boolean sameAsNext = pos < sSortedRows.size()
+                && sSortedRows.get(pos).section.equals(row.section);
+        if (!sameAsPrev && !sameAsNext) {
+            // Last row of its section
+            sSections.remove(row.section);
+        }
+    }
+
+    private static void computeSections() {
+        sSections.clear();
+        String section = null;
+        for (AppRow r : sSortedRows) {
+            if (!r.section.equals(section)) {
+                section = r.section;
+                sSections.add(section);
+            }
+        }
+    }
+
+    private void collectAllApps() {
+        sRows.clear();
+        sSortedRows.clear();
+
+        // collect all launchable apps, plus any packages that have notification settings
+        final List<ApplicationInfo> appInfos = new ArrayList<ApplicationInfo>();
+
+        final List<LauncherActivityInfo> lais
+                = mLauncherApps.getActivityList(null /* all */,
+                    UserHandle.getCallingUserHandle());
+        if (DEBUG) Log.d(TAG, "  launchable activities:");
+        for (LauncherActivityInfo lai : lais) {
+            if (DEBUG) Log.d(TAG, "    " + lai.getComponentName().toString());
+            appInfos.add(lai.getApplicationInfo());
+        }
+
+        final List<ResolveInfo> resolvedConfigActivities
+                = queryNotificationConfigActivities(mPM);
+        if (DEBUG) Log.d(TAG, "  config activities:");
+        for (ResolveInfo ri : resolvedConfigActivities) {
+            if (DEBUG) Log.d(TAG, "    "
+                    + ri.activityInfo.packageName + "/" + ri.activityInfo.name);
+            appInfos.add(ri.activityInfo.applicationInfo);
+        }
+
+        for (ApplicationInfo info : appInfos) {
+            final String key = info.packageName;
+            if (sRows.containsKey(key)) {
+                // we already have this app, thanks
+                continue;
+            }
+
+            final AppRow row = loadAppRowWithoutIcon(mPM, info, mBackend);
+            row.section = getSection(row.label);
+            sRows.put(key, row);
+        }
+
+        // add config activities to the list
+        applyConfigActivities(mPM, sRows, resolvedConfigActivities);
+
+        // sort rows
+        sSortedRows.addAll(sRows.values());
+        Collections.sort(sSortedRows, mRowComparator);
+        computeSections();
+    }
+
+    /**
+     * Reloads the row of a single package after a package broadcast.
+     */
+    private void updatePackage(String pkg) {
+        synchronized (sRowsLock) {
+            sStaleIcons.add(pkg);
+        }
+        final AppRow old = sRows.remove(pkg);
+        if (old != null) {
+            removeSortedRow(old);
+        }
 
-                // add config activities to the list
-                applyConfigActivities(mPM, mRows, resolvedConfigActivities);
-
-                // sort rows
-                mSortedRows.addAll(mRows.values());
-                Collections.sort(mSortedRows, mRowComparator);
-                // compute sections
-                mSections.clear();
-                String section = null;
-                for (AppRow r : mSortedRows) {
-                    r.section = getSection(r.label);
-                    if (!r.section.equals(section)) {
-                        section = r.section;
-                        mSections.add(section);
+        ApplicationInfo info = null;
+        final List<LauncherActivityInfo> lais = mLauncherApps.getActivityList(pkg,
+                UserHandle.getCallingUserHandle());
+        if (lais != null && !lais.isEmpty()) {
+            info = lais.get(0).getApplicationInfo();
+        }
+        final List<ResolveInfo> resolveInfos = mPM.queryIntentActivities(
+                new Intent(APP_NOTIFICATION_PREFS_CATEGORY_INTENT).setPackage(pkg), 0);
+        if (info == null && !resolveInfos.isEmpty()) {
+            info = resolveInfos.get(0).activityInfo.applicationInfo;
+        }
+        if (info == null) {
+            if (DEBUG) Log.d(TAG, "Removed " + pkg);
+            return;
+        }
+
+        final AppRow row = loadAppRowWithoutIcon(mPM, info, mBackend);
+        row.section = getSection(row.label);
+        sRows.put(pkg, row);
+        final ArrayMap<String, AppRow> single = new ArrayMap<String, AppRow>(1);
+        single.put(pkg, row);
+        applyConfigActivities(mPM, single, resolveInfos);
+        insertSortedRow(row);
+        if (DEBUG) Log.d(TAG, "Updated " + pkg);
+    }
+
+    /**
+     * Re-reads the banned, priority and sensitive state of the rows of the
+     * given packages, or of all rows if {@code pkgs} is null.  Rows whose
+     * state changed are replaced, their position and section stay the same.
+     * Returns whether any row was replaced.
+     */
+    private boolean reloadNotificationState(ArraySet<String> pkgs) {
+        boolean changed = false;
+        final int N = sSortedRows.size();
+        for (int i = 0; i < N; i++) {
+            final AppRow row = sSortedRows.get(i);
+            if (pkgs != null && !pkgs.contains(row.pkg)) {
+                continue;
+            }
+            final boolean banned = mBackend.getNotificationsBanned(row.pkg, row.uid);
+            final boolean priority = mBackend.getHighPriority(row.pkg, row.uid);
+            final boolean sensitive = mBackend.getSensitive(row.pkg, row.uid);
+            if (banned == row.banned && priority == row.priority
+                    && sensitive == row.sensitive) {
+                continue;
+            }
+            final AppRow updated = new AppRow();
+            updated.section = row.section;
+            updated.pkg = row.pkg;
+            updated.uid = row.uid;
+            updated.info = row.info;
+            updated.label = row.label;
+            updated.settingsIntent = row.settingsIntent;
+            updated.banned = banned;
+            updated.priority = priority;
+            updated.sensitive = sensitive;
+            sSortedRows.set(i, updated);
+            sRows.put(row.pkg, updated);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static RowsSnapshot getRowsSnapshot() {
+        synchronized (sRowsLock) {
+            return sRowsSnapshot;
+        }
+    }
+
+    // Called with sCollectLock held.
+    private static void publishRows() {
+        final RowsSnapshot snapshot = new RowsSnapshot(sSortedRows, sSections);
+        synchronized (sRowsLock) {
+            sRowsSnapshot = snapshot;
+        }
+    }
+
+    private final Runnable mCollectAppsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (sCollectLock) {
+                final long start = SystemClock.uptimeMillis();
+                final Locale locale = mContext.getResources().getConfiguration().locale;
+                if (!sRowsValid || !locale.equals(sRowsLocale)) {
+                    if (DEBUG) Log.d(TAG, "Collecting apps...");
+                    registerPackageReceiver(mContext);
+                    synchronized (sRowsLock) {
+                        sDirtyPackages.clear();
+                        sStatePackages.clear();
+                        sAllStateStale = false;
+                    }
+                    collectAllApps();
+                    sRowsValid = true;
+                    sRowsLocale = locale;
+                    publishRows();
+                    mHandler.post(mRefreshAppsListRunnable);
+                } else {
+                    final ArraySet<String> dirtyPackages;
+                    final ArraySet<String> statePackages;
+                    synchronized (sRowsLock) {
+                        dirtyPackages = new ArraySet<String>(sDirtyPackages);
+                        sDirtyPackages.clear();
+                        statePackages = sAllStateStale
+                                ? null : new ArraySet<String>(sStatePackages);
+                        sStatePackages.clear();
+                        sAllStateStale = false;
+                    }
+                    for (int i = 0; i < dirtyPackages.size(); i++) {
+                        updatePackage(dirtyPackages.valueAt(i));
+                    }
+                    // Reloaded packages read their state already
+                    if (statePackages != null) {
+                        statePackages.removeAll(dirtyPackages);
+                    }
+                    final boolean stateChanged = (statePackages == null
+                            || !statePackages.isEmpty())
+                            && reloadNotificationState(statePackages);
+                    if (!dirtyPackages.isEmpty() || stateChanged) {
+                        publishRows();
+                        mHandler.post(mRefreshAppsListRunnable);
                     }
                 }
-                mHandler.post(mRefreshAppsListRunnable);
                 final long elapsed = SystemClock.uptimeMillis() - start;
-                if (DEBUG) Log.d(TAG, "Collected " + mRows.size() + " apps in " + elapsed + "ms");
+                if (DEBUG) Log.d(TAG, "Collected " + sRows.size() + " apps in " + elapsed + "ms");
             }
         }
     };
 
     private void refreshDisplayedItems() {
         if (DEBUG) Log.d(TAG, "Refreshing apps...");
+        mAdapter.setNotifyOnChange(false);
         mAdapter.clear();
-        synchronized (mSortedRows) {
-            String section = null;
-            final int N = mSortedRows.size();
-            boolean first = true;
-            for (int i = 0; i < N; i++) {
-                final AppRow row = mSortedRows.get(i);
-                if (!row.section.equals(section)) {
-                    section = row.section;
-                    Row r = new Row();
-                    r.section = section;
-                    mAdapter.add(r);
-                    first = true;
+        final RowsSnapshot snapshot = getRowsSnapshot();
+        final List<AppRow> rows = snapshot != null
+                ? snapshot.rows : Collections.<AppRow>emptyList();
+        mSections.clear();
+        if (snapshot != null) {
+            mSections.addAll(snapshot.sections);
+        }
+        String section = null;
+        final int N = rows.size();
+        final ArraySet<String> iconKeys = new ArraySet<String>(N);
+        for (int i = 0; i < N; i++) {
+            final AppRow row = rows.get(i);
+            if (!row.section.equals(section)) {
+                section = row.section;
+                Row r = new Row();
+                r.section = section;
+                mAdapter.add(r);
+            }
+            mAdapter.add(row);
+            iconKeys.add(iconKey(row));
+        }
+        // Drop the icons of changed and removed packages
+        synchronized (sRowsLock) {
+            for (int i = sIcons.size() - 1; i >= 0; i--) {
+                final String key = sIcons.keyAt(i);
+                if (!iconKeys.contains(key)
+                        || sStaleIcons.contains(key.substring(0, key.lastIndexOf(':')))) {
+                    sIcons.removeAt(i);
                 }
-                row.first = first;
-                mAdapter.add(row);
-                first = false;
             }
+            sStaleIcons.clear();
         }
+        mAdapter.notifyDataSetChanged();
         if (mListViewState != null) {
             if (DEBUG) Log.d(TAG, "Restoring listView state");
             getListView().onRestoreInstanceState(mListViewState);
             mListViewState = null;
         }
-        if (DEBUG) Log.d(TAG, "Refreshed " + mSortedRows.size() + " displayed items");
+        if (DEBUG) Log.d(TAG, "Refreshed " + N + " displayed items");
     }
 
     private final Runnable mRefreshAppsListRunnable = new Runnable() {
@@ -537,6 +943,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
         public boolean setNotificationsBanned(String pkg, int uid, boolean banned) {
             try {
                 sINM.setNotificationsEnabledForPackage(pkg, uid, !banned);
+                onNotificationStateChanged(pkg);
                 return true;
             } catch (Exception e) {
                Log.w(TAG, "Error calling NoMan", e);
@@ -567,6 +974,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
             try {
                 sINM.setPackagePriority(pkg, uid,
                         highPriority ? Notification.PRIORITY_MAX : Notification.PRIORITY_DEFAULT);
+                onNotificationStateChanged(pkg);
                 return true;
             } catch (Exception e) {
                 Log.w(TAG, "Error calling NoMan", e);
@@ -588,6 +996,7 @@ public class NotificationAppList extends PinnedHeaderListFragment
                 sINM.setPackageVisibilityOverride(pkg, uid,
                         sensitive ? Notification.VISIBILITY_PRIVATE
                                 : NotificationListenerService.Ranking.VISIBILITY_NO_OVERRIDE);
+                onNotificationStateChanged(pkg);
                 return true;
             } catch (Exception e) {
                 Log.w(TAG, "Error calling NoMan", e);
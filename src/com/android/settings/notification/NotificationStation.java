@@ -36,6 +36,8 @@ import android.os.UserHandle;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 import android.util.Log;
+import android.util.LruCache;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -51,19 +53,50 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class NotificationStation extends SettingsPreferenceFragment {
     private static final String TAG = NotificationStation.class.getSimpleName();
 
     private static final boolean DEBUG = false;
 
+    // Number of dismissed notifications loaded and kept in the list
+    private static final int MAX_HISTORY = 50;
+
+    // Number of notification and package icons kept across list reloads
+    private static final int ICON_CACHE_SIZE = 64;
+    private static final int PKG_ICON_CACHE_SIZE = 32;
+
+    // Single low priority worker for the entry icons.  Each list keeps at most
+    // one request on it, see loadNextIcons().
+    private static final ThreadPoolExecutor sIconLoader = new ThreadPoolExecutor(1, 1,
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "NotificationStation Icon Loader");
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    static {
+        sIconLoader.allowCoreThreadTimeOut(true);
+    }
+
     private static class HistoricalNotificationInfo {
+        public String key;
         public String pkg;
         public Drawable pkgicon;
         public CharSequence pkgname;
+        public int iconResId;
         public Drawable icon;
+        public boolean iconsLoaded;
         public CharSequence title;
         public int priority;
         public int user;
@@ -74,10 +107,39 @@ public class NotificationStation extends SettingsPreferenceFragment {
     private PackageManager mPm;
     private INotificationManager mNoMan;
 
-    private Runnable mRefreshListRunnable = new Runnable() {
+    private final Handler mHandler = new Handler();
+    private volatile boolean mResumed;
+
+    // Posted (or removed, when inactive) notifications not yet applied to the list,
+    // guarded by itself.
+    private final List<HistoricalNotificationInfo> mPendingUpdates
+            = new ArrayList<HistoricalNotificationInfo>();
+    private boolean mFrameScheduled;
+
+    // Entries that were shown without their icons, most recent last, and the
+    // one being loaded.  UI thread only, like the icons of the entries.
+    private final ArrayList<HistoricalNotificationInfo> mIconRequests
+            = new ArrayList<HistoricalNotificationInfo>();
+    private HistoricalNotificationInfo mLoadingIconInfo;
+
+    // Loaded icons, kept as constant states so every entry gets its own
+    // drawable.  Keyed by iconKey() and pkgIconKey(), UI thread only.
+    private final LruCache<String, Drawable.ConstantState> mIconCache =
+            new LruCache<String, Drawable.ConstantState>(ICON_CACHE_SIZE);
+    private final LruCache<String, Drawable.ConstantState> mPkgIconCache =
+            new LruCache<String, Drawable.ConstantState>(PKG_ICON_CACHE_SIZE);
+
+    private final Runnable mScheduleFrame = new Runnable() {
         @Override
         public void run() {
-            refreshList();
+            Choreographer.getInstance().postFrameCallback(mApplyUpdates);
+        }
+    };
+
+    private final Choreographer.FrameCallback mApplyUpdates = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyPendingUpdates();
         }
     };
 
@@ -85,16 +147,12 @@ public class NotificationStation extends SettingsPreferenceFragment {
         @Override
         public void onNotificationPosted(StatusBarNotification notification) {
             logd("onNotificationPosted: %s", notification);
-            final Handler h = getListView().getHandler();
-            h.removeCallbacks(mRefreshListRunnable);
-            h.postDelayed(mRefreshListRunnable, 100);
+            postUpdate(notification, true);
         }
 
         @Override
         public void onNotificationRemoved(StatusBarNotification notification) {
-            final Handler h = getListView().getHandler();
-            h.removeCallbacks(mRefreshListRunnable);
-            h.postDelayed(mRefreshListRunnable, 100);
+            postUpdate(notification, false);
         }
     };
 
@@ -106,7 +164,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
                 @Override
                 public int compare(HistoricalNotificationInfo lhs,
                                    HistoricalNotificationInfo rhs) {
-                    return (int)(rhs.timestamp - lhs.timestamp);
+                    return Long.compare(rhs.timestamp, lhs.timestamp);
                 }
             };
 
@@ -145,6 +203,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         Utils.forceCustomPadding(listView, false /* non additive padding */);
 
         mAdapter = new NotificationHistoryAdapter(mContext);
+        mAdapter.setNotifyOnChange(false);
         listView.setAdapter(mAdapter);
     }
 
@@ -152,16 +211,103 @@ public class NotificationStation extends SettingsPreferenceFragment {
     public void onResume() {
         logd("onResume()");
         super.onResume();
+        mResumed = true;
         refreshList();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Updates received while paused are dropped, the list is reloaded on resume
+        mResumed = false;
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+        }
+        mHandler.removeCallbacks(mLoadNextIconsRunnable);
+        mIconRequests.clear();
+    }
+
     private void refreshList() {
         List<HistoricalNotificationInfo> infos = loadNotifications();
         if (infos != null) {
             logd("adding %d infos", infos.size());
+            synchronized (mPendingUpdates) {
+                mPendingUpdates.clear();
+            }
+            Collections.sort(infos, mNotificationSorter);
             mAdapter.clear();
             mAdapter.addAll(infos);
-            mAdapter.sort(mNotificationSorter);
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
+    // Called on the listener thread.
+    private void postUpdate(StatusBarNotification sbn, boolean active) {
+        if (!mResumed) return;
+        final HistoricalNotificationInfo info = createInfo(sbn, active);
+        if (info == null) return;
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.add(info);
+            if (mFrameScheduled) return;
+            mFrameScheduled = true;
+        }
+        mHandler.post(mScheduleFrame);
+    }
+
+    /**
+     * Applies the notifications received since the previous frame to the
+     * list, and notifies it once.
+     */
+    private void applyPendingUpdates() {
+        final List<HistoricalNotificationInfo> updates;
+        synchronized (mPendingUpdates) {
+            mFrameScheduled = false;
+            if (mPendingUpdates.isEmpty()) return;
+            updates = new ArrayList<HistoricalNotificationInfo>(mPendingUpdates);
+            mPendingUpdates.clear();
+        }
+        if (mAdapter == null) return;
+        logd("applying %d updates", updates.size());
+
+        for (int i = 0; i < updates.size(); i++) {
+            final HistoricalNotificationInfo info = updates.get(i);
+            // The active entry for the same notification is replaced by a newer post,
+            // or becomes part of the history when the notification is removed.
+            for (int j = 0; j < mAdapter.getCount(); j++) {
+                final HistoricalNotificationInfo old = mAdapter.getItem(j);
+                if (old.active && info.key.equals(old.key)) {
+                    mAdapter.remove(old);
+                    break;
+                }
+            }
+            mAdapter.insert(info, findInsertionPoint(info));
+        }
+        trimHistory();
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private int findInsertionPoint(HistoricalNotificationInfo info) {
+        int low = 0;
+        int high = mAdapter.getCount();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mNotificationSorter.compare(mAdapter.getItem(mid), info) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void trimHistory() {
+        int dismissed = 0;
+        for (int i = 0; i < mAdapter.getCount(); i++) {
+            final HistoricalNotificationInfo info = mAdapter.getItem(i);
+            if (!info.active && ++dismissed > MAX_HISTORY) {
+                mAdapter.remove(info);
+                i--;
+            }
         }
     }
 
@@ -172,12 +318,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
     }
 
     private List<HistoricalNotificationInfo> loadNotifications() {
-        final int currentUserId = ActivityManager.getCurrentUser();
         try {
             StatusBarNotification[] active = mNoMan.getActiveNotifications(
                     mContext.getPackageName());
             StatusBarNotification[] dismissed = mNoMan.getHistoricalNotifications(
-                    mContext.getPackageName(), 50);
+                    mContext.getPackageName(), MAX_HISTORY);
 
             List<HistoricalNotificationInfo> list
                     = new ArrayList<HistoricalNotificationInfo>(active.length + dismissed.length);
@@ -185,35 +330,8 @@ public class NotificationStation extends SettingsPreferenceFragment {
             for (StatusBarNotification[] resultset
                     : new StatusBarNotification[][] { active, dismissed }) {
                 for (StatusBarNotification sbn : resultset) {
-                    final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
-                    info.pkg = sbn.getPackageName();
-                    info.user = sbn.getUserId();
-                    info.icon = loadIconDrawable(info.pkg, info.user, sbn.getNotification().icon);
-                    info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
-                    info.pkgname = loadPackageName(info.pkg);
-                    if (sbn.getNotification().extras != null) {
-                        info.title = sbn.getNotification().extras.getString(
-                                Notification.EXTRA_TITLE);
-                        if (info.title == null || "".equals(info.title)) {
-                            info.title = sbn.getNotification().extras.getString(
-                                    Notification.EXTRA_TEXT);
-                        }
-                    }
-                    if (info.title == null || "".equals(info.title)) {
-                        info.title = sbn.getNotification().tickerText;
-                    }
-                    // still nothing? come on, give us something!
-                    if (info.title == null || "".equals(info.title)) {
-                        info.title = info.pkgname;
-                    }
-                    info.timestamp = sbn.getPostTime();
-                    info.priority = sbn.getNotification().priority;
-                    logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
-
-                    info.active = (resultset == active);
-
-                    if (info.user == UserHandle.USER_ALL
-                            || info.user == currentUserId) {
+                    final HistoricalNotificationInfo info = createInfo(sbn, resultset == active);
+                    if (info != null) {
                         list.add(info);
                     }
                 }
@@ -226,6 +344,44 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
+    /**
+     * Returns the list entry for a notification of the current user, or null.
+     * Icons are only loaded once the entry is shown.
+     */
+    private HistoricalNotificationInfo createInfo(StatusBarNotification sbn, boolean active) {
+        final int currentUserId = ActivityManager.getCurrentUser();
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.key = sbn.getKey();
+        info.pkg = sbn.getPackageName();
+        info.user = sbn.getUserId();
+        if (info.user != UserHandle.USER_ALL && info.user != currentUserId) {
+            return null;
+        }
+        info.iconResId = sbn.getNotification().icon;
+        info.pkgname = loadPackageName(info.pkg);
+        if (sbn.getNotification().extras != null) {
+            info.title = sbn.getNotification().extras.getString(
+                    Notification.EXTRA_TITLE);
+            if (info.title == null || "".equals(info.title)) {
+                info.title = sbn.getNotification().extras.getString(
+                        Notification.EXTRA_TEXT);
+            }
+        }
+        if (info.title == null || "".equals(info.title)) {
+            info.title = sbn.getNotification().tickerText;
+        }
+        // still nothing? come on, give us something!
+        if (info.title == null || "".equals(info.title)) {
+            info.title = info.pkgname;
+        }
+        info.timestamp = sbn.getPostTime();
+        info.priority = sbn.getNotification().priority;
+        logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+
+        info.active = active;
+        return info;
+    }
+
     private Resources getResourcesForUserPackage(String pkg, int userId) {
         Resources r = null;
 
@@ -301,12 +457,13 @@ public class NotificationStation extends SettingsPreferenceFragment {
             final View row = convertView != null ? convertView : createRow(parent);
             row.setTag(info);
 
-            // bind icon
-            if (info.icon != null) {
-                ((ImageView) row.findViewById(android.R.id.icon)).setImageDrawable(info.icon);
+            // bind icon, loading it first if needed
+            if (!info.iconsLoaded) {
+                applyCachedIcons(info);
             }
-            if (info.pkgicon != null) {
-                ((ImageView) row.findViewById(R.id.pkgicon)).setImageDrawable(info.pkgicon);
+            bindIcons(row, info);
+            if (!info.iconsLoaded) {
+                requestIcons(info);
             }
 
             ((DateTimeView) row.findViewById(R.id.timestamp)).setTime(info.timestamp);
@@ -333,6 +490,135 @@ public class NotificationStation extends SettingsPreferenceFragment {
 
     }
 
+    private static void bindIcons(View row, HistoricalNotificationInfo info) {
+        ((ImageView) row.findViewById(android.R.id.icon)).setImageDrawable(info.icon);
+        ((ImageView) row.findViewById(R.id.pkgicon)).setImageDrawable(info.pkgicon);
+    }
+
+    private static String iconKey(String pkg, int user, int iconResId) {
+        return pkg + ":" + user + ":" + iconResId;
+    }
+
+    private static String pkgIconKey(String pkg, int user) {
+        return pkg + ":" + user;
+    }
+
+    private static Drawable newDrawable(Drawable.ConstantState state) {
+        return state != null ? state.newDrawable() : null;
+    }
+
+    /**
+     * Takes the icons of the entry from the caches if both are there, so that
+     * entries rebuilt by a reload don't load them again.
+     */
+    private void applyCachedIcons(HistoricalNotificationInfo info) {
+        final Drawable.ConstantState pkgicon = mPkgIconCache.get(pkgIconKey(info.pkg, info.user));
+        if (pkgicon == null) {
+            return;
+        }
+        Drawable.ConstantState icon = null;
+        if (info.iconResId != 0) {
+            icon = mIconCache.get(iconKey(info.pkg, info.user, info.iconResId));
+            if (icon == null) {
+                return;
+            }
+        }
+        info.icon = newDrawable(icon);
+        info.pkgicon = newDrawable(pkgicon);
+        info.iconsLoaded = true;
+    }
+
+    private void requestIcons(HistoricalNotificationInfo info) {
+        if (info == mLoadingIconInfo) {
+            return;
+        }
+        mIconRequests.remove(info);
+        mIconRequests.add(info);
+        // Rows are bound during layout, look for them on screen once it is done
+        mHandler.removeCallbacks(mLoadNextIconsRunnable);
+        mHandler.post(mLoadNextIconsRunnable);
+    }
+
+    private final Runnable mLoadNextIconsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loadNextIcons();
+        }
+    };
+
+    /**
+     * Loads the icons of the most recently shown entry that is still on screen.
+     * Requests of entries scrolled away meanwhile are dropped, they are
+     * requested again when shown.
+     */
+    private void loadNextIcons() {
+        if (mLoadingIconInfo != null || getView() == null) {
+            return;
+        }
+        final ListView listView = getListView();
+        while (!mIconRequests.isEmpty()) {
+            final HistoricalNotificationInfo info =
+                    mIconRequests.remove(mIconRequests.size() - 1);
+            if (info.iconsLoaded || findRow(listView, info) == null) {
+                continue;
+            }
+            mLoadingIconInfo = info;
+            final String pkg = info.pkg;
+            final int user = info.user;
+            final int iconResId = info.iconResId;
+            // Other entries of the package may have loaded its icon already
+            final Drawable.ConstantState cachedPkgIcon = mPkgIconCache.get(pkgIconKey(pkg, user));
+            sIconLoader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Drawable icon = loadIconDrawable(pkg, user, iconResId);
+                    final Drawable pkgicon = cachedPkgIcon != null
+                            ? cachedPkgIcon.newDrawable() : loadPackageIconDrawable(pkg, user);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onIconsLoaded(info, icon, pkgicon);
+                        }
+                    });
+                }
+            });
+            return;
+        }
+    }
+
+    private void onIconsLoaded(HistoricalNotificationInfo info, Drawable icon,
+            Drawable pkgicon) {
+        mLoadingIconInfo = null;
+        info.icon = icon;
+        info.pkgicon = pkgicon;
+        info.iconsLoaded = true;
+        if (icon != null && icon.getConstantState() != null) {
+            mIconCache.put(iconKey(info.pkg, info.user, info.iconResId),
+                    icon.getConstantState());
+        }
+        if (pkgicon != null && pkgicon.getConstantState() != null) {
+            mPkgIconCache.put(pkgIconKey(info.pkg, info.user), pkgicon.getConstantState());
+        }
+        if (getView() == null) {
+            return;
+        }
+        final View row = findRow(getListView(), info);
+        if (row != null) {
+            bindIcons(row, info);
+        }
+        loadNextIcons();
+    }
+
+    private static View findRow(ListView listView, HistoricalNotificationInfo info) {
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            final View row = listView.getChildAt(i);
+            if (row.getTag() == info) {
+                return row;
+            }
+        }
+        return null;
+    }
+
     private void startApplicationDetailsActivity(String packageName) {
         Intent intent = new Intent(android.provider.Settings.ACTION_APPLICATION_DETAILS_SETTINGS,
                 Uri.fromParts("package", packageName, null));
@@ -26,6 +26,8 @@ import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.service.notification.Condition;
 import android.service.notification.IConditionListener;
+import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 import android.widget.CheckBox;
@@ -42,6 +44,10 @@ public class ZenModeAutomaticConditionSelection extends LinearLayout {
     private final H mHandler = new H();
     private final Context mContext;
     private final ArraySet<Uri> mSelectedConditions = new ArraySet<Uri>();
+    // Latest condition received for each id, applied once per frame
+    private final ArrayMap<Uri, Condition> mPendingConditions = new ArrayMap<Uri, Condition>();
+    private final ArrayMap<Uri, Condition> mShownConditions = new ArrayMap<Uri, Condition>();
+    private boolean mApplyScheduled;
 
     public ZenModeAutomaticConditionSelection(Context context) {
         super(context);
@@ -111,6 +117,9 @@ public class ZenModeAutomaticConditionSelection extends LinearLayout {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         requestZenModeConditions(0 /*none*/);
+        removeCallbacks(mApplyConditions);
+        mApplyScheduled = false;
+        mPendingConditions.clear();
     }
 
     protected void requestZenModeConditions(int relevance) {
@@ -124,17 +133,41 @@ public class ZenModeAutomaticConditionSelection extends LinearLayout {
 
     protected void handleConditions(Condition[] conditions) {
         for (final Condition c : conditions) {
-            CheckBox v = (CheckBox) findViewWithTag(c.id);
-            if (c.state != Condition.STATE_ERROR) {
-                if (v == null) {
-                    v = newCheckBox(c.id);
-                }
+            mPendingConditions.put(c.id, c);
+        }
+        if (!mApplyScheduled) {
+            mApplyScheduled = true;
+            postOnAnimation(mApplyConditions);
+        }
+    }
+
+    private final Runnable mApplyConditions = new Runnable() {
+        @Override
+        public void run() {
+            mApplyScheduled = false;
+            for (int i = 0; i < mPendingConditions.size(); i++) {
+                applyCondition(mPendingConditions.valueAt(i));
             }
-            if (v != null) {
+            mPendingConditions.clear();
+        }
+    };
+
+    private void applyCondition(Condition c) {
+        final Condition shown = mShownConditions.get(c.id);
+        if (c.equals(shown)) return;
+        CheckBox v = (CheckBox) findViewWithTag(c.id);
+        if (c.state != Condition.STATE_ERROR) {
+            if (v == null) {
+                v = newCheckBox(c.id);
+            }
+        }
+        if (v != null) {
+            if (shown == null || !TextUtils.equals(shown.summary, c.summary)) {
                 v.setText(c.summary);
-                v.setEnabled(c.state != Condition.STATE_ERROR);
-                v.setChecked(mSelectedConditions.contains(c.id));
             }
+            v.setEnabled(c.state != Condition.STATE_ERROR);
+            v.setChecked(mSelectedConditions.contains(c.id));
+            mShownConditions.put(c.id, c);
         }
     }
 
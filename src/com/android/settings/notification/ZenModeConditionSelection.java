@@ -19,6 +19,7 @@ package com.android.settings.notification;
 import android.animation.LayoutTransition;
 import android.app.INotificationManager;
 import android.content.Context;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
 import android.os.RemoteException;
@@ -28,6 +29,7 @@ import android.service.notification.Condition;
 import android.service.notification.IConditionListener;
 import android.service.notification.ZenModeConfig;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.widget.CompoundButton;
 import android.widget.RadioButton;
@@ -46,6 +48,11 @@ public class ZenModeConditionSelection extends RadioGroup {
     private final H mHandler = new H();
     private final Context mContext;
     private final List<Condition> mConditions;
+    // Buttons of the conditions shown, by condition id
+    private final ArrayMap<Uri, RadioButton> mButtons = new ArrayMap<Uri, RadioButton>();
+    // Latest condition received for each id, applied once per frame
+    private final ArrayMap<Uri, Condition> mPendingConditions = new ArrayMap<Uri, Condition>();
+    private boolean mApplyScheduled;
     private Condition mCondition;
 
     public ZenModeConditionSelection(Context context) {
@@ -91,6 +98,9 @@ public class ZenModeConditionSelection extends RadioGroup {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         requestZenModeConditions(0 /*none*/);
+        removeCallbacks(mApplyConditions);
+        mApplyScheduled = false;
+        mPendingConditions.clear();
     }
 
     protected void requestZenModeConditions(int relevance) {
@@ -104,21 +114,48 @@ public class ZenModeConditionSelection extends RadioGroup {
 
     protected void handleConditions(Condition[] conditions) {
         for (Condition c : conditions) {
-            handleCondition(c);
+            mPendingConditions.put(c.id, c);
+        }
+        if (!mApplyScheduled) {
+            mApplyScheduled = true;
+            postOnAnimation(mApplyConditions);
         }
     }
 
+    private final Runnable mApplyConditions = new Runnable() {
+        @Override
+        public void run() {
+            mApplyScheduled = false;
+            for (int i = 0; i < mPendingConditions.size(); i++) {
+                handleCondition(mPendingConditions.valueAt(i));
+            }
+            mPendingConditions.clear();
+        }
+    };
+
     protected void handleCondition(Condition c) {
         if (mConditions.contains(c)) return;
-        RadioButton v = (RadioButton) findViewWithTag(c.id);
+        RadioButton v = mButtons.get(c.id);
         if (c.state == Condition.STATE_TRUE || c.state == Condition.STATE_UNKNOWN) {
             if (v == null) {
                 v = newRadioButton(c);
+                mButtons.put(c.id, v);
             }
         }
         if (v != null) {
-            v.setText(!TextUtils.isEmpty(c.line1) ? c.line1 : c.summary);
+            final Condition shown = (Condition) v.getTag();
+            final CharSequence text = !TextUtils.isEmpty(c.line1) ? c.line1 : c.summary;
+            if (!TextUtils.equals(text, v.getText())) {
+                v.setText(text);
+            }
             v.setEnabled(c.state == Condition.STATE_TRUE);
+            v.setTag(c);
+            if (shown != null && shown != c) {
+                mConditions.remove(shown);
+                if (mCondition == shown) {
+                    mCondition = c;
+                }
+            }
         }
         mConditions.add(c);
     }
@@ -28,7 +28,6 @@ import android.app.TimePickerDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnDismissListener;
-import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.net.Uri;
@@ -58,6 +57,7 @@ import com.android.settings.search.SearchIndexableRaw;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Objects;
@@ -143,9 +143,11 @@ public class ZenModeSettings extends SettingsPreferenceFragment implements Index
     private final SettingsObserver mSettingsObserver = new SettingsObserver();
 
     private Context mContext;
-    private PackageManager mPM;
     private ZenModeConfig mConfig;
+    // The config the controls currently show, null until they are first bound
+    private ZenModeConfig mBoundConfig;
     private boolean mDisableListeners;
+    private boolean mAutomationStale;
     private SwitchPreference mCalls;
     private SwitchPreference mMessages;
     private DropDownPreference mStarred;
@@ -164,7 +166,6 @@ public class ZenModeSettings extends SettingsPreferenceFragment implements Index
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mContext = getActivity();
-        mPM = mContext.getPackageManager();
 
         addPreferencesFromResource(R.xml.zen_mode_settings);
         final PreferenceScreen root = getPreferenceScreen();
@@ -423,24 +424,61 @@ public class ZenModeSettings extends SettingsPreferenceFragment implements Index
         mEnd.setSummaryFormat(summaryFormat);
     }
 
+    /**
+     * Binds mConfig to the controls, only touching the ones whose backing
+     * fields differ from the previously bound config.
+     */
     private void updateControls() {
+        final ZenModeConfig old = mBoundConfig;
+        final ZenModeConfig config = mConfig;
+        if (old == config) return;
+        mBoundConfig = config;
+        final boolean all = old == null;
+
         mDisableListeners = true;
-        if (mCalls != null) {
-            mCalls.setChecked(mConfig.allowCalls);
+        if (mCalls != null && (all || old.allowCalls != config.allowCalls)) {
+            mCalls.setChecked(config.allowCalls);
+        }
+        if (all || old.allowMessages != config.allowMessages) {
+            mMessages.setChecked(config.allowMessages);
+        }
+        if (all || old.allowFrom != config.allowFrom) {
+            mStarred.setSelectedValue(config.allowFrom);
         }
-        mMessages.setChecked(mConfig.allowMessages);
-        mStarred.setSelectedValue(mConfig.allowFrom);
-        mEvents.setChecked(mConfig.allowEvents);
-        updateStarredEnabled();
+        if (all || old.allowEvents != config.allowEvents) {
+            mEvents.setChecked(config.allowEvents);
+        }
+        if (all || old.allowCalls != config.allowCalls
+                || old.allowMessages != config.allowMessages) {
+            updateStarredEnabled();
+        }
+        final boolean startChanged = all || old.sleepStartHour != config.sleepStartHour
+                || old.sleepStartMinute != config.sleepStartMinute;
+        final boolean endChanged = all || old.sleepEndHour != config.sleepEndHour
+                || old.sleepEndMinute != config.sleepEndMinute;
+        final boolean sleepNoneChanged = all || old.sleepNone != config.sleepNone;
         if (mDowntimeSupported) {
-            updateDays();
-            mStart.setTime(mConfig.sleepStartHour, mConfig.sleepStartMinute);
-            mEnd.setTime(mConfig.sleepEndHour, mConfig.sleepEndMinute);
-            mDowntimeMode.setSelectedValue(mConfig.sleepNone);
+            if (all || !Objects.equals(old.sleepMode, config.sleepMode)) {
+                updateDays();
+            }
+            if (startChanged) {
+                mStart.setTime(config.sleepStartHour, config.sleepStartMinute);
+            }
+            if (endChanged) {
+                mEnd.setTime(config.sleepEndHour, config.sleepEndMinute);
+            }
+            if (sleepNoneChanged) {
+                mDowntimeMode.setSelectedValue(config.sleepNone);
+            }
         }
         mDisableListeners = false;
-        refreshAutomationSection();
-        updateEndSummary();
+        if (all || !Arrays.equals(old.conditionComponents, config.conditionComponents)
+                || !Arrays.equals(old.conditionIds, config.conditionIds)) {
+            refreshAutomationSection();
+        }
+        if (startChanged || endChanged || sleepNoneChanged) {
+            updateEndSummary();
+        }
     }
 
     private void updateStarredEnabled() {
@@ -449,7 +487,7 @@ public class ZenModeSettings extends SettingsPreferenceFragment implements Index
 
     private void refreshAutomationSection() {
         if (mConditionProviders != null) {
-            final int total = ConditionProviderSettings.getProviderCount(mPM);
+            final int total = ConditionProviderSettings.getProviderCount(mContext);
             if (total == 0) {
                 getPreferenceScreen().removePreference(mAutomationCategory);
             } else {
@@ -496,13 +534,20 @@ public class ZenModeSettings extends SettingsPreferenceFragment implements Index
     @Override
     public void onResume() {
         super.onResume();
+        updateZenModeConfig();
         updateControls();
+        if (mAutomationStale) {
+            // Providers may have been enabled or disabled while paused
+            refreshAutomationSection();
+            mAutomationStale = false;
+        }
         mSettingsObserver.register();
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        mAutomationStale = true;
         mSettingsObserver.unregister();
     }
 
@@ -533,8 +578,7 @@ public class ZenModeSettings extends SettingsPreferenceFragment implements Index
             if (success) {
                 mConfig = config;
                 if (DEBUG) Log.d(TAG, "Saved mConfig=" + mConfig);
-                updateEndSummary();
-                updateStarredEnabled();
+                updateControls();
             }
             return success;
         } catch (Exception e) {
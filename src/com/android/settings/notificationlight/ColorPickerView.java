@@ -20,21 +20,17 @@ package com.android.settings.notificationlight;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ComposeShader;
-import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.Point;
-import android.graphics.PorterDuff.Mode;
 import android.graphics.RectF;
-import android.graphics.Shader;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
-import android.graphics.Shader.TileMode;
-import android.os.Build;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
+import net.margaritov.preference.colorpicker.ColorPickerRenderer;
+
 /**
  * Displays a color picker to the user and allow them to select a color. A
  * slider for the alpha channel is also available. Enable it by setting
@@ -83,21 +79,21 @@ public class ColorPickerView extends View {
 
     private OnColorChangedListener mListener;
 
-    private Paint mSatValPaint;
     private Paint mSatValTrackerPaint;
-
-    private Paint mHuePaint;
     private Paint mHueTrackerPaint;
-
-    private Paint mAlphaPaint;
     private Paint mAlphaTextPaint;
-
     private Paint mBorderPaint;
 
-    private Shader mValShader;
-    private Shader mSatShader;
-    private Shader mHueShader;
-    private Shader mAlphaShader;
+    private final ColorPickerRenderer mRenderer = new ColorPickerRenderer();
+
+    /*
+     * Reused while drawing and tracking so that dragging the trackers does not
+     * allocate.
+     */
+    private final float[] mHsv = new float[3];
+    private final Point mTrackerPoint = new Point();
+    private final RectF mTrackerRect = new RectF();
+    private final float[] mSatValResult = new float[2];
 
     private int mAlpha = 0xff;
     private float mHue = 360f;
@@ -165,11 +161,8 @@ public class ColorPickerView extends View {
     }
 
     private void initPaintTools() {
-        mSatValPaint = new Paint();
         mSatValTrackerPaint = new Paint();
-        mHuePaint = new Paint();
         mHueTrackerPaint = new Paint();
-        mAlphaPaint = new Paint();
         mAlphaTextPaint = new Paint();
         mBorderPaint = new Paint();
 
@@ -196,16 +189,11 @@ public class ColorPickerView extends View {
         return offset * 1.5f;
     }
 
-    private int[] buildHueColorArray() {
-        int[] hue = new int[361];
-
-        int count = 0;
-        for (int i = hue.length - 1; i >= 0; i--, count++) {
-            hue[count] = Color.HSVToColor(new float[] {
-                    i, 1f, 1f
-            });
-        }
-        return hue;
+    private int currentColor(int alpha) {
+        mHsv[0] = mHue;
+        mHsv[1] = mSat;
+        mHsv[2] = mVal;
+        return Color.HSVToColor(alpha, mHsv);
     }
 
     @Override
@@ -220,9 +208,6 @@ public class ColorPickerView extends View {
 
     private void drawSatValPanel(Canvas canvas) {
         final RectF rect = mSatValRect;
-        int rgb = Color.HSVToColor(new float[] {
-                mHue, 1f, 1f
-        });
 
         if (BORDER_WIDTH_PX > 0) {
             mBorderPaint.setColor(mBorderColor);
@@ -230,21 +215,7 @@ public class ColorPickerView extends View {
                     rect.bottom + BORDER_WIDTH_PX, mBorderPaint);
         }
 
-        // On Honeycomb+ we need to use software rendering to create the shader properly
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-        }
-
-        // Get the overlaying gradients ready and create the ComposeShader
-        if (mValShader == null) {
-            mValShader = new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
-                    0xffffffff, 0xff000000, TileMode.CLAMP);
-        }
-        mSatShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                0xffffffff, rgb, TileMode.CLAMP);
-        ComposeShader mShader = new ComposeShader(mValShader, mSatShader, Mode.MULTIPLY);
-        mSatValPaint.setShader(mShader);
-        canvas.drawRect(rect, mSatValPaint);
+        mRenderer.drawSatValPanel(canvas, rect, mHue);
 
         Point p = satValToPoint(mSat, mVal);
         mSatValTrackerPaint.setColor(0xff000000);
@@ -267,19 +238,13 @@ public class ColorPickerView extends View {
                     mBorderPaint);
         }
 
-        if (mHueShader == null) {
-            mHueShader = new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
-                    buildHueColorArray(), null, TileMode.CLAMP);
-            mHuePaint.setShader(mHueShader);
-        }
-
-        canvas.drawRect(rect, mHuePaint);
+        mRenderer.drawHuePanel(canvas, rect);
 
         float rectHeight = 4 * mDensity / 2;
 
         Point p = hueToPoint(mHue);
 
-        RectF r = new RectF();
+        final RectF r = mTrackerRect;
         r.left = rect.left - RECTANGLE_TRACKER_OFFSET;
         r.right = rect.right + RECTANGLE_TRACKER_OFFSET;
         r.top = p.y - rectHeight;
@@ -307,18 +272,7 @@ public class ColorPickerView extends View {
 
         mAlphaPattern.draw(canvas);
 
-        float[] hsv = new float[] {
-                mHue, mSat, mVal
-        };
-        int color = Color.HSVToColor(hsv);
-        int acolor = Color.HSVToColor(0, hsv);
-
-        mAlphaShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                color, acolor, TileMode.CLAMP);
-
-        mAlphaPaint.setShader(mAlphaShader);
-
-        canvas.drawRect(rect, mAlphaPaint);
+        mRenderer.drawAlphaPanel(canvas, rect, currentColor(0xff));
 
         if (mAlphaSliderText != null && mAlphaSliderText != "") {
             canvas.drawText(mAlphaSliderText, rect.centerX(), rect.centerY() + 4 * mDensity,
@@ -328,7 +282,7 @@ public class ColorPickerView extends View {
         float rectWidth = 4 * mDensity / 2;
         Point p = alphaToPoint(mAlpha);
 
-        RectF r = new RectF();
+        final RectF r = mTrackerRect;
         r.left = p.x - rectWidth;
         r.right = p.x + rectWidth;
         r.top = rect.top - RECTANGLE_TRACKER_OFFSET;
@@ -341,7 +295,7 @@ public class ColorPickerView extends View {
         final RectF rect = mHueRect;
         final float height = rect.height();
 
-        Point p = new Point();
+        final Point p = mTrackerPoint;
         p.y = (int) (height - (hue * height / 360f) + rect.top);
         p.x = (int) rect.left;
         return p;
@@ -353,7 +307,7 @@ public class ColorPickerView extends View {
         final float height = rect.height();
         final float width = rect.width();
 
-        Point p = new Point();
+        final Point p = mTrackerPoint;
 
         p.x = (int) (sat * width + rect.left);
         p.y = (int) ((1f - val) * height + rect.top);
@@ -365,7 +319,7 @@ public class ColorPickerView extends View {
         final RectF rect = mAlphaRect;
         final float width = rect.width();
 
-        Point p = new Point();
+        final Point p = mTrackerPoint;
         p.x = (int) (width - (alpha * width / 0xff) + rect.left);
         p.y = (int) rect.top;
         return p;
@@ -373,7 +327,7 @@ public class ColorPickerView extends View {
 
     private float[] pointToSatVal(float x, float y) {
         final RectF rect = mSatValRect;
-        float[] result = new float[2];
+        final float[] result = mSatValResult;
         float width = rect.width();
         float height = rect.height();
 
@@ -483,9 +437,7 @@ public class ColorPickerView extends View {
 
         if (update) {
             if (mListener != null) {
-                mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[] {
-                        mHue, mSat, mVal
-                }));
+                mListener.onColorChanged(currentColor(mAlpha));
             }
             invalidate();
             return true;
@@ -514,9 +466,7 @@ public class ColorPickerView extends View {
         if (update) {
             requestFocus();
             if (mListener != null) {
-                mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[] {
-                        mHue, mSat, mVal
-                }));
+                mListener.onColorChanged(currentColor(mAlpha));
             }
             invalidate();
             return true;
@@ -624,6 +574,12 @@ public class ColorPickerView extends View {
         return height;
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mRenderer.release();
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
@@ -717,9 +673,7 @@ public class ColorPickerView extends View {
      * @return the current color.
      */
     public int getColor() {
-        return Color.HSVToColor(mAlpha, new float[] {
-                mHue, mSat, mVal
-        });
+        return currentColor(mAlpha);
     }
 
     /**
@@ -752,9 +706,7 @@ public class ColorPickerView extends View {
         mVal = hsv[2];
 
         if (callback && mListener != null) {
-            mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[] {
-                    mHue, mSat, mVal
-            }));
+            mListener.onColorChanged(currentColor(mAlpha));
         }
         invalidate();
     }
@@ -780,15 +732,6 @@ public class ColorPickerView extends View {
     public void setAlphaSliderVisible(boolean visible) {
         if (mShowAlphaPanel != visible) {
             mShowAlphaPanel = visible;
-
-            /*
-             * Reset all shader to force a recreation. Otherwise they will not
-             * look right after the size of the view has changed.
-             */
-            mValShader = null;
-            mSatShader = null;
-            mHueShader = null;
-            mAlphaShader = null;
             requestLayout();
         }
 
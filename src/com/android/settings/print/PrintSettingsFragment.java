@@ -61,6 +61,7 @@ import com.android.settings.UserSpinnerAdapter;
 import com.android.settings.UserSpinnerAdapter.UserDetails;
 import com.android.settings.DialogCreatable;
 import com.android.settings.R;
+import com.android.settings.ResolveInfoCache;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 import com.android.settings.search.BaseSearchIndexProvider;
@@ -205,7 +206,7 @@ public class PrintSettingsFragment extends SettingsPreferenceFragment
         List<ComponentName> enabledServices = PrintSettingsUtils
                 .readEnabledPrintServices(getActivity());
 
-        List<ResolveInfo> installedServices = getActivity().getPackageManager()
+        List<ResolveInfo> installedServices = ResolveInfoCache.getInstance(getActivity())
                 .queryIntentServices(
                         new Intent(android.printservice.PrintService.SERVICE_INTERFACE),
                         PackageManager.GET_SERVICES | PackageManager.GET_META_DATA);
@@ -314,21 +315,29 @@ public class PrintSettingsFragment extends SettingsPreferenceFragment
     private class SettingsPackageMonitor extends PackageMonitor {
         @Override
         public void onPackageAdded(String packageName, int uid) {
-            mHandler.obtainMessage().sendToTarget();
+            onPackageChanged(packageName, false);
         }
 
         @Override
         public void onPackageAppeared(String packageName, int reason) {
-            mHandler.obtainMessage().sendToTarget();
+            onPackageChanged(packageName, false);
         }
 
         @Override
         public void onPackageDisappeared(String packageName, int reason) {
-            mHandler.obtainMessage().sendToTarget();
+            onPackageChanged(packageName, true);
         }
 
         @Override
         public void onPackageRemoved(String packageName, int uid) {
+            onPackageChanged(packageName, true);
+        }
+
+        private void onPackageChanged(String packageName, boolean removed) {
+            // The services are listed through the cache, which may not have
+            // seen this change yet
+            ResolveInfoCache.getInstance(getActivity()).onPackageChanged(packageName,
+                    getChangingUserId(), removed);
             mHandler.obtainMessage().sendToTarget();
         }
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.profiles;
+
+import android.app.Profile;
+import android.app.ProfileManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.util.Log;
+
+/**
+ * Collects the edits made to a profile and sends them to the profile service
+ * as a single update.
+ *
+ * Every edit restarts a short delay after which the whole profile is written
+ * once; {@link #flush()} writes it right away, e.g. when the editor is paused
+ * or hands the profile to another screen.
+ */
+final class ProfileEditSession {
+    private static final String TAG = "ProfileEditSession";
+    private static final boolean DEBUG = false;
+
+    private static final long COMMIT_DELAY = 1000;
+
+    private final ProfileManager mProfileManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // All of the following are guarded by 'this'.
+    private Profile mProfile;
+    private boolean mDirty;
+    private int mEdits;
+    private int mCommits;
+    private long mBytesSent;
+
+    private final Runnable mCommit = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ProfileEditSession(ProfileManager profileManager, Profile profile) {
+        mProfileManager = profileManager;
+        mProfile = profile;
+    }
+
+    /**
+     * Sets the profile being edited, e.g. after it was reloaded from the
+     * service. Pending edits of the previous instance are dropped.
+     */
+    synchronized void setProfile(Profile profile) {
+        mProfile = profile;
+        discard();
+    }
+
+    /**
+     * Records that the profile was changed. May be called from any thread.
+     */
+    void markDirty() {
+        synchronized (this) {
+            mDirty = true;
+            mEdits++;
+        }
+        mHandler.removeCallbacks(mCommit);
+        mHandler.postDelayed(mCommit, COMMIT_DELAY);
+    }
+
+    /**
+     * Writes the pending edits, if any, to the profile service.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mCommit);
+        final Profile profile;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            mDirty = false;
+            profile = mProfile;
+        }
+
+        final Parcel parcel = Parcel.obtain();
+        profile.writeToParcel(parcel, 0);
+        final int size = parcel.dataSize();
+        parcel.recycle();
+
+        mProfileManager.updateProfile(profile);
+
+        synchronized (this) {
+            mCommits++;
+            mBytesSent += size;
+            if (DEBUG) Log.d(TAG, "Committed " + mEdits + " edits in " + mCommits
+                    + " updates, " + mBytesSent + " bytes");
+        }
+    }
+
+    /**
+     * Drops the pending edits, e.g. because the profile was removed or
+     * added as a whole.
+     */
+    void discard() {
+        mHandler.removeCallbacks(mCommit);
+        synchronized (this) {
+            mDirty = false;
+        }
+    }
+
+    /** Number of edits recorded in this session. */
+    synchronized int getEditCount() {
+        return mEdits;
+    }
+
+    /** Number of updates sent to, and persisted by, the profile service. */
+    synchronized int getCommitCount() {
+        return mCommits;
+    }
+
+    /** Size of the profiles marshalled by these updates, in bytes. */
+    synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+}
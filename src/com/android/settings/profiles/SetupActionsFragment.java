@@ -113,6 +113,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
     Profile mProfile;
     ItemListAdapter mAdapter;
     ProfileManager mProfileManager;
+    ProfileEditSession mEditSession;
     ListView mListView;
 
     boolean mNewProfileMode;
@@ -155,6 +156,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
         }
 
         mProfileManager = (ProfileManager) getActivity().getSystemService(Context.PROFILE_SERVICE);
+        mEditSession = new ProfileEditSession(mProfileManager, mProfile);
         mAdapter = new ItemListAdapter(getActivity(), mItems);
         rebuildItemList();
 
@@ -274,6 +276,12 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
         super.onResume();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mEditSession.flush();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
@@ -342,7 +350,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
     }
 
     private void updateProfile() {
-        mProfileManager.updateProfile(mProfile);
+        mEditSession.markDirty();
     }
 
     @Override
@@ -506,6 +514,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
             @Override
             public void onClick(DialogInterface dialog, int which) {
                 dialog.dismiss();
+                mEditSession.discard();
                 mProfileManager.removeProfile(mProfile);
                 finishFragment();
             }
@@ -629,6 +638,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == NEW_TRIGGER_REQUEST_CODE) {
             mProfile = mProfileManager.getProfile(mProfile.getUuid());
+            mEditSession.setProfile(mProfile);
             rebuildItemList();
         }
     }
@@ -961,6 +971,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
             view.findViewById(R.id.finish).setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
+                    mEditSession.discard();
                     mProfileManager.addProfile(mProfile);
 
                     getActivity().setResult(Activity.RESULT_OK);
@@ -1016,7 +1027,8 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
     }
 
     private void startProfileGroupActivity(AppGroupItem item) {
-            Bundle args = new Bundle();
+        mEditSession.flush();
+        Bundle args = new Bundle();
         args.putString("ProfileGroup", item.getGroupUuid().toString());
         args.putParcelable("Profile", mProfile);
 
@@ -1024,6 +1036,7 @@ public class SetupActionsFragment extends SettingsPreferenceFragment
     }
 
     private void openTriggersFragment(int openTo) {
+        mEditSession.flush();
         Bundle args = new Bundle();
         args.putParcelable(ProfilesSettings.EXTRA_PROFILE,  mProfile);
         args.putBoolean(ProfilesSettings.EXTRA_NEW_PROFILE, false);
@@ -29,11 +29,14 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.print.PrintManager;
 import android.printservice.PrintService;
 import android.printservice.PrintServiceInfo;
 import android.provider.UserDictionary;
+import android.util.ArrayMap;
+import android.util.Log;
 import android.view.accessibility.AccessibilityManager;
 import android.view.inputmethod.InputMethodInfo;
 import android.view.inputmethod.InputMethodManager;
@@ -45,30 +48,51 @@ import com.android.settings.print.PrintSettingsFragment;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Keeps the search index up to date with the installed accessibility, print and
+ * input method services, input devices and user dictionary.
+ *
+ * Changes are not indexed one by one: the affected packages and indexable
+ * classes are collected until no change was received for
+ * {@link #DELAY_PROCESS_PACKAGE_CHANGE} (or for at most {@link #MAX_REINDEX_DELAY}
+ * while changes keep coming), and every affected class is then reindexed once
+ * by a single index update.
+ */
 public final class DynamicIndexableContentMonitor extends PackageMonitor implements
         InputManager.InputDeviceListener {
 
+    private static final String TAG = "DynamicIndexableContentMonitor";
+    private static final boolean DEBUG = false;
+
     private static final long DELAY_PROCESS_PACKAGE_CHANGE = 2000;
+    private static final long MAX_REINDEX_DELAY = 10000;
+
+    private static final int MSG_REINDEX = 1;
 
-    private static final int MSG_PACKAGE_AVAILABLE = 1;
-    private static final int MSG_PACKAGE_UNAVAILABLE = 2;
+    private static final int PACKAGE_UNAVAILABLE = 0;
+    private static final int PACKAGE_AVAILABLE = 1;
+    // Disappeared and appeared again, as for an update or a reinstall.
+    private static final int PACKAGE_REPLACED = 2;
 
     private final List<String> mAccessibilityServices = new ArrayList<String>();
     private final List<String> mPrintServices = new ArrayList<String>();
     private final List<String> mImeServices = new ArrayList<String>();
 
+    // Changed packages, mapped to one of the PACKAGE_* transitions.
+    private final ArrayMap<String, Integer> mPendingPackages = new ArrayMap<String, Integer>();
+    // Indexable classes to reindex, mapped to whether they have to be rebuilt.
+    private final ArrayMap<String, Boolean> mPendingClasses = new ArrayMap<String, Boolean>();
+    private long mFirstPendingTime;
+
+    private int mEventCount;
+    private int mReindexCount;
+
     private final Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case MSG_PACKAGE_AVAILABLE: {
-                    String packageName = (String) msg.obj;
-                    handlePackageAvailable(packageName);
-                } break;
-
-                case MSG_PACKAGE_UNAVAILABLE: {
-                    String packageName = (String) msg.obj;
-                    handlePackageUnavailable(packageName);
+                case MSG_REINDEX: {
+                    reindex();
                 } break;
             }
         }
@@ -177,21 +201,35 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                     mUserDictionaryContentObserver);
         }
 
+        mHandler.removeMessages(MSG_REINDEX);
+        mPendingPackages.clear();
+        mPendingClasses.clear();
+
         mAccessibilityServices.clear();
         mPrintServices.clear();
         mImeServices.clear();
     }
 
+    /** Number of changes received since this monitor was created. */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /** Number of index updates these changes resulted in. */
+    public int getReindexCount() {
+        return mReindexCount;
+    }
+
     // Covers installed, appeared external storage with the package, upgraded.
     @Override
     public void onPackageAppeared(String packageName, int uid) {
-        postMessage(MSG_PACKAGE_AVAILABLE, packageName);
+        postPackageChange(packageName, true);
     }
 
     // Covers uninstalled, removed external storage with the package.
     @Override
     public void onPackageDisappeared(String packageName, int uid) {
-        postMessage(MSG_PACKAGE_UNAVAILABLE, packageName);
+        postPackageChange(packageName, false);
     }
 
     // Covers enabled, disabled.
@@ -202,16 +240,15 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 packageName);
         if (state == PackageManager.COMPONENT_ENABLED_STATE_DEFAULT
                 || state ==  PackageManager.COMPONENT_ENABLED_STATE_ENABLED) {
-            postMessage(MSG_PACKAGE_AVAILABLE, packageName);
+            postPackageChange(packageName, true);
         } else {
-            postMessage(MSG_PACKAGE_UNAVAILABLE, packageName);
+            postPackageChange(packageName, false);
         }
     }
 
     @Override
     public void onInputDeviceAdded(int deviceId) {
-        Index.getInstance(mContext).updateFromClassNameResource(
-                InputMethodAndLanguageSettings.class.getName(), false, true);
+        postReindex(InputMethodAndLanguageSettings.class.getName(), false);
     }
 
     @Override
@@ -221,13 +258,73 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
 
     @Override
     public void onInputDeviceChanged(int deviceId) {
-        Index.getInstance(mContext).updateFromClassNameResource(
-                InputMethodAndLanguageSettings.class.getName(), true, true);
+        postReindex(InputMethodAndLanguageSettings.class.getName(), true);
+    }
+
+    private void postPackageChange(String packageName, boolean available) {
+        final Integer pending = mPendingPackages.get(packageName);
+        final int transition;
+        if (!available) {
+            transition = PACKAGE_UNAVAILABLE;
+        } else if (pending != null && pending != PACKAGE_AVAILABLE) {
+            // Keep the removal, the new version may have dropped services.
+            transition = PACKAGE_REPLACED;
+        } else {
+            transition = PACKAGE_AVAILABLE;
+        }
+        mPendingPackages.put(packageName, transition);
+        scheduleReindex();
+    }
+
+    private void postReindex(String className, boolean rebuild) {
+        addPendingClass(className, rebuild);
+        scheduleReindex();
+    }
+
+    private void addPendingClass(String className, boolean rebuild) {
+        final Boolean pending = mPendingClasses.get(className);
+        mPendingClasses.put(className, rebuild || (pending != null && pending));
     }
 
-    private void postMessage(int what, String packageName) {
-        Message message = mHandler.obtainMessage(what, packageName);
-        mHandler.sendMessageDelayed(message, DELAY_PROCESS_PACKAGE_CHANGE);
+    /**
+     * Restarts the quiet window, without postponing the reindex past
+     * {@link #MAX_REINDEX_DELAY} after the first pending change.
+     */
+    private void scheduleReindex() {
+        mEventCount++;
+        final long now = SystemClock.uptimeMillis();
+        if (!mHandler.hasMessages(MSG_REINDEX)) {
+            mFirstPendingTime = now;
+        }
+        final long delay = Math.min(DELAY_PROCESS_PACKAGE_CHANGE,
+                Math.max(0, mFirstPendingTime + MAX_REINDEX_DELAY - now));
+        mHandler.removeMessages(MSG_REINDEX);
+        mHandler.sendEmptyMessageDelayed(MSG_REINDEX, delay);
+    }
+
+    private void reindex() {
+        final int packageCount = mPendingPackages.size();
+        for (int i = 0; i < packageCount; i++) {
+            final String packageName = mPendingPackages.keyAt(i);
+            final int transition = mPendingPackages.valueAt(i);
+            if (transition != PACKAGE_AVAILABLE) {
+                handlePackageUnavailable(packageName);
+            }
+            if (transition != PACKAGE_UNAVAILABLE) {
+                handlePackageAvailable(packageName);
+            }
+        }
+        mPendingPackages.clear();
+
+        if (!mPendingClasses.isEmpty()) {
+            final ArrayMap<String, Boolean> classNames =
+                    new ArrayMap<String, Boolean>(mPendingClasses);
+            mPendingClasses.clear();
+            Index.getInstance(mContext).updateFromClassNameResources(classNames, true);
+            mReindexCount++;
+            if (DEBUG) Log.d(TAG, "Reindexed " + classNames.keySet() + " after "
+                    + mEventCount + " changes, " + mReindexCount + " updates so far");
+        }
     }
 
     private void handlePackageAvailable(String packageName) {
@@ -235,8 +332,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             final Intent intent = getAccessibilityServiceIntent(packageName);
             if (!mContext.getPackageManager().queryIntentServices(intent, 0).isEmpty()) {
                 mAccessibilityServices.add(packageName);
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        AccessibilitySettings.class.getName(), false, true);
+                addPendingClass(AccessibilitySettings.class.getName(), false);
             }
         }
 
@@ -245,8 +341,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 final Intent intent = getPrintServiceIntent(packageName);
                 if (!mContext.getPackageManager().queryIntentServices(intent, 0).isEmpty()) {
                     mPrintServices.add(packageName);
-                    Index.getInstance(mContext).updateFromClassNameResource(
-                            PrintSettingsFragment.class.getName(), false, true);
+                    addPendingClass(PrintSettingsFragment.class.getName(), false);
                 }
             }
         }
@@ -256,8 +351,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 Intent intent = getIMEServiceIntent(packageName);
                 if (!mContext.getPackageManager().queryIntentServices(intent, 0).isEmpty()) {
                     mImeServices.add(packageName);
-                    Index.getInstance(mContext).updateFromClassNameResource(
-                            InputMethodAndLanguageSettings.class.getName(), false, true);
+                    addPendingClass(InputMethodAndLanguageSettings.class.getName(), false);
                 }
             }
         }
@@ -267,16 +361,14 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
         final int accessibilityIndex = mAccessibilityServices.indexOf(packageName);
         if (accessibilityIndex >= 0) {
             mAccessibilityServices.remove(accessibilityIndex);
-            Index.getInstance(mContext).updateFromClassNameResource(
-                    AccessibilitySettings.class.getName(), true, true);
+            addPendingClass(AccessibilitySettings.class.getName(), true);
         }
 
         if (mHasFeaturePrinting) {
             final int printIndex = mPrintServices.indexOf(packageName);
             if (printIndex >= 0) {
                 mPrintServices.remove(printIndex);
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        PrintSettingsFragment.class.getName(), true, true);
+                addPendingClass(PrintSettingsFragment.class.getName(), true);
             }
         }
 
@@ -284,8 +376,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             final int imeIndex = mImeServices.indexOf(packageName);
             if (imeIndex >= 0) {
                 mImeServices.remove(imeIndex);
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        InputMethodAndLanguageSettings.class.getName(), true, true);
+                addPendingClass(InputMethodAndLanguageSettings.class.getName(), true);
             }
         }
     }
@@ -299,8 +390,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             if (UserDictionary.Words.CONTENT_URI.equals(uri)) {
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        InputMethodAndLanguageSettings.class.getName(), true, true);
+                postReindex(InputMethodAndLanguageSettings.class.getName(), true);
             }
         };
     }
@@ -28,7 +28,7 @@ import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
-import android.database.MergeCursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -204,6 +204,7 @@ public class Index {
     private final UpdateData mDataToProcess = new UpdateData();
     private Context mContext;
     private final String mBaseAuthority;
+    private final SearchResultCache mResultCache = new SearchResultCache();
 
     /**
      * A basic singleton
@@ -231,12 +232,18 @@ public class Index {
     }
 
     public Cursor search(String query) {
+        final String locale = Locale.getDefault().toString();
+        SearchResultCache.Result result = mResultCache.getResults(locale, query);
+        if (result != null) {
+            return result.newCursor();
+        }
+        final int generation = mResultCache.getGeneration();
+
         final SQLiteDatabase database = getReadableDatabase();
-        final Cursor[] cursors = new Cursor[2];
 
         final String primarySql = buildSearchSQL(query, MATCH_COLUMNS_PRIMARY, true);
         Log.d(LOG_TAG, "Search primary query: " + primarySql);
-        cursors[0] = database.rawQuery(primarySql, null);
+        final Cursor primary = database.rawQuery(primarySql, null);
 
         // We need to use an EXCEPT operator as negate MATCH queries do not work.
         StringBuilder sql = new StringBuilder(
@@ -246,15 +253,52 @@ public class Index {
 
         final String secondarySql = sql.toString();
         Log.d(LOG_TAG, "Search secondary query: " + secondarySql);
-        cursors[1] = database.rawQuery(secondarySql, null);
+        final Cursor secondary = database.rawQuery(secondarySql, null);
 
-        return new MergeCursor(cursors);
+        result = SearchResultCache.Result.fromCursors(SELECT_COLUMNS, primary, secondary);
+        mResultCache.putResults(locale, query, result, generation);
+        return result.newCursor();
     }
 
     public Cursor getSuggestions(String query) {
-        final String sql = buildSuggestionsSQL(query);
-        Log.d(LOG_TAG, "Suggestions query: " + sql);
-        return getReadableDatabase().rawQuery(sql, null);
+        List<String> suggestions = mResultCache.getSuggestions(query);
+        if (suggestions == null) {
+            final int generation = mResultCache.getGeneration();
+            final String sql = buildSuggestionsSQL(query);
+            Log.d(LOG_TAG, "Suggestions query: " + sql);
+            final Cursor cursor = getReadableDatabase().rawQuery(sql, null);
+            suggestions = new ArrayList<String>();
+            try {
+                while (cursor.moveToNext()) {
+                    suggestions.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            mResultCache.putSuggestions(query, suggestions, generation);
+        }
+        final MatrixCursor cursor = new MatrixCursor(
+                new String[] { IndexDatabaseHelper.SavedQueriesColums.QUERY },
+                suggestions.size());
+        for (int i = 0; i < suggestions.size(); i++) {
+            cursor.addRow(new Object[] { suggestions.get(i) });
+        }
+        return cursor;
+    }
+
+    /** Number of searches answered from cached results, directly or by narrowing. */
+    public int getQueryCacheHits() {
+        return mResultCache.getHitCount() + mResultCache.getPrefixHitCount();
+    }
+
+    /** Number of searches answered by narrowing the cached results of a shorter query. */
+    public int getQueryCachePrefixHits() {
+        return mResultCache.getPrefixHitCount();
+    }
+
+    /** Number of searches that had to be run against the index database. */
+    public int getQueryCacheMisses() {
+        return mResultCache.getMissCount();
     }
 
     private String buildSuggestionsSQL(String query) {
@@ -473,10 +517,49 @@ public class Index {
         if (className == null) {
             throw new IllegalArgumentException("class name cannot be null!");
         }
+        final SearchIndexableResource res = addClassNameResource(className, rebuild,
+                includeInSearchResults);
+        if (res == null) {
+            return;
+        }
+        mDataToProcess.forceUpdate = true;
+        updateInternal();
+        res.enabled = false;
+    }
+
+    /**
+     * Batched version of {@link #updateFromClassNameResource}: all the given classes are
+     * updated by a single update task, within a single database transaction.
+     *
+     * @param classNames maps the class names to update to whether they have to be rebuilt
+     */
+    public void updateFromClassNameResources(Map<String, Boolean> classNames,
+            boolean includeInSearchResults) {
+        final List<SearchIndexableResource> added =
+                new ArrayList<SearchIndexableResource>(classNames.size());
+        for (Map.Entry<String, Boolean> entry : classNames.entrySet()) {
+            final SearchIndexableResource res = addClassNameResource(entry.getKey(),
+                    entry.getValue(), includeInSearchResults);
+            if (res != null) {
+                added.add(res);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        mDataToProcess.forceUpdate = true;
+        updateInternal();
+        for (int i = 0; i < added.size(); i++) {
+            added.get(i).enabled = false;
+        }
+    }
+
+    private SearchIndexableResource addClassNameResource(String className, boolean rebuild,
+            boolean includeInSearchResults) {
         final SearchIndexableResource res = SearchIndexableResources.getResourceByName(className);
         if (res == null ) {
             Log.e(LOG_TAG, "Cannot find SearchIndexableResources for class name: " + className);
-            return;
+            return null;
         }
         res.context = mContext;
         res.enabled = includeInSearchResults;
@@ -484,9 +567,7 @@ public class Index {
             deleteIndexableData(res);
         }
         addIndexableData(res);
-        mDataToProcess.forceUpdate = true;
-        updateInternal();
-        res.enabled = false;
+        return res;
     }
 
     public void updateFromSearchIndexableData(SearchIndexableData data) {
@@ -1019,7 +1100,7 @@ public class Index {
         return (input != null) ? input.replaceAll(NON_BREAKING_HYPHEN, HYPHEN) : EMPTY;
     }
 
-    private static String normalizeString(String input) {
+    static String normalizeString(String input) {
         final String nohyphen = (input != null) ? input.replaceAll(HYPHEN, EMPTY) : EMPTY;
         final String normalized = Normalizer.normalize(nohyphen, Normalizer.Form.NFD);
 
@@ -1197,6 +1278,7 @@ public class Index {
                 database.setTransactionSuccessful();
             } finally {
                 database.endTransaction();
+                mResultCache.invalidateResults();
             }
 
             return null;
@@ -1324,6 +1406,8 @@ public class Index {
                 }
             } catch (Exception e) {
                 Log.d(LOG_TAG, "Cannot update saved Search queries", e);
+            } finally {
+                mResultCache.invalidateSuggestions();
             }
 
             return lastInsertedRowId;
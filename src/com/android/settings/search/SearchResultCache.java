@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Bounded cache of the {@link Index} search results, keyed by locale and
+ * query.
+ *
+ * When a single word query is typed one character at a time, the results for
+ * the longer query are a subset of the ones for its prefix. They are then
+ * computed by filtering the cached rows of the prefix the same way the FTS
+ * "simple" tokenizer would match them, instead of running two more MATCH
+ * queries. The cache is dropped whenever the index is updated.
+ */
+final class SearchResultCache {
+    private static final String TAG = "SearchResultCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_RESULTS = 32;
+    private static final int MAX_SUGGESTIONS = 16;
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * Rows returned by a search: the ones matching a primary column ordered
+     * by rank, followed by the ones only matching a secondary column.
+     */
+    static final class Result {
+        final String[] columns;
+        final List<Object[]> primary;
+        final List<Object[]> secondary;
+
+        private Result(String[] columns, List<Object[]> primary, List<Object[]> secondary) {
+            this.columns = columns;
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+
+        /**
+         * Reads and closes the primary and secondary search cursors.
+         */
+        static Result fromCursors(String[] columns, Cursor primary, Cursor secondary) {
+            return new Result(columns, readRows(primary), readRows(secondary));
+        }
+
+        Cursor newCursor() {
+            final MatrixCursor cursor = new MatrixCursor(columns,
+                    primary.size() + secondary.size());
+            for (int i = 0; i < primary.size(); i++) {
+                cursor.addRow(primary.get(i));
+            }
+            for (int i = 0; i < secondary.size(); i++) {
+                cursor.addRow(secondary.get(i));
+            }
+            return cursor;
+        }
+
+        /**
+         * Returns the result for a query extending the one of this result,
+         * both being single words.
+         */
+        Result narrow(String token) {
+            final List<Object[]> primary = new ArrayList<Object[]>();
+            final List<Object[]> secondary = new ArrayList<Object[]>();
+            narrowInto(this.primary, token, primary, secondary);
+            narrowInto(this.secondary, token, primary, secondary);
+            // Like the EXCEPT in the secondary query, keep those ordered by rank
+            Collections.sort(secondary, RANK_ORDER);
+            return new Result(columns, primary, secondary);
+        }
+
+        private static void narrowInto(List<Object[]> rows, String token,
+                List<Object[]> primary, List<Object[]> secondary) {
+            for (int i = 0; i < rows.size(); i++) {
+                final Object[] row = rows.get(i);
+                if (matchesPrimary(row, token)) {
+                    primary.add(row);
+                } else if (matchesSecondary(row, token)) {
+                    secondary.add(row);
+                }
+            }
+        }
+    }
+
+    private static final Comparator<Object[]> RANK_ORDER = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] lhs, Object[] rhs) {
+            final long l = toLong(lhs[Index.COLUMN_INDEX_RANK]);
+            final long r = toLong(rhs[Index.COLUMN_INDEX_RANK]);
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+    };
+
+    private final LruCache<String, Result> mResults = new LruCache<String, Result>(MAX_RESULTS);
+    private final LruCache<String, List<String>> mSuggestions =
+            new LruCache<String, List<String>>(MAX_SUGGESTIONS);
+
+    // All of the following are guarded by 'this'.
+    private int mGeneration;
+    private int mHits;
+    private int mPrefixHits;
+    private int mMisses;
+
+    /**
+     * Returns the cached or derived result for the query, or null if it has
+     * to be run against the database.
+     */
+    synchronized Result getResults(String locale, String query) {
+        final String token = singleToken(query);
+        final String key = key(locale, token != null ? token : query);
+        Result result = mResults.get(key);
+        if (result != null) {
+            mHits++;
+            return result;
+        }
+        if (token != null) {
+            for (int length = token.length() - 1; length > 0; length--) {
+                final Result parent = mResults.get(key(locale, token.substring(0, length)));
+                if (parent != null) {
+                    result = parent.narrow(token);
+                    mResults.put(key, result);
+                    mPrefixHits++;
+                    if (DEBUG) Log.d(TAG, "Narrowed '" + token.substring(0, length) + "' to '"
+                            + token + "'");
+                    return result;
+                }
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Caches the result of a query, unless the index changed since
+     * {@link #getGeneration()} was called for it.
+     */
+    synchronized void putResults(String locale, String query, Result result, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        final String token = singleToken(query);
+        mResults.put(key(locale, token != null ? token : query), result);
+    }
+
+    synchronized List<String> getSuggestions(String query) {
+        return mSuggestions.get(query != null ? query : "");
+    }
+
+    synchronized void putSuggestions(String query, List<String> suggestions, int generation) {
+        if (generation == mGeneration) {
+            mSuggestions.put(query != null ? query : "", suggestions);
+        }
+    }
+
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Drops all cached search results; called once index updates committed.
+     */
+    synchronized void invalidateResults() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    /**
+     * Drops all cached suggestions; called when a query was saved.
+     */
+    synchronized void invalidateSuggestions() {
+        mGeneration++;
+        mSuggestions.evictAll();
+    }
+
+    /** Number of searches answered straight from the cache. */
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    /** Number of searches answered by narrowing the result of a prefix. */
+    synchronized int getPrefixHitCount() {
+        return mPrefixHits;
+    }
+
+    /** Number of searches that had to query the database. */
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private static String key(String locale, String query) {
+        return locale + KEY_SEPARATOR + query;
+    }
+
+    /**
+     * Returns the query lower cased as the FTS tokenizer would if it is a
+     * single token, or null otherwise.
+     */
+    private static String singleToken(String query) {
+        if (query == null || query.isEmpty()) {
+            return null;
+        }
+        final int length = query.length();
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final char c = query.charAt(i);
+            if (!isTokenChar(c)) {
+                return null;
+            }
+            sb.append(foldCase(c));
+        }
+        return sb.toString();
+    }
+
+    private static boolean matchesPrimary(Object[] row, String token) {
+        final String title = toString(row[Index.COLUMN_INDEX_TITLE]);
+        return hasTokenWithPrefix(title, token)
+                || hasTokenWithPrefix(Index.normalizeString(title), token)
+                || hasTokenWithPrefix(toString(row[Index.COLUMN_INDEX_KEYWORDS]), token);
+    }
+
+    private static boolean matchesSecondary(Object[] row, String token) {
+        final String summaryOn = toString(row[Index.COLUMN_INDEX_SUMMARY_ON]);
+        final String summaryOff = toString(row[Index.COLUMN_INDEX_SUMMARY_OFF]);
+        return hasTokenWithPrefix(summaryOn, token)
+                || hasTokenWithPrefix(Index.normalizeString(summaryOn), token)
+                || hasTokenWithPrefix(summaryOff, token)
+                || hasTokenWithPrefix(Index.normalizeString(summaryOff), token)
+                || hasTokenWithPrefix(toString(row[Index.COLUMN_INDEX_ENTRIES]), token);
+    }
+
+    /**
+     * Matches the FTS "simple" tokenizer: tokens are runs of ASCII letters
+     * and digits or non ASCII characters, and only ASCII is case folded.
+     */
+    private static boolean hasTokenWithPrefix(String value, String prefix) {
+        if (value == null) {
+            return false;
+        }
+        final int length = value.length();
+        final int prefixLength = prefix.length();
+        int i = 0;
+        while (i < length) {
+            // Skip to the start of the next token
+            while (i < length && !isTokenChar(value.charAt(i))) {
+                i++;
+            }
+            int matched = 0;
+            while (i < length && isTokenChar(value.charAt(i))) {
+                if (matched >= 0 && matched < prefixLength) {
+                    matched = foldCase(value.charAt(i)) == prefix.charAt(matched)
+                            ? matched + 1 : -1;
+                }
+                i++;
+            }
+            if (matched == prefixLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z');
+    }
+
+    private static char foldCase(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static List<Object[]> readRows(Cursor cursor) {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            final int count = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                final Object[] row = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        case Cursor.FIELD_TYPE_NULL:
+                            row[i] = null;
+                            break;
+                        default:
+                            row[i] = cursor.getString(i);
+                            break;
+                    }
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static String toString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return value != null ? Long.parseLong(value.toString()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -45,7 +45,6 @@ import com.android.settings.R;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 
 /**
  * ListView subclass that mediates drag and drop resorting of items.
@@ -843,13 +842,25 @@ public class DragSortListView extends ListView {
 
     private class HeightCache {
 
+        /** Maps a list position to the slot holding its height. */
         private SparseIntArray mMap;
-        private ArrayList<Integer> mOrder;
+
+        // Slots, chained from least (mHead) to most (mTail) recently updated
+        private int[] mPositions;
+        private int[] mHeights;
+        private int[] mPrev;
+        private int[] mNext;
+        private int mHead = -1;
+        private int mTail = -1;
+        private int mSize;
         private int mMaxSize;
 
         public HeightCache(int size) {
             mMap = new SparseIntArray(size);
-            mOrder = new ArrayList<Integer>(size);
+            mPositions = new int[size];
+            mHeights = new int[size];
+            mPrev = new int[size];
+            mNext = new int[size];
             mMaxSize = size;
         }
 
@@ -857,29 +868,65 @@ public class DragSortListView extends ListView {
          * Add item height at position if doesn't already exist.
          */
         public void add(int position, int height) {
-            int currHeight = mMap.get(position, -1);
-            if (currHeight != height) {
-                if (currHeight == -1) {
-                    if (mMap.size() == mMaxSize) {
-                        // remove oldest entry
-                        mMap.delete(mOrder.remove(0));
-                    }
+            int slot = mMap.get(position, -1);
+            if (slot != -1) {
+                if (mHeights[slot] == height) {
+                    return;
+                }
+                // move position to newest slot
+                unlink(slot);
+            } else {
+                if (mSize == mMaxSize) {
+                    // reuse the slot of the oldest entry
+                    slot = mHead;
+                    unlink(slot);
+                    mMap.delete(mPositions[slot]);
                 } else {
-                    // move position to newest slot
-                    mOrder.remove((Integer) position);
+                    slot = mSize++;
                 }
-                mMap.put(position, height);
-                mOrder.add(position);
+                mPositions[slot] = position;
+                mMap.put(position, slot);
             }
+            mHeights[slot] = height;
+            linkLast(slot);
         }
 
         public int get(int position) {
-            return mMap.get(position, -1);
+            int slot = mMap.get(position, -1);
+            return slot != -1 ? mHeights[slot] : -1;
         }
 
         public void clear() {
             mMap.clear();
-            mOrder.clear();
+            mHead = -1;
+            mTail = -1;
+            mSize = 0;
+        }
+
+        private void unlink(int slot) {
+            final int prev = mPrev[slot];
+            final int next = mNext[slot];
+            if (prev != -1) {
+                mNext[prev] = next;
+            } else {
+                mHead = next;
+            }
+            if (next != -1) {
+                mPrev[next] = prev;
+            } else {
+                mTail = prev;
+            }
+        }
+
+        private void linkLast(int slot) {
+            mPrev[slot] = mTail;
+            mNext[slot] = -1;
+            if (mTail != -1) {
+                mNext[mTail] = slot;
+            } else {
+                mHead = slot;
+            }
+            mTail = slot;
         }
 
     }
@@ -18,6 +18,7 @@
 package com.android.settings.slim.dslv;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Point;
 import android.graphics.Color;
 import android.widget.ListView;
@@ -32,8 +33,14 @@ import android.util.Log;
  */
 public class SimpleFloatViewManager implements DragSortListView.FloatViewManager {
 
+    /**
+     * Kept between drags and reused as long as the item size does not
+     * change, so starting a drag does not allocate a new bitmap.
+     */
     private Bitmap mFloatBitmap;
 
+    private final Canvas mFloatCanvas = new Canvas();
+
     private ImageView mImageView;
 
     private int mFloatBGColor = Color.BLACK;
@@ -49,8 +56,8 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
     }
 
     /**
-     * This simple implementation creates a Bitmap copy of the
-     * list item currently shown at ListView <code>position</code>.
+     * This simple implementation draws the list item currently shown
+     * at ListView <code>position</code> into a Bitmap.
      */
     @Override
     public View onCreateFloatView(int position) {
@@ -65,12 +72,26 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
 
         v.setPressed(false);
 
-        // Create a copy of the drawing cache so that it does not get
-        // recycled by the framework when the list tries to clean up memory
-        //v.setDrawingCacheQuality(View.DRAWING_CACHE_QUALITY_HIGH);
-        v.setDrawingCacheEnabled(true);
-        mFloatBitmap = Bitmap.createBitmap(v.getDrawingCache());
-        v.setDrawingCacheEnabled(false);
+        final int width = v.getWidth();
+        final int height = v.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        // Draw the item into our own bitmap rather than copying its drawing
+        // cache, reusing the one from the previous drag when the size matches
+        if (mFloatBitmap == null || mFloatBitmap.getWidth() != width
+                || mFloatBitmap.getHeight() != height) {
+            if (mFloatBitmap != null) {
+                mFloatBitmap.recycle();
+            }
+            mFloatBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            mFloatBitmap.eraseColor(Color.TRANSPARENT);
+        }
+        mFloatCanvas.setBitmap(mFloatBitmap);
+        v.draw(mFloatCanvas);
+        mFloatCanvas.setBitmap(null);
 
         if (mImageView == null) {
             mImageView = new ImageView(mListView.getContext());
@@ -78,7 +99,7 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
         mImageView.setBackgroundColor(mFloatBGColor);
         mImageView.setPadding(0, 0, 0, 0);
         mImageView.setImageBitmap(mFloatBitmap);
-        mImageView.setLayoutParams(new ViewGroup.LayoutParams(v.getWidth(), v.getHeight()));
+        mImageView.setLayoutParams(new ViewGroup.LayoutParams(width, height));
 
         return mImageView;
     }
@@ -93,14 +114,11 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
 
     /**
      * Removes the Bitmap from the ImageView created in
-     * onCreateFloatView() and tells the system to recycle it.
+     * onCreateFloatView(). The Bitmap is kept for the next drag.
      */
     @Override
     public void onDestroyFloatView(View floatView) {
         ((ImageView) floatView).setImageDrawable(null);
-
-        mFloatBitmap.recycle();
-        mFloatBitmap = null;
     }
 
 }
@@ -33,6 +33,9 @@ import android.util.ArraySet;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.Xml;
+
+import com.android.settings.ResolveInfoCache;
+
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -98,10 +101,11 @@ public final class VoiceInputHelper {
     public VoiceInputHelper(Context context) {
         mContext = context;
 
-        mAvailableVoiceInteractions = mContext.getPackageManager().queryIntentServices(
+        final ResolveInfoCache resolveInfoCache = ResolveInfoCache.getInstance(mContext);
+        mAvailableVoiceInteractions = resolveInfoCache.queryIntentServices(
                         new Intent(VoiceInteractionService.SERVICE_INTERFACE),
                         PackageManager.GET_META_DATA);
-        mAvailableRecognition = mContext.getPackageManager().queryIntentServices(
+        mAvailableRecognition = resolveInfoCache.queryIntentServices(
                         new Intent(RecognitionService.SERVICE_INTERFACE),
                         PackageManager.GET_META_DATA);
     }
@@ -274,7 +274,7 @@ class VpnDialog extends AlertDialog implements TextWatcher,
         return false;
     }
 
-    private boolean validateAddresses(String addresses, boolean cidr) {
+    static boolean validateAddresses(String addresses, boolean cidr) {
         try {
             for (String address : addresses.split(" ")) {
                 if (address.isEmpty()) {
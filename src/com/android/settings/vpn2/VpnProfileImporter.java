@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.vpn2;
+
+import android.os.SystemClock;
+import android.security.KeyStore;
+import android.text.TextUtils;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.Xml;
+
+import com.android.internal.net.VpnProfile;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports legacy VPN profiles from an XML file, as used to provision devices:
+ *
+ * <pre>
+ * &lt;vpns&gt;
+ *     &lt;vpn&gt;
+ *         &lt;name&gt;Office&lt;/name&gt;
+ *         &lt;type&gt;TYPE_L2TP_IPSEC_PSK&lt;/type&gt;
+ *         &lt;server&gt;vpn.example.com&lt;/server&gt;
+ *         &lt;ipsecSecret&gt;secret&lt;/ipsecSecret&gt;
+ *     &lt;/vpn&gt;
+ * &lt;/vpns&gt;
+ * </pre>
+ *
+ * The file is streamed, and profiles are validated like {@link VpnDialog} does
+ * and written to the KeyStore in batches, so that any number of profiles can be
+ * imported without holding them all in memory.
+ */
+final class VpnProfileImporter {
+    private static final String TAG = "VpnProfileImporter";
+    private static final boolean DEBUG = false;
+
+    static final int BATCH_SIZE = 50;
+
+    private static final String TAG_VPN = "vpn";
+
+    interface Callback {
+        /** Called on the importing thread with the profiles of each batch written. */
+        void onBatchImported(List<VpnProfile> profiles);
+    }
+
+    private final KeyStore mKeyStore;
+    private final ArraySet<String> mUsedKeys = new ArraySet<>();
+    private long mNextKey;
+
+    private int mImported;
+    private int mSkipped;
+    private long mElapsed;
+
+    /**
+     * @param existingKeys keys of the profiles already stored, may be null
+     */
+    VpnProfileImporter(KeyStore keyStore, String[] existingKeys) {
+        mKeyStore = keyStore;
+        if (existingKeys != null) {
+            for (String key : existingKeys) {
+                mUsedKeys.add(key);
+            }
+        }
+        mNextKey = System.currentTimeMillis();
+    }
+
+    /**
+     * Imports the profiles of the stream, which is not closed.
+     */
+    void importProfiles(InputStream in, Callback callback)
+            throws IOException, XmlPullParserException {
+        final long start = SystemClock.elapsedRealtime();
+        final XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(in, null);
+
+        final ArrayList<VpnProfile> batch = new ArrayList<>(BATCH_SIZE);
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event != XmlPullParser.START_TAG || !TAG_VPN.equalsIgnoreCase(parser.getName())) {
+                continue;
+            }
+            final VpnProfile profile = readProfile(parser);
+            if (profile == null || !isValid(profile)) {
+                mSkipped++;
+                continue;
+            }
+            batch.add(profile);
+            if (batch.size() == BATCH_SIZE) {
+                writeBatch(batch, callback);
+            }
+        }
+        writeBatch(batch, callback);
+
+        mElapsed = SystemClock.elapsedRealtime() - start;
+        if (DEBUG) Log.d(TAG, "Imported " + mImported + " profiles in " + mElapsed + "ms, "
+                + mSkipped + " skipped");
+    }
+
+    int getImportedCount() {
+        return mImported;
+    }
+
+    int getSkippedCount() {
+        return mSkipped;
+    }
+
+    /** Imported profiles per second. */
+    float getThroughput() {
+        return mElapsed > 0 ? mImported * 1000f / mElapsed : 0f;
+    }
+
+    private void writeBatch(ArrayList<VpnProfile> batch, Callback callback) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<VpnProfile> written = VpnProfileStore.putAll(mKeyStore, batch);
+        mImported += written.size();
+        mSkipped += batch.size() - written.size();
+        if (callback != null && !written.isEmpty()) {
+            callback.onBatchImported(written);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Reads the profile of the vpn element the parser is positioned on, or returns
+     * null if its type is unknown.
+     */
+    private VpnProfile readProfile(XmlPullParser parser)
+            throws IOException, XmlPullParserException {
+        final VpnProfile profile = new VpnProfile(newKey());
+        boolean validType = false;
+        final int depth = parser.getDepth();
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT
+                && (event != XmlPullParser.END_TAG || parser.getDepth() > depth)) {
+            if (event != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String tag = parser.getName();
+            final String value = parser.nextText().trim();
+            if ("name".equalsIgnoreCase(tag)) {
+                profile.name = value;
+            } else if ("type".equalsIgnoreCase(tag)) {
+                profile.type = getVpnProfileType(value);
+                validType = profile.type >= 0;
+            } else if ("server".equalsIgnoreCase(tag)) {
+                profile.server = value;
+            } else if ("username".equalsIgnoreCase(tag)) {
+                profile.username = value;
+            } else if ("password".equalsIgnoreCase(tag)) {
+                profile.password = value;
+                profile.saveLogin = !value.isEmpty();
+            } else if ("dnsServers".equalsIgnoreCase(tag)) {
+                profile.dnsServers = value;
+            } else if ("searchDomains".equalsIgnoreCase(tag)) {
+                profile.searchDomains = value;
+            } else if ("routes".equalsIgnoreCase(tag)) {
+                profile.routes = value;
+            } else if ("mppe".equalsIgnoreCase(tag)) {
+                profile.mppe = Boolean.parseBoolean(value);
+            } else if ("l2tpSecret".equalsIgnoreCase(tag)) {
+                profile.l2tpSecret = value;
+            } else if ("ipsecIdentifier".equalsIgnoreCase(tag)) {
+                profile.ipsecIdentifier = value;
+            } else if ("ipsecSecret".equalsIgnoreCase(tag)) {
+                profile.ipsecSecret = value;
+            } else if ("ipsecUserCert".equalsIgnoreCase(tag)) {
+                profile.ipsecUserCert = value;
+            } else if ("ipsecCaCert".equalsIgnoreCase(tag)) {
+                profile.ipsecCaCert = value;
+            } else if ("ipsecServerCert".equalsIgnoreCase(tag)) {
+                profile.ipsecServerCert = value;
+            } else {
+                Log.w(TAG, "Ignoring unknown VPN profile element " + tag);
+            }
+        }
+        return validType ? profile : null;
+    }
+
+    private String newKey() {
+        // Same scheme as the profiles created by VpnSettings
+        String key = Long.toHexString(mNextKey++);
+        while (!mUsedKeys.add(key)) {
+            key = Long.toHexString(mNextKey++);
+        }
+        return key;
+    }
+
+    /**
+     * Mirrors {@link VpnDialog}'s checks of an edited profile.
+     */
+    private static boolean isValid(VpnProfile profile) {
+        if (TextUtils.isEmpty(profile.name) || TextUtils.isEmpty(profile.server)
+                || !VpnDialog.validateAddresses(profile.dnsServers, false)
+                || !VpnDialog.validateAddresses(profile.routes, true)) {
+            return false;
+        }
+        switch (profile.type) {
+            case VpnProfile.TYPE_PPTP:
+            case VpnProfile.TYPE_IPSEC_HYBRID_RSA:
+                return true;
+
+            case VpnProfile.TYPE_L2TP_IPSEC_PSK:
+            case VpnProfile.TYPE_IPSEC_XAUTH_PSK:
+                return !TextUtils.isEmpty(profile.ipsecSecret);
+
+            case VpnProfile.TYPE_L2TP_IPSEC_RSA:
+            case VpnProfile.TYPE_IPSEC_XAUTH_RSA:
+                return !TextUtils.isEmpty(profile.ipsecUserCert);
+        }
+        return false;
+    }
+
+    private static int getVpnProfileType(String type) {
+        if (type.equalsIgnoreCase("TYPE_PPTP")) {
+            return VpnProfile.TYPE_PPTP;
+        } else if (type.equalsIgnoreCase("TYPE_L2TP_IPSEC_PSK")) {
+            return VpnProfile.TYPE_L2TP_IPSEC_PSK;
+        } else if (type.equalsIgnoreCase("TYPE_L2TP_IPSEC_RSA")) {
+            return VpnProfile.TYPE_L2TP_IPSEC_RSA;
+        } else if (type.equalsIgnoreCase("TYPE_IPSEC_XAUTH_PSK")) {
+            return VpnProfile.TYPE_IPSEC_XAUTH_PSK;
+        } else if (type.equalsIgnoreCase("TYPE_IPSEC_XAUTH_RSA")) {
+            return VpnProfile.TYPE_IPSEC_XAUTH_RSA;
+        } else if (type.equalsIgnoreCase("TYPE_IPSEC_HYBRID_RSA")) {
+            return VpnProfile.TYPE_IPSEC_HYBRID_RSA;
+        }
+        Log.w(TAG, "Invalid VPN type: " + type);
+        return -1;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.vpn2;
+
+import android.os.SystemClock;
+import android.security.Credentials;
+import android.security.KeyStore;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.internal.net.VpnProfile;
+import com.android.internal.util.ArrayUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes the legacy VPN profiles stored in the KeyStore, keeping the
+ * decoded profiles in memory.
+ *
+ * Settings is the only writer of the profiles, so a profile only has to be
+ * decoded again when its alias appears; the cached list is reused as long as the
+ * set of aliases in the KeyStore did not change. Profiles are treated as
+ * immutable: editing one stores a new instance.
+ */
+final class VpnProfileStore {
+    private static final String TAG = "VpnProfileStore";
+    private static final boolean DEBUG = false;
+
+    private static final Object sLock = new Object();
+
+    // All of the following are guarded by sLock.
+    // Sorted aliases the cached profiles were loaded for, null if unknown
+    private static String[] sKeys;
+    private static final ArrayMap<String, VpnProfile> sProfiles = new ArrayMap<>();
+    private static int sDecodeCount;
+    private static long sLastLoadTime;
+
+    private VpnProfileStore() {
+    }
+
+    /**
+     * Returns the stored profiles, in KeyStore order, except those of the given types.
+     */
+    static List<VpnProfile> load(KeyStore keyStore, int... excludeTypes) {
+        final long start = SystemClock.elapsedRealtime();
+        final ArrayList<VpnProfile> result = new ArrayList<>();
+        final String[] keys = keyStore.saw(Credentials.VPN);
+        if (keys == null) {
+            return result;
+        }
+        final String[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+
+        synchronized (sLock) {
+            if (!Arrays.equals(sortedKeys, sKeys)) {
+                // Decode only the profiles which are not cached yet
+                final ArrayMap<String, VpnProfile> profiles = new ArrayMap<>(keys.length);
+                int decoded = 0;
+                boolean complete = true;
+                for (String key : keys) {
+                    VpnProfile profile = sProfiles.get(key);
+                    if (profile == null) {
+                        profile = VpnProfile.decode(key, keyStore.get(Credentials.VPN + key));
+                        decoded++;
+                    }
+                    if (profile != null) {
+                        profiles.put(key, profile);
+                    } else {
+                        complete = false;
+                    }
+                }
+                sProfiles.clear();
+                sProfiles.putAll(profiles);
+                // Retry the missing profiles next time, e.g. once the KeyStore is unlocked
+                sKeys = complete ? sortedKeys : null;
+                sDecodeCount += decoded;
+                if (DEBUG) Log.d(TAG, "Decoded " + decoded + " of " + keys.length + " profiles");
+            }
+
+            for (String key : keys) {
+                final VpnProfile profile = sProfiles.get(key);
+                if (profile != null && !ArrayUtils.contains(excludeTypes, profile.type)) {
+                    result.add(profile);
+                }
+            }
+            sLastLoadTime = SystemClock.elapsedRealtime() - start;
+        }
+        return result;
+    }
+
+    /**
+     * Stores a new or edited profile, returning whether it was written.
+     */
+    static boolean put(KeyStore keyStore, VpnProfile profile) {
+        synchronized (sLock) {
+            return putLocked(keyStore, profile);
+        }
+    }
+
+    /**
+     * Stores a batch of profiles, returning those which were written.
+     */
+    static List<VpnProfile> putAll(KeyStore keyStore, List<VpnProfile> profiles) {
+        final ArrayList<VpnProfile> written = new ArrayList<>(profiles.size());
+        synchronized (sLock) {
+            for (int i = 0; i < profiles.size(); i++) {
+                if (putLocked(keyStore, profiles.get(i))) {
+                    written.add(profiles.get(i));
+                }
+            }
+        }
+        return written;
+    }
+
+    static void delete(KeyStore keyStore, String key) {
+        synchronized (sLock) {
+            keyStore.delete(Credentials.VPN + key);
+            sProfiles.remove(key);
+            sKeys = null;
+        }
+    }
+
+    /** Number of profiles decoded from the KeyStore since the process started. */
+    static int getDecodeCount() {
+        synchronized (sLock) {
+            return sDecodeCount;
+        }
+    }
+
+    /** Time the last {@link #load} took, in milliseconds. */
+    static long getLastLoadTime() {
+        synchronized (sLock) {
+            return sLastLoadTime;
+        }
+    }
+
+    private static boolean putLocked(KeyStore keyStore, VpnProfile profile) {
+        if (!keyStore.put(Credentials.VPN + profile.key, profile.encode(), KeyStore.UID_SELF,
+                KeyStore.FLAG_ENCRYPTED)) {
+            Log.w(TAG, "Could not store VPN profile " + profile.key);
+            return false;
+        }
+        // The next load checks the aliases again, but won't decode this one
+        sProfiles.put(profile.key, profile);
+        sKeys = null;
+        return true;
+    }
+}
@@ -16,17 +16,19 @@
 
 package com.android.settings.vpn2;
 
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
 import android.net.IConnectivityManager;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.os.ServiceManager;
 import android.os.SystemProperties;
 import android.os.UserManager;
@@ -36,6 +38,7 @@ import android.preference.PreferenceScreen;
 import android.security.Credentials;
 import android.security.KeyStore;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -55,17 +58,20 @@ import android.widget.Toast;
 import com.android.internal.net.LegacyVpnInfo;
 import com.android.internal.net.VpnConfig;
 import com.android.internal.net.VpnProfile;
-import com.android.internal.util.ArrayUtils;
+import com.android.settings.LiveTicker;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.google.android.collect.Lists;
 
-import java.util.ArrayList;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 
 public class VpnSettings extends SettingsPreferenceFragment implements
-        Handler.Callback, Preference.OnPreferenceClickListener,
+        Preference.OnPreferenceClickListener,
         DialogInterface.OnClickListener, DialogInterface.OnDismissListener {
     private static final String TAG = "VpnSettings";
 
@@ -73,6 +79,8 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
     private static final String EXTRA_PICK_LOCKDOWN = "android.net.vpn.PICK_LOCKDOWN";
 
+    private static final int REQUEST_IMPORT = 1;
+
     // TODO: migrate to using DialogFragment when editing
 
     private final IConnectivityManager mService = IConnectivityManager.Stub
@@ -83,7 +91,6 @@ public class VpnSettings extends SettingsPreferenceFragment implements
     private HashMap<String, VpnPreference> mPreferences = new HashMap<String, VpnPreference>();
     private VpnDialog mDialog;
 
-    private Handler mUpdater;
     private LegacyVpnInfo mInfo;
     private UserManager mUm;
 
@@ -92,6 +99,8 @@ public class VpnSettings extends SettingsPreferenceFragment implements
 
     private boolean mUnavailable;
 
+    private ImportTask mImportTask;
+
     @Override
     public void onCreate(Bundle savedState) {
         super.onCreate(savedState);
@@ -152,10 +161,32 @@ public class VpnSettings extends SettingsPreferenceFragment implements
                 LockdownConfigFragment.show(this);
                 return true;
             }
+            case R.id.vpn_import: {
+                if (mImportTask == null) {
+                    Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                    intent.addCategory(Intent.CATEGORY_OPENABLE);
+                    intent.setType("text/xml");
+                    startActivityForResult(intent, REQUEST_IMPORT);
+                }
+                return true;
+            }
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == Activity.RESULT_OK && data != null && data.getData() != null
+                    && mImportTask == null) {
+                mImportTask = new ImportTask(data.getData());
+                mImportTask.execute();
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     @Override
     public void onSaveInstanceState(Bundle savedState) {
         // We do not save view hierarchy, as they are just profiles.
@@ -210,7 +241,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             PreferenceGroup group = getPreferenceScreen();
 
             final Context context = getActivity();
-            final List<VpnProfile> profiles = loadVpnProfiles(mKeyStore);
+            final List<VpnProfile> profiles = VpnProfileStore.load(mKeyStore);
             for (VpnProfile profile : profiles) {
                 final VpnPreference pref = new VpnPreference(context, profile);
                 pref.setOnPreferenceClickListener(this);
@@ -226,10 +257,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         }
 
         // Start monitoring.
-        if (mUpdater == null) {
-            mUpdater = new Handler(this);
-        }
-        mUpdater.sendEmptyMessage(0);
+        LiveTicker.getInstance(getActivity()).subscribe(mStatusSubscription);
 
         // Register for context menu. Hmmm, getListView() is hidden?
         registerForContextMenu(getListView());
@@ -243,6 +271,8 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             return;
         }
 
+        LiveTicker.getInstance(getActivity()).unsubscribe(mStatusSubscription);
+
         // Hide the dialog if there is one.
         if (mDialog != null) {
             mDialog.setOnDismissListener(null);
@@ -266,8 +296,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         if (button == DialogInterface.BUTTON_POSITIVE) {
             // Always save the profile.
             VpnProfile profile = mDialog.getProfile();
-            mKeyStore.put(Credentials.VPN + profile.key, profile.encode(), KeyStore.UID_SELF,
-                    KeyStore.FLAG_ENCRYPTED);
+            VpnProfileStore.put(mKeyStore, profile);
 
             // Update the preference.
             VpnPreference preference = mPreferences.get(profile.key);
@@ -279,6 +308,8 @@ public class VpnSettings extends SettingsPreferenceFragment implements
                 preference.setOnPreferenceClickListener(this);
                 mPreferences.put(profile.key, preference);
                 getPreferenceScreen().addPreference(preference);
+                // Show its state even if it is already the current one
+                LiveTicker.getInstance(getActivity()).invalidate(mStatusSubscription);
             }
 
             // If we are not editing, connect!
@@ -335,7 +366,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
                 disconnect(mSelectedKey);
                 getPreferenceScreen().removePreference(preference);
                 mPreferences.remove(mSelectedKey);
-                mKeyStore.delete(Credentials.VPN + mSelectedKey);
+                VpnProfileStore.delete(mKeyStore, mSelectedKey);
                 return true;
         }
         return false;
@@ -374,34 +405,60 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         return true;
     }
 
-    @Override
-    public boolean handleMessage(Message message) {
-        mUpdater.removeMessages(0);
+    /**
+     * Current legacy VPN, if any; polled off the UI thread and only applied
+     * when the connected profile or its state changed.
+     */
+    private static final class VpnStatus {
+        final LegacyVpnInfo info;
+
+        VpnStatus(LegacyVpnInfo info) {
+            this.info = info;
+        }
 
-        if (isResumed()) {
+        boolean isSameAs(VpnStatus other) {
+            if (info == null || other.info == null) {
+                return info == other.info;
+            }
+            return info.state == other.info.state && TextUtils.equals(info.key, other.info.key);
+        }
+    }
+
+    private final LiveTicker.Subscription<VpnStatus> mStatusSubscription =
+            new LiveTicker.Subscription<VpnStatus>(DateUtils.SECOND_IN_MILLIS) {
+        @Override
+        protected VpnStatus sample() {
             try {
-                LegacyVpnInfo info = mService.getLegacyVpnInfo();
-                if (mInfo != null) {
-                    VpnPreference preference = mPreferences.get(mInfo.key);
-                    if (preference != null) {
-                        preference.update(-1);
-                    }
-                    mInfo = null;
-                }
-                if (info != null) {
-                    VpnPreference preference = mPreferences.get(info.key);
-                    if (preference != null) {
-                        preference.update(info.state);
-                        mInfo = info;
-                    }
-                }
+                return new VpnStatus(mService.getLegacyVpnInfo());
             } catch (Exception e) {
                 // ignore
+                return null;
             }
-            mUpdater.sendEmptyMessageDelayed(0, 1000);
         }
-        return true;
-    }
+
+        @Override
+        protected boolean isSameValue(VpnStatus oldValue, VpnStatus newValue) {
+            return oldValue.isSameAs(newValue);
+        }
+
+        @Override
+        protected void apply(VpnStatus status) {
+            if (mInfo != null) {
+                VpnPreference preference = mPreferences.get(mInfo.key);
+                if (preference != null) {
+                    preference.update(-1);
+                }
+                mInfo = null;
+            }
+            if (status.info != null) {
+                VpnPreference preference = mPreferences.get(status.info.key);
+                if (preference != null) {
+                    preference.update(status.info.state);
+                    mInfo = status.info;
+                }
+            }
+        }
+    };
 
     private void connect(VpnProfile profile) throws Exception {
         try {
@@ -482,6 +539,87 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         }
     }
 
+    /**
+     * Imports the profiles of a provisioning file, adding their preferences as
+     * each batch is stored.
+     */
+    private final class ImportTask extends AsyncTask<Void, List<VpnProfile>, Boolean>
+            implements VpnProfileImporter.Callback {
+        private final Context mContext = getActivity().getApplicationContext();
+        private final Uri mUri;
+        private final VpnProfileImporter mImporter;
+
+        ImportTask(Uri uri) {
+            mUri = uri;
+            mImporter = new VpnProfileImporter(mKeyStore, mKeyStore.saw(Credentials.VPN));
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            InputStream in = null;
+            try {
+                in = mContext.getContentResolver().openInputStream(mUri);
+                mImporter.importProfiles(in, this);
+                return true;
+            } catch (IOException | XmlPullParserException e) {
+                Log.w(TAG, "Could not import VPN profiles from " + mUri, e);
+                return false;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onBatchImported(List<VpnProfile> profiles) {
+            publishProgress(profiles);
+        }
+
+        @Override
+        protected void onProgressUpdate(List<VpnProfile>... batches) {
+            if (getActivity() == null) {
+                return;
+            }
+            final PreferenceGroup group = getPreferenceScreen();
+            for (List<VpnProfile> batch : batches) {
+                for (VpnProfile profile : batch) {
+                    if (mPreferences.containsKey(profile.key)) {
+                        // Already listed by the load in onResume()
+                        continue;
+                    }
+                    final VpnPreference pref = new VpnPreference(getActivity(), profile);
+                    pref.setOnPreferenceClickListener(VpnSettings.this);
+                    mPreferences.put(profile.key, pref);
+                    group.addPreference(pref);
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            mImportTask = null;
+            if (success) {
+                Log.i(TAG, "Imported " + mImporter.getImportedCount() + " VPN profiles ("
+                        + mImporter.getThroughput() + "/s), skipped "
+                        + mImporter.getSkippedCount());
+                Toast.makeText(mContext, mContext.getString(R.string.vpn_import_result,
+                        mImporter.getImportedCount(), mImporter.getSkippedCount()),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(mContext, R.string.vpn_import_failed, Toast.LENGTH_LONG).show();
+            }
+            if (getActivity() != null) {
+                LiveTicker.getInstance(getActivity()).invalidate(mStatusSubscription);
+            }
+        }
+    }
+
     /**
      * Dialog to configure always-on VPN.
      */
@@ -512,7 +650,7 @@ public class VpnSettings extends SettingsPreferenceFragment implements
         private void initProfiles(KeyStore keyStore, Resources res) {
             final String lockdownKey = getStringOrNull(keyStore, Credentials.LOCKDOWN_VPN);
 
-            mProfiles = loadVpnProfiles(keyStore, VpnProfile.TYPE_PPTP);
+            mProfiles = VpnProfileStore.load(keyStore, VpnProfile.TYPE_PPTP);
             mTitles = Lists.newArrayList();
             mTitles.add(res.getText(R.string.vpn_lockdown_none));
             mCurrentIndex = 0;
@@ -572,19 +710,4 @@ public class VpnSettings extends SettingsPreferenceFragment implements
             return builder.create();
         }
     }
-
-    private static List<VpnProfile> loadVpnProfiles(KeyStore keyStore, int... excludeTypes) {
-        final ArrayList<VpnProfile> result = Lists.newArrayList();
-        final String[] keys = keyStore.saw(Credentials.VPN);
-        if (keys != null) {
-            for (String key : keys) {
-                final VpnProfile profile = VpnProfile.decode(
-                        key, keyStore.get(Credentials.VPN + key));
-                if (profile != null && !ArrayUtils.contains(excludeTypes, profile.type)) {
-                    result.add(profile);
-                }
-            }
-        }
-        return result;
-    }
 }
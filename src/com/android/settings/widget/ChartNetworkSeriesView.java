@@ -36,9 +36,16 @@ import android.view.View;
 import com.android.internal.util.Preconditions;
 import com.android.settings.R;
 
+import java.util.Arrays;
+
 /**
  * {@link NetworkStatsHistory} series to render inside a {@link ChartView},
  * using {@link ChartAxis} to map into screen coordinates.
+ * <p>
+ * The bound history is projected once into primitive arrays of bucket start
+ * times and running totals, so that paths for new bounds or axes, and the
+ * estimate, are built from slices of those arrays instead of walking the
+ * history again.
  */
 public class ChartNetworkSeriesView extends View {
     private static final String TAG = "ChartNetworkSeriesView";
@@ -56,6 +63,14 @@ public class ChartNetworkSeriesView extends View {
 
     private NetworkStatsHistory mStats;
 
+    /** Projection of {@link #mStats}, rebuilt when other stats are bound. */
+    private boolean mProjectionValid = false;
+    private int mBucketCount;
+    private long mBucketDuration;
+    private long[] mBucketStart = new long[0];
+    /** Total bytes of all buckets before each index; one longer than buckets. */
+    private long[] mTotalBefore = new long[1];
+
     private Path mPathStroke;
     private Path mPathFill;
     private Path mPathEstimate;
@@ -143,6 +158,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        mProjectionValid = false;
         invalidatePath();
         invalidate();
     }
@@ -162,6 +178,101 @@ public class ChartNetworkSeriesView extends View {
         invalidate();
     }
 
+    /**
+     * Project the bound {@link NetworkStatsHistory} into {@link #mBucketStart}
+     * and {@link #mTotalBefore}, unless already done.
+     */
+    private void ensureProjection() {
+        if (mProjectionValid) return;
+        mProjectionValid = true;
+
+        final int size = mStats != null ? mStats.size() : 0;
+        if (mBucketStart.length < size) {
+            mBucketStart = new long[size];
+            mTotalBefore = new long[size + 1];
+        }
+        mBucketCount = size;
+        mBucketDuration = mStats != null ? mStats.getBucketDuration() : 0;
+
+        NetworkStatsHistory.Entry entry = null;
+        mTotalBefore[0] = 0;
+        for (int i = 0; i < size; i++) {
+            entry = mStats.getValues(i, entry);
+            mBucketStart[i] = entry.bucketStart;
+            mTotalBefore[i + 1] = mTotalBefore[i] + entry.rxBytes + entry.txBytes;
+        }
+        if (LOGD) Log.d(TAG, "ensureProjection() projected " + size + " buckets");
+    }
+
+    /**
+     * Index of the last bucket starting before the given time, matching
+     * {@link NetworkStatsHistory#getIndexBefore(long)}.
+     */
+    private int getIndexBefore(long time) {
+        int index = Arrays.binarySearch(mBucketStart, 0, mBucketCount, time);
+        if (index < 0) {
+            index = (~index) - 1;
+        } else {
+            index -= 1;
+        }
+        return Math.max(0, Math.min(mBucketCount - 1, index));
+    }
+
+    /**
+     * Index of the first bucket starting after the given time, matching
+     * {@link NetworkStatsHistory#getIndexAfter(long)}.
+     */
+    private int getIndexAfter(long time) {
+        int index = Arrays.binarySearch(mBucketStart, 0, mBucketCount, time);
+        if (index < 0) {
+            index = ~index;
+        } else {
+            index += 1;
+        }
+        return Math.max(0, Math.min(mBucketCount - 1, index));
+    }
+
+    /**
+     * Total bytes up to the given time, counting the elapsed share of the
+     * bucket it falls into.
+     */
+    private long getTotalAt(long time) {
+        int index = Arrays.binarySearch(mBucketStart, 0, mBucketCount, time);
+        if (index < 0) {
+            index = (~index) - 1;
+        }
+        if (index < 0) return 0;
+
+        final long bucketBytes = mTotalBefore[index + 1] - mTotalBefore[index];
+        final long covered = Math.min(time - mBucketStart[index], mBucketDuration);
+        return mTotalBefore[index] + bucketBytes * covered / mBucketDuration;
+    }
+
+    /**
+     * Total bytes between the given times, like
+     * {@link NetworkStatsHistory#getValues(long, long, long, NetworkStatsHistory.Entry)}
+     * counting the bucket in progress at {@code now} in full.
+     */
+    private long getTotalBetween(long start, long end, long now) {
+        if (mBucketCount == 0 || end <= start) return 0;
+        long total = getTotalAt(end) - getTotalAt(start);
+
+        int active = Arrays.binarySearch(mBucketStart, 0, mBucketCount, now);
+        if (active < 0) {
+            active = (~active) - 1;
+        }
+        if (active >= 0) {
+            final long activeStart = mBucketStart[active];
+            final long activeEnd = activeStart + mBucketDuration;
+            if (activeStart < now && activeEnd > now && activeStart < end && activeEnd > start) {
+                final long bucketBytes = mTotalBefore[active + 1] - mTotalBefore[active];
+                final long overlap = Math.min(activeEnd, end) - Math.max(activeStart, start);
+                total += bucketBytes - bucketBytes * overlap / mBucketDuration;
+            }
+        }
+        return total;
+    }
+
     /**
      * Erase any existing {@link Path} and generate series outline based on
      * currently bound {@link NetworkStatsHistory} data.
@@ -180,6 +291,8 @@ public class ChartNetworkSeriesView extends View {
             return;
         }
 
+        ensureProjection();
+
         final int width = getWidth();
         final int height = getHeight();
 
@@ -197,24 +310,24 @@ public class ChartNetworkSeriesView extends View {
 
         long totalData = 0;
 
-        NetworkStatsHistory.Entry entry = null;
+        // totals are counted from the first bucket on screen
+        int first = -1;
 
-        final int start = mStats.getIndexBefore(mStart);
-        final int end = mStats.getIndexAfter(mEnd);
+        final int start = getIndexBefore(mStart);
+        final int end = getIndexAfter(mEnd);
         for (int i = start; i <= end; i++) {
-            entry = mStats.getValues(i, entry);
-
-            final long startTime = entry.bucketStart;
-            final long endTime = startTime + entry.bucketDuration;
+            final long startTime = mBucketStart[i];
+            final long endTime = startTime + mBucketDuration;
 
             final float startX = mHoriz.convertToPoint(startTime);
             final float endX = mHoriz.convertToPoint(endTime);
 
             // skip until we find first stats on screen
             if (endX < 0) continue;
+            if (first < 0) first = i;
 
-            // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
+            // running total through current bucket
+            totalData = mTotalBefore[i + 1] - mTotalBefore[first];
 
             final float startY = lastY;
             final float endY = mVert.convertToPoint(totalData);
@@ -260,12 +373,11 @@ public class ChartNetworkSeriesView extends View {
             mPathEstimate.moveTo(lastX, lastY);
 
             final long now = System.currentTimeMillis();
-            final long bucketDuration = mStats.getBucketDuration();
+            final long bucketDuration = mBucketDuration;
 
             // long window is average over two weeks
-            entry = mStats.getValues(lastTime - WEEK_IN_MILLIS * 2, lastTime, now, entry);
-            final long longWindow = (entry.rxBytes + entry.txBytes) * bucketDuration
-                    / entry.bucketDuration;
+            final long longWindow = getTotalBetween(lastTime - WEEK_IN_MILLIS * 2, lastTime, now)
+                    * bucketDuration / (WEEK_IN_MILLIS * 2);
 
             long futureTime = 0;
             while (lastX < width) {
@@ -273,9 +385,8 @@ public class ChartNetworkSeriesView extends View {
 
                 // short window is day average last week
                 final long lastWeekTime = lastTime - WEEK_IN_MILLIS + (futureTime % WEEK_IN_MILLIS);
-                entry = mStats.getValues(lastWeekTime - DAY_IN_MILLIS, lastWeekTime, now, entry);
-                final long shortWindow = (entry.rxBytes + entry.txBytes) * bucketDuration
-                        / entry.bucketDuration;
+                final long shortWindow = getTotalBetween(lastWeekTime - DAY_IN_MILLIS,
+                        lastWeekTime, now) * bucketDuration / DAY_IN_MILLIS;
 
                 totalData += (longWindow * 7 + shortWindow * 3) / 10;
 
@@ -308,8 +419,8 @@ public class ChartNetworkSeriesView extends View {
         final long maxVisible = mEstimateVisible ? mMaxEstimate : mMax;
         if (maxVisible <= 0 && mStats != null) {
             // haven't generated path yet; fall back to raw data
-            final NetworkStatsHistory.Entry entry = mStats.getValues(mStart, mEnd, null);
-            return entry.rxBytes + entry.txBytes;
+            ensureProjection();
+            return getTotalBetween(mStart, mEnd, Long.MAX_VALUE);
         } else {
             return maxVisible;
         }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.margaritov.preference.colorpicker;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.util.Log;
+
+/**
+ * Renders the saturation/value field, the hue strip and the alpha slider of a
+ * color picker.
+ *
+ * The hue strip and the alpha slider are cached bitmaps, only re-rendered when
+ * the panel size, or for the alpha slider the color, changes. The
+ * saturation/value field is drawn as the pure hue, covered by a white to
+ * transparent and a transparent to black gradient. This blends to the same
+ * product the former ComposeShader computed without a software layer. Both
+ * gradients only depend on the panel bounds, so a hue change only changes a
+ * paint color and redraws without allocating.
+ */
+public final class ColorPickerRenderer {
+    private static final String TAG = "ColorPickerRenderer";
+    private static final boolean DEBUG = false;
+
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final float[] mHsv = new float[3];
+
+    // Saturation/value field layers, the gradients match mSatValRect
+    private final Paint mHuePaint = new Paint();
+    private final Paint mSatPaint = new Paint();
+    private final Paint mValPaint = new Paint();
+    private final RectF mSatValRect = new RectF();
+
+    // One pixel wide hue strip, stretched to the panel width
+    private Bitmap mHueBitmap;
+
+    // One pixel high alpha ramp for a single color, stretched to the panel height
+    private Bitmap mAlphaBitmap;
+    private int[] mAlphaPixels;
+    private int mAlphaColor;
+
+    /**
+     * Draws the saturation/value field for the given hue into rect.
+     */
+    public void drawSatValPanel(Canvas canvas, RectF rect, float hue) {
+        if (!mSatValRect.equals(rect)) {
+            mSatValRect.set(rect);
+            mSatPaint.setShader(new LinearGradient(rect.left, rect.top, rect.right, rect.top,
+                    0xffffffff, 0x00ffffff, Shader.TileMode.CLAMP));
+            mValPaint.setShader(new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
+                    0x00000000, 0xff000000, Shader.TileMode.CLAMP));
+            if (DEBUG) Log.d(TAG, "Updated field gradients for " + rect);
+        }
+        mHsv[0] = hue;
+        mHsv[1] = 1f;
+        mHsv[2] = 1f;
+        mHuePaint.setColor(Color.HSVToColor(mHsv));
+        canvas.drawRect(rect, mHuePaint);
+        // White with alpha 1 - s over the hue leaves the white to hue blend,
+        // black with alpha 1 - v over that c leaves c * v
+        canvas.drawRect(rect, mSatPaint);
+        canvas.drawRect(rect, mValPaint);
+    }
+
+    /**
+     * Draws the hue strip into rect, 360 at the top down to 0 at the bottom.
+     */
+    public void drawHuePanel(Canvas canvas, RectF rect) {
+        final int height = Math.max(1, Math.round(rect.height()));
+
+        if (mHueBitmap == null || mHueBitmap.getHeight() != height) {
+            releaseBitmap(mHueBitmap);
+            mHueBitmap = Bitmap.createBitmap(1, height, Config.ARGB_8888);
+            mHsv[1] = 1f;
+            mHsv[2] = 1f;
+            for (int y = 0; y < height; y++) {
+                mHsv[0] = height > 1 ? 360f - (y * 360f / (height - 1)) : 360f;
+                mHueBitmap.setPixel(0, y, Color.HSVToColor(mHsv));
+            }
+        }
+        canvas.drawBitmap(mHueBitmap, null, rect, mBitmapPaint);
+    }
+
+    /**
+     * Draws the alpha slider into rect, going from the given color on the
+     * left to fully transparent on the right.
+     */
+    public void drawAlphaPanel(Canvas canvas, RectF rect, int color) {
+        final int width = Math.max(1, Math.round(rect.width()));
+        color |= 0xff000000;
+
+        if (mAlphaBitmap == null || mAlphaBitmap.getWidth() != width) {
+            releaseBitmap(mAlphaBitmap);
+            mAlphaBitmap = Bitmap.createBitmap(width, 1, Config.ARGB_8888);
+            mAlphaPixels = new int[width];
+            mAlphaColor = 0;
+        }
+        if (color != mAlphaColor) {
+            final int rgb = color & 0x00ffffff;
+            for (int x = 0; x < width; x++) {
+                int alpha = width > 1 ? 0xff - (x * 0xff / (width - 1)) : 0xff;
+                mAlphaPixels[x] = (alpha << 24) | rgb;
+            }
+            mAlphaBitmap.setPixels(mAlphaPixels, 0, width, 0, 0, width, 1);
+            mAlphaColor = color;
+        }
+        canvas.drawBitmap(mAlphaBitmap, null, rect, mBitmapPaint);
+    }
+
+    /**
+     * Frees the cached bitmaps; they are rendered again on the next draw.
+     */
+    public void release() {
+        releaseBitmap(mHueBitmap);
+        releaseBitmap(mAlphaBitmap);
+        mSatPaint.setShader(null);
+        mValPaint.setShader(null);
+        mSatValRect.setEmpty();
+        mHueBitmap = null;
+        mAlphaBitmap = null;
+        mAlphaPixels = null;
+    }
+
+    private static void releaseBitmap(Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.vpn2;
+
+import android.os.SystemClock;
+import android.security.Credentials;
+import android.security.KeyStore;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.internal.net.VpnProfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link VpnProfileImporter} and {@link VpnProfileStore}, including
+ * import throughput and load latency with 500 profiles.
+ *
+ * The profiles are written to the KeyStore of the Settings process, which has
+ * to be unlocked. To run the test, use command:
+ * adb shell am instrument -e class com.android.settings.vpn2.VpnProfileImporterTest
+ * -w com.android.settings.tests/android.test.InstrumentationTestRunner
+ */
+public class VpnProfileImporterTest extends InstrumentationTestCase {
+    private static final String TAG = "VpnProfileImporterTest";
+
+    private static final int PROFILE_COUNT = 500;
+    private static final int LOAD_RUNS = 10;
+
+    private final KeyStore mKeyStore = KeyStore.getInstance();
+    private final List<String> mImportedKeys = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        assertEquals("Unlock the KeyStore before running the test",
+                KeyStore.State.UNLOCKED, mKeyStore.state());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (String key : mImportedKeys) {
+            VpnProfileStore.delete(mKeyStore, key);
+        }
+        mImportedKeys.clear();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testSkipsInvalidProfiles() throws Exception {
+        final StringBuilder xml = new StringBuilder("<vpns>");
+        appendProfile(xml, "Valid", "TYPE_PPTP", "vpn.example.com", null);
+        // Missing server
+        appendProfile(xml, "No server", "TYPE_PPTP", null, null);
+        // Unknown type
+        appendProfile(xml, "Bad type", "TYPE_FOO", "vpn.example.com", null);
+        // PSK without a secret
+        appendProfile(xml, "No secret", "TYPE_L2TP_IPSEC_PSK", "vpn.example.com", null);
+        appendProfile(xml, "Psk", "TYPE_L2TP_IPSEC_PSK", "vpn.example.com", "secret");
+        xml.append("</vpns>");
+
+        final VpnProfileImporter importer = importProfiles(xml.toString());
+        assertEquals(2, importer.getImportedCount());
+        assertEquals(3, importer.getSkippedCount());
+        assertEquals(2, mImportedKeys.size());
+    }
+
+    @LargeTest
+    public void testImportAndLoadProfiles() throws Exception {
+        final StringBuilder xml = new StringBuilder("<vpns>");
+        for (int i = 0; i < PROFILE_COUNT; i++) {
+            appendProfile(xml, "Profile " + i, i % 2 == 0 ? "TYPE_PPTP" : "TYPE_L2TP_IPSEC_PSK",
+                    "vpn" + i + ".example.com", "secret" + i);
+        }
+        xml.append("</vpns>");
+
+        final VpnProfileImporter importer = importProfiles(xml.toString());
+        assertEquals(PROFILE_COUNT, importer.getImportedCount());
+        assertEquals(0, importer.getSkippedCount());
+        Log.i(TAG, "Imported " + PROFILE_COUNT + " profiles at " + importer.getThroughput()
+                + " profiles/s");
+
+        // The imported profiles are cached by the store, so listing them must not
+        // decode any of them again
+        final int decodeCount = VpnProfileStore.getDecodeCount();
+        long start = SystemClock.elapsedRealtime();
+        final List<VpnProfile> profiles = VpnProfileStore.load(mKeyStore);
+        Log.i(TAG, "First load of " + profiles.size() + " profiles took "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+        assertTrue(profiles.size() >= PROFILE_COUNT);
+        assertEquals(decodeCount, VpnProfileStore.getDecodeCount());
+
+        // Every resume of the VPN settings loads the profiles again
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LOAD_RUNS; i++) {
+            assertEquals(profiles.size(), VpnProfileStore.load(mKeyStore).size());
+        }
+        Log.i(TAG, "Resume load of " + profiles.size() + " profiles took "
+                + (SystemClock.elapsedRealtime() - start) / LOAD_RUNS + "ms on average");
+        assertEquals(decodeCount, VpnProfileStore.getDecodeCount());
+    }
+
+    private VpnProfileImporter importProfiles(String xml) throws Exception {
+        final VpnProfileImporter importer = new VpnProfileImporter(mKeyStore,
+                mKeyStore.saw(Credentials.VPN));
+        final InputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+        try {
+            importer.importProfiles(in, new VpnProfileImporter.Callback() {
+                @Override
+                public void onBatchImported(List<VpnProfile> profiles) {
+                    assertTrue(profiles.size() <= VpnProfileImporter.BATCH_SIZE);
+                    for (VpnProfile profile : profiles) {
+                        mImportedKeys.add(profile.key);
+                    }
+                }
+            });
+        } finally {
+            in.close();
+        }
+        return importer;
+    }
+
+    private static void appendProfile(StringBuilder xml, String name, String type,
+            String server, String ipsecSecret) {
+        xml.append("<vpn>");
+        appendElement(xml, "name", name);
+        appendElement(xml, "type", type);
+        appendElement(xml, "server", server);
+        appendElement(xml, "ipsecSecret", ipsecSecret);
+        xml.append("</vpn>");
+    }
+
+    private static void appendElement(StringBuilder xml, String tag, String value) {
+        if (value != null) {
+            xml.append('<').append(tag).append('>').append(value)
+                    .append("</").append(tag).append('>');
+        }
+    }
+}